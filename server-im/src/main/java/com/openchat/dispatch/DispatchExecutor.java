@@ -0,0 +1,179 @@
+package com.openchat.dispatch;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Histogram;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import static com.codahale.metrics.MetricRegistry.name;
+
+public class DispatchExecutor {
+
+  public enum OverflowPolicy {
+    BLOCK, DROP
+  }
+
+  private static final long RESYNC_POLL_MILLIS = 100;
+
+  private final Logger logger = LoggerFactory.getLogger(DispatchExecutor.class);
+
+  private final List<Stripe>   stripes;
+  private final OverflowPolicy overflowPolicy;
+  private final long           blockTimeoutMillis;
+  private final Histogram      waitHistogram;
+  private final Meter          rejectedMeter;
+  private final Meter          resyncMeter;
+
+  public DispatchExecutor(int stripeCount, int queueSize, OverflowPolicy overflowPolicy, long blockTimeoutMillis, MetricRegistry metricRegistry) {
+    this.stripes            = new ArrayList<>(stripeCount);
+    this.overflowPolicy     = overflowPolicy;
+    this.blockTimeoutMillis = blockTimeoutMillis;
+    this.waitHistogram      = metricRegistry.histogram(name(DispatchExecutor.class, "wait"));
+    this.rejectedMeter      = metricRegistry.meter(name(DispatchExecutor.class, "rejected"));
+    this.resyncMeter        = metricRegistry.meter(name(DispatchExecutor.class, "resync"));
+
+    for (int i=0;i<stripeCount;i++) {
+      stripes.add(new Stripe(i, queueSize));
+    }
+
+    metricRegistry.register(name(DispatchExecutor.class, "queueDepth"), new Gauge<Integer>() {
+      @Override
+      public Integer getValue() {
+        int depth = 0;
+
+        for (Stripe stripe : stripes) {
+          depth += stripe.queue.size();
+        }
+
+        return depth;
+      }
+    });
+  }
+
+  public void start() {
+    for (Stripe stripe : stripes) {
+      stripe.start();
+    }
+  }
+
+  public void shutdown() {
+    for (Stripe stripe : stripes) {
+      stripe.shutdown();
+    }
+  }
+
+  // BLOCK only waits up to blockTimeoutMillis, so a slow stripe can't stall a shard reader
+  // long enough for redis to drop the connection at its client-output-buffer-limit.
+  public boolean execute(String key, Runnable runnable) {
+    Stripe stripe = getStripe(key);
+    Task   task   = new Task(runnable);
+
+    try {
+      if (overflowPolicy == OverflowPolicy.BLOCK) {
+        if (stripe.queue.offer(task, blockTimeoutMillis, TimeUnit.MILLISECONDS)) return true;
+      } else if (stripe.queue.offer(task)) {
+        return true;
+      }
+    } catch (InterruptedException e) {
+      logger.warn("Interrupted while queueing dispatch", e);
+      Thread.currentThread().interrupt();
+    }
+
+    rejectedMeter.mark();
+    logger.warn("Dispatch queue full, dropping event for: " + key);
+    return false;
+  }
+
+  // Coalesced per key and run by the key's stripe outside its queue, so it can't overflow.
+  public void resync(String key, Runnable runnable) {
+    resync(key, key, runnable);
+  }
+
+  // Runs on the key's stripe but coalesces per token, for events that mustn't be folded into the key's resync.
+  public void resync(String key, Object token, Runnable runnable) {
+    if (getStripe(key).resyncs.putIfAbsent(token, runnable) == null) {
+      resyncMeter.mark();
+    }
+  }
+
+  private Stripe getStripe(String key) {
+    return stripes.get((key.hashCode() & Integer.MAX_VALUE) % stripes.size());
+  }
+
+  private static class Task {
+    private final Runnable runnable;
+    private final long     queuedTime;
+
+    private Task(Runnable runnable) {
+      this.runnable   = runnable;
+      this.queuedTime = System.nanoTime();
+    }
+  }
+
+  private class Stripe extends Thread {
+
+    private final BlockingQueue<Task>   queue;
+    private final Map<Object, Runnable> resyncs = new ConcurrentHashMap<>();
+
+    private volatile boolean running = true;
+
+    private Stripe(int index, int queueSize) {
+      super(DispatchExecutor.class.getSimpleName() + "-" + index);
+      this.queue = new ArrayBlockingQueue<>(queueSize);
+      setDaemon(true);
+    }
+
+    private void shutdown() {
+      this.running = false;
+      this.interrupt();
+    }
+
+    @Override
+    public void run() {
+      while (running) {
+        try {
+          Task task = queue.poll(RESYNC_POLL_MILLIS, TimeUnit.MILLISECONDS);
+
+          if (task != null) {
+            waitHistogram.update(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - task.queuedTime));
+            task.runnable.run();
+          }
+
+          if (!resyncs.isEmpty()) {
+            runResyncs();
+          }
+        } catch (InterruptedException e) {
+          if (running) logger.warn("Dispatch stripe interrupted", e);
+        } catch (Throwable t) {
+          logger.warn("Dispatch handler error", t);
+        }
+      }
+    }
+
+    private void runResyncs() {
+      Iterator<Map.Entry<Object, Runnable>> iterator = resyncs.entrySet().iterator();
+
+      while (iterator.hasNext()) {
+        Runnable resync = iterator.next().getValue();
+        iterator.remove();
+
+        try {
+          resync.run();
+        } catch (Throwable t) {
+          logger.warn("Dispatch resync error", t);
+        }
+      }
+    }
+  }
+}
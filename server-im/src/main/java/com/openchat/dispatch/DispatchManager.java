@@ -1,57 +1,139 @@
 package com.openchat.dispatch;
 
+import com.codahale.metrics.Histogram;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.SharedMetricRegistries;
+import com.codahale.metrics.Timer;
 import com.google.common.base.Optional;
+import com.google.common.hash.Hashing;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import com.openchat.dispatch.io.RedisPubSubConnectionFactory;
 import com.openchat.dispatch.redis.PubSubConnection;
 import com.openchat.dispatch.redis.PubSubReply;
+import com.openchat.secureim.util.Constants;
 
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedList;
+import java.util.List;
 import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.TreeMap;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.Executor;
 import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 
-public class DispatchManager extends Thread {
+import static com.codahale.metrics.MetricRegistry.name;
+
+public class DispatchManager {
+
+  private static final int  VIRTUAL_NODES_PER_SHARD  = 64;
+  private static final int  DEFAULT_QUEUE_SIZE       = 1000;
+  private static final int  DEFAULT_BATCH_SIZE       = 500;
+  private static final long DEFAULT_FLUSH_MILLIS     = 5;
+  private static final long DEFAULT_BLOCK_MILLIS     = 100;
 
   private final Logger                       logger        = LoggerFactory.getLogger(DispatchManager.class);
-  private final Executor                     executor      = Executors.newCachedThreadPool();
   private final Map<String, DispatchChannel> subscriptions = new ConcurrentHashMap<>();
+  private final Set<String>                  allShards     = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
 
+  private final DispatchExecutor             executor;
+  private final ScheduledExecutorService     subscriptionScheduler;
   private final Optional<DispatchChannel>    deadLetterChannel;
-  private final RedisPubSubConnectionFactory redisPubSubConnectionFactory;
-
-  private          PubSubConnection pubSubConnection;
-  private volatile boolean          running;
+  private final List<DispatchShard>          shards;
+  private final NavigableMap<Long, Integer>  ring;
+  private final Timer                        resubscribeTimer;
+  private final Histogram                    localLagHistogram;
 
   public DispatchManager(RedisPubSubConnectionFactory redisPubSubConnectionFactory,
                          Optional<DispatchChannel> deadLetterChannel)
   {
-    this.redisPubSubConnectionFactory = redisPubSubConnectionFactory;
-    this.deadLetterChannel            = deadLetterChannel;
+    this(Collections.singletonList(redisPubSubConnectionFactory), deadLetterChannel, SharedMetricRegistries.getOrCreate(Constants.METRICS_NAME));
+  }
+
+  public DispatchManager(List<? extends RedisPubSubConnectionFactory> redisPubSubConnectionFactories,
+                         Optional<DispatchChannel> deadLetterChannel,
+                         MetricRegistry metricRegistry)
+  {
+    this(redisPubSubConnectionFactories, deadLetterChannel,
+         new DispatchExecutor(Runtime.getRuntime().availableProcessors() * 2, DEFAULT_QUEUE_SIZE,
+                              DispatchExecutor.OverflowPolicy.BLOCK, DEFAULT_BLOCK_MILLIS, metricRegistry),
+         DEFAULT_BATCH_SIZE, DEFAULT_FLUSH_MILLIS, metricRegistry);
+  }
+
+  public DispatchManager(List<? extends RedisPubSubConnectionFactory> redisPubSubConnectionFactories,
+                         Optional<DispatchChannel> deadLetterChannel,
+                         DispatchExecutor executor,
+                         int subscriptionBatchSize,
+                         long subscriptionFlushMillis,
+                         MetricRegistry metricRegistry)
+  {
+    this.executor              = executor;
+    this.subscriptionScheduler = Executors.newSingleThreadScheduledExecutor();
+    this.deadLetterChannel     = deadLetterChannel;
+    this.shards                = new ArrayList<>(redisPubSubConnectionFactories.size());
+    this.ring                  = new TreeMap<>();
+    this.resubscribeTimer      = metricRegistry.timer(name(DispatchManager.class, "resubscribe"));
+    this.localLagHistogram     = metricRegistry.histogram(name(DispatchManager.class, "local", "lag"));
+
+    for (int i=0;i<redisPubSubConnectionFactories.size();i++) {
+      SubscriptionBatcher batcher = new SubscriptionBatcher(subscriptionScheduler, subscriptionBatchSize, subscriptionFlushMillis);
+      shards.add(new DispatchShard(i, redisPubSubConnectionFactories.get(i), batcher, metricRegistry));
+
+      for (int j=0;j<VIRTUAL_NODES_PER_SHARD;j++) {
+        ring.put(hash(i + ":" + j), i);
+      }
+    }
   }
 
-  @Override
   public void start() {
-    this.pubSubConnection = redisPubSubConnectionFactory.connect();
-    this.running          = true;
-    super.start();
+    executor.start();
+
+    for (DispatchShard shard : shards) {
+      shard.connect();
+    }
+
+    for (DispatchShard shard : shards) {
+      shard.start();
+    }
   }
 
   public void shutdown() {
-    this.running = false;
-    this.pubSubConnection.close();
+    for (DispatchShard shard : shards) {
+      shard.shutdown();
+    }
+
+    subscriptionScheduler.shutdown();
+    executor.shutdown();
   }
 
-  public synchronized void subscribe(String name, DispatchChannel dispatchChannel) {
-    Optional<DispatchChannel> previous = Optional.fromNullable(subscriptions.get(name));
-    subscriptions.put(name, dispatchChannel);
+  public int getShardCount() {
+    return shards.size();
+  }
 
-    try {
-      pubSubConnection.subscribe(name);
-    } catch (IOException e) {
-      logger.warn("Subscription error", e);
+  public int getShard(String name) {
+    if (shards.size() == 1) return 0;
+
+    Map.Entry<Long, Integer> entry = ring.ceilingEntry(hash(name));
+
+    if (entry == null) entry = ring.firstEntry();
+
+    return entry.getValue();
+  }
+
+  public void subscribe(String name, DispatchChannel dispatchChannel) {
+    Optional<DispatchChannel> previous;
+
+    synchronized (this) {
+      previous = Optional.fromNullable(subscriptions.put(name, dispatchChannel));
+      shards.get(getShard(name)).getBatcher().subscribe(name);
     }
 
     if (previous.isPresent()) {
@@ -59,49 +141,45 @@ public class DispatchManager extends Thread {
     }
   }
 
-  public synchronized void unsubscribe(String name, DispatchChannel channel) {
-    Optional<DispatchChannel> subscription = Optional.fromNullable(subscriptions.get(name));
+  public synchronized void subscribeAllShards(String name, DispatchChannel dispatchChannel) {
+    subscriptions.put(name, dispatchChannel);
+    allShards.add(name);
 
-    if (subscription.isPresent() && subscription.get() == channel) {
-      subscriptions.remove(name);
+    for (DispatchShard shard : shards) {
+      shard.getBatcher().subscribe(name);
+    }
+  }
 
-      try {
-        pubSubConnection.unsubscribe(name);
-      } catch (IOException e) {
-        logger.warn("Unsubscribe error", e);
+  public boolean unsubscribe(String name, DispatchChannel channel) {
+    synchronized (this) {
+      if (!subscriptions.remove(name, channel)) {
+        return false;
       }
 
-      dispatchUnsubscription(name, subscription.get());
+      shards.get(getShard(name)).getBatcher().unsubscribe(name);
     }
+
+    // Queued outside the lock, since a blocked stripe may be waiting on it
+    dispatchUnsubscription(name, channel);
+    return true;
   }
 
   public boolean hasSubscription(String name) {
     return subscriptions.containsKey(name);
   }
-  
-  @Override
-  public void run() {
-    while (running) {
-      try {
-        PubSubReply reply = pubSubConnection.read();
-
-        switch (reply.getType()) {
-          case UNSUBSCRIBE:                             break;
-          case SUBSCRIBE:   dispatchSubscribe(reply);   break;
-          case MESSAGE:     dispatchMessage(reply);     break;
-          default:          throw new AssertionError("Unknown pubsub reply type! " + reply.getType());
-        }
-      } catch (IOException e) {
-        logger.warn("***** PubSub Connection Error *****", e);
-        if (running) {
-          this.pubSubConnection.close();
-          this.pubSubConnection = redisPubSubConnectionFactory.connect();
-          resubscribeAll();
-        }
-      }
+
+  public boolean dispatchLocal(String name, byte[] message) {
+    Optional<DispatchChannel> subscription = Optional.fromNullable(subscriptions.get(name));
+
+    if (!subscription.isPresent()) {
+      return false;
     }
 
-    logger.warn("DispatchManager Shutting Down...");
+    return dispatchMessage(name, subscription.get(), message, localLagHistogram);
+  }
+
+  private static long hash(String value) {
+    return Hashing.murmur3_128().hashString(value, StandardCharsets.UTF_8).asLong();
   }
 
   private void dispatchSubscribe(final PubSubReply reply) {
@@ -114,59 +192,172 @@ public class DispatchManager extends Thread {
     }
   }
 
-  private void dispatchMessage(PubSubReply reply) {
+  private void dispatchMessage(PubSubReply reply, DispatchShard shard) {
     Optional<DispatchChannel> subscription = Optional.fromNullable(subscriptions.get(reply.getChannel()));
 
+    shard.messageMeter.mark();
+
     if (subscription.isPresent()) {
-      dispatchMessage(reply.getChannel(), subscription.get(), reply.getContent().get());
+      if (!dispatchMessage(reply.getChannel(), subscription.get(), reply.getContent().get(), shard.lagHistogram)) {
+        dispatchOverflow(reply.getChannel(), subscription.get(), reply.getContent().get());
+      }
     } else if (deadLetterChannel.isPresent()) {
-      dispatchMessage(reply.getChannel(), deadLetterChannel.get(), reply.getContent().get());
+      dispatchMessage(reply.getChannel(), deadLetterChannel.get(), reply.getContent().get(), shard.lagHistogram);
     } else {
       logger.warn("Received message for non-existing channel, with no dead letter handler: " + reply.getChannel());
     }
   }
 
-  private void resubscribeAll() {
-    new Thread() {
+  private void resubscribeAll(final DispatchShard shard, final long disconnected) {
+    subscriptionScheduler.execute(new Runnable() {
       @Override
       public void run() {
         synchronized (DispatchManager.this) {
           try {
+            List<String> names = new LinkedList<>();
+
             for (String name : subscriptions.keySet()) {
-              pubSubConnection.subscribe(name);
+              if (getShard(name) == shard.getIndex() || allShards.contains(name)) {
+                names.add(name);
+              }
             }
+
+            shard.getBatcher().resubscribe(names);
+            resubscribeTimer.update(System.nanoTime() - disconnected, TimeUnit.NANOSECONDS);
           } catch (IOException e) {
             logger.warn("***** RESUBSCRIPTION ERROR *****", e);
           }
         }
       }
-    }.start();
+    });
   }
 
-  private void dispatchMessage(final String name, final DispatchChannel channel, final byte[] message) {
-    executor.execute(new Runnable() {
+  private boolean dispatchMessage(final String name, final DispatchChannel channel, final byte[] message, final Histogram lagHistogram) {
+    final long received = System.currentTimeMillis();
+
+    return executor.execute(name, new Runnable() {
       @Override
       public void run() {
+        lagHistogram.update(System.currentTimeMillis() - received);
         channel.onDispatchMessage(name, message);
       }
     });
   }
 
+  // The dropped message is handed to the dead letter channel, which queues deliveries, and the
+  // subscriber gets a coalesced subscribe callback so it re-reads its queue once the stripe drains.
+  private void dispatchOverflow(final String name, final DispatchChannel channel, final byte[] message) {
+    if (deadLetterChannel.isPresent()) {
+      deadLetterChannel.get().onDispatchMessage(name, message);
+    }
+
+    executor.resync(name, new Runnable() {
+      @Override
+      public void run() {
+        if (subscriptions.get(name) == channel) {
+          channel.onDispatchSubscribed(name);
+        }
+      }
+    });
+  }
+
   private void dispatchSubscription(final String name, final DispatchChannel channel) {
-    executor.execute(new Runnable() {
+    Runnable subscribed = new Runnable() {
       @Override
       public void run() {
         channel.onDispatchSubscribed(name);
       }
-    });
+    };
+
+    if (!executor.execute(name, subscribed)) {
+      executor.resync(name, subscribed);
+    }
   }
 
+  // Callers include the websocket close path, so a full stripe defers the callback rather than
+  // parking the caller. It's keyed by channel so it can't be coalesced into the name's resync.
   private void dispatchUnsubscription(final String name, final DispatchChannel channel) {
-    executor.execute(new Runnable() {
+    Runnable unsubscribed = new Runnable() {
       @Override
       public void run() {
         channel.onDispatchUnsubscribed(name);
       }
-    });
+    };
+
+    if (!executor.execute(name, unsubscribed)) {
+      executor.resync(name, Arrays.asList(name, channel), unsubscribed);
+    }
+  }
+
+  private class DispatchShard extends Thread {
+
+    private final int                          index;
+    private final RedisPubSubConnectionFactory redisPubSubConnectionFactory;
+    private final SubscriptionBatcher          batcher;
+    private final Meter                        messageMeter;
+    private final Histogram                    lagHistogram;
+
+    private volatile PubSubConnection pubSubConnection;
+    private volatile boolean          running;
+
+    private DispatchShard(int index,
+                          RedisPubSubConnectionFactory redisPubSubConnectionFactory,
+                          SubscriptionBatcher batcher,
+                          MetricRegistry metricRegistry)
+    {
+      super(DispatchManager.class.getSimpleName() + "-" + index);
+      this.index                        = index;
+      this.redisPubSubConnectionFactory = redisPubSubConnectionFactory;
+      this.batcher                      = batcher;
+      this.messageMeter                 = metricRegistry.meter(name(DispatchManager.class, "shard", String.valueOf(index), "messages"));
+      this.lagHistogram                 = metricRegistry.histogram(name(DispatchManager.class, "shard", String.valueOf(index), "lag"));
+    }
+
+    private void connect() {
+      this.pubSubConnection = redisPubSubConnectionFactory.connect();
+      this.running          = true;
+      this.batcher.setConnection(pubSubConnection);
+    }
+
+    private void shutdown() {
+      this.running = false;
+      this.pubSubConnection.close();
+    }
+
+    private int getIndex() {
+      return index;
+    }
+
+    private SubscriptionBatcher getBatcher() {
+      return batcher;
+    }
+
+    @Override
+    public void run() {
+      while (running) {
+        try {
+          PubSubReply reply = pubSubConnection.read();
+
+          switch (reply.getType()) {
+            case UNSUBSCRIBE:                               break;
+            case SUBSCRIBE:   dispatchSubscribe(reply);     break;
+            case MESSAGE:     dispatchMessage(reply, this); break;
+            default:          throw new AssertionError("Unknown pubsub reply type! " + reply.getType());
+          }
+        } catch (IOException e) {
+          logger.warn("***** PubSub Connection Error *****", e);
+          if (running) {
+            long disconnected = System.nanoTime();
+
+            this.pubSubConnection.close();
+            this.pubSubConnection = redisPubSubConnectionFactory.connect();
+            this.batcher.setConnection(pubSubConnection);
+            resubscribeAll(this, disconnected);
+          }
+        }
+      }
+
+      logger.warn("DispatchManager Shutting Down...");
+    }
   }
 }
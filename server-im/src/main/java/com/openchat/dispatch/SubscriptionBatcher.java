@@ -0,0 +1,101 @@
+package com.openchat.dispatch;
+
+import com.google.common.collect.Iterables;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import com.openchat.dispatch.redis.PubSubConnection;
+
+import java.io.IOException;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+public class SubscriptionBatcher {
+
+  private static final int RESUBSCRIBE_BATCH_MULTIPLIER = 10;
+
+  private final Logger logger = LoggerFactory.getLogger(SubscriptionBatcher.class);
+
+  private final ScheduledExecutorService scheduler;
+  private final int                      batchSize;
+  private final long                     flushMillis;
+
+  // Last operation wins per channel, a subscribe followed by an unsubscribe collapses to the unsubscribe
+  private Map<String, Boolean> pending = new LinkedHashMap<>();
+  private boolean              flushScheduled;
+  private PubSubConnection     connection;
+
+  public SubscriptionBatcher(ScheduledExecutorService scheduler, int batchSize, long flushMillis) {
+    this.scheduler   = scheduler;
+    this.batchSize   = batchSize;
+    this.flushMillis = flushMillis;
+  }
+
+  public synchronized void setConnection(PubSubConnection connection) {
+    this.connection = connection;
+  }
+
+  public synchronized void subscribe(String name) {
+    add(name, true);
+  }
+
+  public synchronized void unsubscribe(String name) {
+    add(name, false);
+  }
+
+  public synchronized void resubscribe(Collection<String> names) throws IOException {
+    for (String name : names) {
+      pending.remove(name);
+    }
+
+    for (List<String> batch : Iterables.partition(names, batchSize * RESUBSCRIBE_BATCH_MULTIPLIER)) {
+      connection.subscribe(batch);
+    }
+  }
+
+  public synchronized void flush() {
+    flushScheduled = false;
+
+    if (pending.isEmpty()) return;
+
+    Map<String, Boolean> operations   = pending;
+    List<String>         subscribes   = new LinkedList<>();
+    List<String>         unsubscribes = new LinkedList<>();
+
+    pending = new LinkedHashMap<>();
+
+    for (Map.Entry<String, Boolean> operation : operations.entrySet()) {
+      if (operation.getValue()) subscribes.add(operation.getKey());
+      else                      unsubscribes.add(operation.getKey());
+    }
+
+    try {
+      if (!unsubscribes.isEmpty()) connection.unsubscribe(unsubscribes);
+      if (!subscribes.isEmpty())   connection.subscribe(subscribes);
+    } catch (IOException e) {
+      // The shard reader sees the same failure and resubscribes everything on reconnect
+      logger.warn("Subscription flush error", e);
+    }
+  }
+
+  private void add(String name, boolean subscribe) {
+    pending.remove(name);
+    pending.put(name, subscribe);
+
+    if (pending.size() >= batchSize) {
+      flush();
+    } else if (!flushScheduled) {
+      flushScheduled = true;
+      scheduler.schedule(new Runnable() {
+        @Override
+        public void run() {
+          flush();
+        }
+      }, flushMillis, TimeUnit.MILLISECONDS);
+    }
+  }
+}
@@ -1,47 +1,119 @@
 package com.openchat.dispatch.io;
 
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 
 public class RedisInputStream {
 
   private static final byte CR = 0x0D;
   private static final byte LF = 0x0A;
 
+  private static final int BUFFER_SIZE = 16 * 1024;
+
   private final InputStream inputStream;
+  private final ByteBuffer  buffer;
 
   public RedisInputStream(InputStream inputStream) {
     this.inputStream = inputStream;
+    this.buffer      = ByteBuffer.allocate(BUFFER_SIZE);
+    this.buffer.flip();
   }
 
-  public String readLine() throws IOException {
-    ByteArrayOutputStream boas = new ByteArrayOutputStream();
+  public int readHeader(char prefix) throws IOException {
+    byte type = readByte();
 
-    boolean foundCr = false;
+    if (type != prefix) {
+      throw new IOException("Invalid reply header: expected " + prefix + " but got " + (char)type);
+    }
 
-    while (true) {
-      int character = inputStream.read();
+    boolean negative = false;
+    long    value    = 0;
+    byte    digit    = readByte();
 
-      if (character == -1) {
-        throw new IOException("Stream closed!");
+    if (digit == '-') {
+      negative = true;
+      digit    = readByte();
+    }
+
+    while (digit != CR) {
+      if (digit < '0' || digit > '9') {
+        throw new IOException("Invalid reply header digit: " + (char)digit);
       }
 
-      boas.write(character);
+      value = (value * 10) + (digit - '0');
+
+      if (value > Integer.MAX_VALUE) {
+        throw new IOException("Reply header out of range");
+      }
 
-      if      (foundCr && character == LF) break;
-      else if (character == CR)            foundCr = true;
-      else if (foundCr)                    foundCr = false;
+      digit = readByte();
     }
 
-    byte[] data = boas.toByteArray();
-    return new String(data, 0, data.length-2);
+    expect(LF);
+    return negative ? (int)-value : (int)value;
+  }
+
+  public byte[] readBulk(int length) throws IOException {
+    byte[] result = readFully(length);
+    readCrLf();
+    return result;
+  }
+
+  public String readBulkString(int length) throws IOException {
+    checkLength(length);
+
+    String result;
+
+    if (length <= buffer.capacity()) {
+      ensure(length);
+      result = new String(buffer.array(), buffer.arrayOffset() + buffer.position(), length, StandardCharsets.UTF_8);
+      buffer.position(buffer.position() + length);
+    } else {
+      result = new String(readFully(length), StandardCharsets.UTF_8);
+    }
+
+    readCrLf();
+    return result;
+  }
+
+  public int readBulkMatch(int length, byte[]... candidates) throws IOException {
+    checkLength(length);
+
+    int match = -1;
+
+    if (length <= buffer.capacity()) {
+      ensure(length);
+
+      byte[] array  = buffer.array();
+      int    offset = buffer.arrayOffset() + buffer.position();
+
+      for (int i=0;i<candidates.length && match == -1;i++) {
+        if (regionEquals(array, offset, length, candidates[i])) {
+          match = i;
+        }
+      }
+
+      buffer.position(buffer.position() + length);
+    } else {
+      skip(length);
+    }
+
+    readCrLf();
+    return match;
   }
 
   public byte[] readFully(int size) throws IOException {
+    checkLength(size);
+
     byte[] result    = new byte[size];
-    int    offset    = 0;
-    int    remaining = result.length;
+    int    buffered  = Math.min(size, buffer.remaining());
+
+    buffer.get(result, 0, buffered);
+
+    int offset    = buffered;
+    int remaining = size - buffered;
 
     while (remaining > 0) {
       int read = inputStream.read(result, offset, remaining);
@@ -61,4 +133,74 @@ public class RedisInputStream {
     inputStream.close();
   }
 
+  private static boolean regionEquals(byte[] array, int offset, int length, byte[] expected) {
+    if (length != expected.length) return false;
+
+    for (int i=0;i<length;i++) {
+      if (array[offset + i] != expected[i]) return false;
+    }
+
+    return true;
+  }
+
+  // A null bulk ($-1) has no payload to read
+  private static void checkLength(int length) throws IOException {
+    if (length < 0) {
+      throw new IOException("Invalid bulk length: " + length);
+    }
+  }
+
+  private void readCrLf() throws IOException {
+    expect(CR);
+    expect(LF);
+  }
+
+  private void expect(byte expected) throws IOException {
+    byte actual = readByte();
+
+    if (actual != expected) {
+      throw new IOException("Malformed reply, expected " + expected + " but got " + actual);
+    }
+  }
+
+  private byte readByte() throws IOException {
+    if (!buffer.hasRemaining()) {
+      fill();
+    }
+
+    return buffer.get();
+  }
+
+  private void skip(int length) throws IOException {
+    while (length > 0) {
+      if (!buffer.hasRemaining()) {
+        fill();
+      }
+
+      int skipped = Math.min(length, buffer.remaining());
+      buffer.position(buffer.position() + skipped);
+      length -= skipped;
+    }
+  }
+
+  private void ensure(int length) throws IOException {
+    while (buffer.remaining() < length) {
+      fill();
+    }
+  }
+
+  private void fill() throws IOException {
+    buffer.compact();
+
+    int read = inputStream.read(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining());
+
+    if (read < 0) {
+      buffer.flip();
+      throw new IOException("Stream closed!");
+    }
+
+    buffer.position(buffer.position() + read);
+    buffer.flip();
+  }
+
 }
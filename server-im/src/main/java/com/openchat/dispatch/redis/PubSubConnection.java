@@ -4,16 +4,14 @@ import com.google.common.base.Optional;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import com.openchat.dispatch.io.RedisInputStream;
-import com.openchat.dispatch.redis.protocol.ArrayReplyHeader;
-import com.openchat.dispatch.redis.protocol.IntReply;
-import com.openchat.dispatch.redis.protocol.StringReplyHeader;
 import com.openchat.dispatch.util.Util;
 
-import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.net.Socket;
-import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.concurrent.atomic.AtomicBoolean;
 
 public class PubSubConnection {
@@ -24,8 +22,8 @@ public class PubSubConnection {
   private static final byte[] SUBSCRIBE_TYPE      = {'s', 'u', 'b', 's', 'c', 'r', 'i', 'b', 'e'               };
   private static final byte[] MESSAGE_TYPE        = {'m', 'e', 's', 's', 'a', 'g', 'e'                         };
 
-  private static final byte[] SUBSCRIBE_COMMAND   = {'S', 'U', 'B', 'S', 'C', 'R', 'I', 'B', 'E', ' '          };
-  private static final byte[] UNSUBSCRIBE_COMMAND = {'U', 'N', 'S', 'U', 'B', 'S', 'C', 'R', 'I', 'B', 'E', ' '};
+  private static final byte[] SUBSCRIBE_COMMAND   = {'S', 'U', 'B', 'S', 'C', 'R', 'I', 'B', 'E'               };
+  private static final byte[] UNSUBSCRIBE_COMMAND = {'U', 'N', 'S', 'U', 'B', 'S', 'C', 'R', 'I', 'B', 'E'     };
   private static final byte[] CRLF                = {'\r', '\n'                                                };
 
   private final OutputStream     outputStream;
@@ -36,41 +34,44 @@ public class PubSubConnection {
   public PubSubConnection(Socket socket) throws IOException {
     this.socket       = socket;
     this.outputStream = socket.getOutputStream();
-    this.inputStream  = new RedisInputStream(new BufferedInputStream(socket.getInputStream()));
+    this.inputStream  = new RedisInputStream(socket.getInputStream());
     this.closed       = new AtomicBoolean(false);
   }
 
   public void subscribe(String channelName) throws IOException {
-    if (closed.get()) throw new IOException("Connection closed!");
+    subscribe(Collections.singletonList(channelName));
+  }
 
-    byte[] command = Util.combine(SUBSCRIBE_COMMAND, channelName.getBytes(), CRLF);
-    outputStream.write(command);
+  public void subscribe(Collection<String> channelNames) throws IOException {
+    writeCommand(SUBSCRIBE_COMMAND, channelNames);
   }
 
   public void unsubscribe(String channelName) throws IOException {
-    if (closed.get()) throw new IOException("Connection closed!");
+    unsubscribe(Collections.singletonList(channelName));
+  }
 
-    byte[] command = Util.combine(UNSUBSCRIBE_COMMAND, channelName.getBytes(), CRLF);
-    outputStream.write(command);
+  public void unsubscribe(Collection<String> channelNames) throws IOException {
+    writeCommand(UNSUBSCRIBE_COMMAND, channelNames);
   }
 
   public PubSubReply read() throws IOException {
     if (closed.get()) throw new IOException("Connection closed!");
 
-    ArrayReplyHeader replyHeader = new ArrayReplyHeader(inputStream.readLine());
+    int elementCount = inputStream.readHeader('*');
 
-    if (replyHeader.getElementCount() != 3) {
-      throw new IOException("Received array reply header with strange count: " + replyHeader.getElementCount());
+    if (elementCount != 3) {
+      throw new IOException("Received array reply header with strange count: " + elementCount);
     }
 
-    StringReplyHeader replyTypeHeader = new StringReplyHeader(inputStream.readLine());
-    byte[]            replyType       = inputStream.readFully(replyTypeHeader.getStringLength());
-    inputStream.readLine();
+    int replyTypeLength = inputStream.readHeader('$');
+    int replyType       = inputStream.readBulkMatch(replyTypeLength, MESSAGE_TYPE, SUBSCRIBE_TYPE, UNSUBSCRIBE_TYPE);
 
-    if      (Arrays.equals(SUBSCRIBE_TYPE, replyType))   return readSubscribeReply();
-    else if (Arrays.equals(UNSUBSCRIBE_TYPE, replyType)) return readUnsubscribeReply();
-    else if (Arrays.equals(MESSAGE_TYPE, replyType))     return readMessageReply();
-    else throw new IOException("Unknown reply type: " + new String(replyType));
+    switch (replyType) {
+      case 0:  return readMessageReply();
+      case 1:  return readSubscribeReply();
+      case 2:  return readUnsubscribeReply();
+      default: throw new IOException("Unknown reply type of length: " + replyTypeLength);
+    }
   }
 
   public void close() {
@@ -84,16 +85,29 @@ public class PubSubConnection {
     }
   }
 
-  private PubSubReply readMessageReply() throws IOException {
-    StringReplyHeader channelNameHeader = new StringReplyHeader(inputStream.readLine());
-    byte[]            channelName       = inputStream.readFully(channelNameHeader.getStringLength());
-    inputStream.readLine();
+  private synchronized void writeCommand(byte[] command, Collection<String> arguments) throws IOException {
+    if (closed.get()) throw new IOException("Connection closed!");
+
+    ByteArrayOutputStream buffer = new ByteArrayOutputStream(32 * (arguments.size() + 1));
+    buffer.write(Util.combine(("*" + (arguments.size() + 1)).getBytes(), CRLF));
+    writeBulk(buffer, command);
 
-    StringReplyHeader messageHeader = new StringReplyHeader(inputStream.readLine());
-    byte[]            message       = inputStream.readFully(messageHeader.getStringLength());
-    inputStream.readLine();
+    for (String argument : arguments) {
+      writeBulk(buffer, argument.getBytes());
+    }
+
+    outputStream.write(buffer.toByteArray());
+  }
+
+  private void writeBulk(ByteArrayOutputStream buffer, byte[] value) throws IOException {
+    buffer.write(Util.combine(("$" + value.length).getBytes(), CRLF, value, CRLF));
+  }
+
+  private PubSubReply readMessageReply() throws IOException {
+    String channelName = inputStream.readBulkString(inputStream.readHeader('$'));
+    byte[] message     = inputStream.readBulk(inputStream.readHeader('$'));
 
-    return new PubSubReply(PubSubReply.Type.MESSAGE, new String(channelName), Optional.of(message));
+    return new PubSubReply(PubSubReply.Type.MESSAGE, channelName, Optional.of(message));
   }
 
   private PubSubReply readUnsubscribeReply() throws IOException {
@@ -107,13 +121,10 @@ public class PubSubConnection {
   }
 
   private String readSubscriptionReply() throws IOException {
-    StringReplyHeader channelNameHeader = new StringReplyHeader(inputStream.readLine());
-    byte[]            channelName       = inputStream.readFully(channelNameHeader.getStringLength());
-    inputStream.readLine();
-
-    IntReply subscriptionCount = new IntReply(inputStream.readLine());
+    String channelName = inputStream.readBulkString(inputStream.readHeader('$'));
+    inputStream.readHeader(':');
 
-    return new String(channelName);
+    return channelName;
   }
 
 }
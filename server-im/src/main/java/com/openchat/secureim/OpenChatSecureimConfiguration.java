@@ -1,13 +1,19 @@
 package com.openchat.secureim;
 
 import com.fasterxml.jackson.annotation.JsonProperty;
+import com.openchat.secureim.configuration.AccountCacheConfiguration;
 import com.openchat.secureim.configuration.ApnConfiguration;
 import com.openchat.secureim.configuration.AttachmentsConfiguration;
 import com.openchat.secureim.configuration.DirectoryConfiguration;
+import com.openchat.secureim.configuration.DispatchConfiguration;
 import com.openchat.secureim.configuration.FederationConfiguration;
 import com.openchat.secureim.configuration.GcmConfiguration;
+import com.openchat.secureim.configuration.LastSeenConfiguration;
 import com.openchat.secureim.configuration.MaxDeviceConfiguration;
 import com.openchat.secureim.configuration.MessageCacheConfiguration;
+import com.openchat.secureim.configuration.MessageDeliveryConfiguration;
+import com.openchat.secureim.configuration.MessageStorePartitionConfiguration;
+import com.openchat.secureim.configuration.PresenceConfiguration;
 import com.openchat.secureim.configuration.ProfilesConfiguration;
 import com.openchat.secureim.configuration.PushConfiguration;
 import com.openchat.secureim.configuration.RateLimitsConfiguration;
@@ -75,6 +81,11 @@ public class OpenChatSecureimConfiguration extends Configuration {
   @JsonProperty
   private DataSourceFactory messageStore;
 
+  @Valid
+  @NotNull
+  @JsonProperty
+  private MessageStorePartitionConfiguration messageStorePartitions = new MessageStorePartitionConfiguration();
+
   @Valid
   @NotNull
   @JsonProperty
@@ -112,6 +123,31 @@ public class OpenChatSecureimConfiguration extends Configuration {
   @JsonProperty
   private WebSocketConfiguration webSocket = new WebSocketConfiguration();
 
+  @Valid
+  @NotNull
+  @JsonProperty
+  private MessageDeliveryConfiguration messageDelivery = new MessageDeliveryConfiguration();
+
+  @Valid
+  @NotNull
+  @JsonProperty
+  private DispatchConfiguration dispatch = new DispatchConfiguration();
+
+  @Valid
+  @NotNull
+  @JsonProperty
+  private PresenceConfiguration presence = new PresenceConfiguration();
+
+  @Valid
+  @NotNull
+  @JsonProperty
+  private AccountCacheConfiguration accountCache = new AccountCacheConfiguration();
+
+  @Valid
+  @NotNull
+  @JsonProperty
+  private LastSeenConfiguration lastSeen = new LastSeenConfiguration();
+
   @Valid
   @NotNull
   @JsonProperty
@@ -131,6 +167,26 @@ public class OpenChatSecureimConfiguration extends Configuration {
     return webSocket;
   }
 
+  public MessageDeliveryConfiguration getMessageDeliveryConfiguration() {
+    return messageDelivery;
+  }
+
+  public DispatchConfiguration getDispatchConfiguration() {
+    return dispatch;
+  }
+
+  public PresenceConfiguration getPresenceConfiguration() {
+    return presence;
+  }
+
+  public AccountCacheConfiguration getAccountCacheConfiguration() {
+    return accountCache;
+  }
+
+  public LastSeenConfiguration getLastSeenConfiguration() {
+    return lastSeen;
+  }
+
   public TwilioConfiguration getTwilioConfiguration() {
     return twilio;
   }
@@ -167,6 +223,10 @@ public class OpenChatSecureimConfiguration extends Configuration {
     return messageStore;
   }
 
+  public MessageStorePartitionConfiguration getMessageStorePartitionConfiguration() {
+    return messageStorePartitions;
+  }
+
   public DataSourceFactory getDataSourceFactory() {
     return database;
   }
@@ -8,6 +8,7 @@ import com.google.common.base.Optional;
 import org.bouncycastle.jce.provider.BouncyCastleProvider;
 import org.eclipse.jetty.servlets.CrossOriginFilter;
 import org.skife.jdbi.v2.DBI;
+import com.openchat.dispatch.DispatchExecutor;
 import com.openchat.dispatch.DispatchManager;
 import com.openchat.dropwizard.simpleauth.AuthDynamicFeature;
 import com.openchat.dropwizard.simpleauth.AuthValueFactoryProvider;
@@ -16,9 +17,11 @@ import com.openchat.secureim.auth.AccountAuthenticator;
 import com.openchat.secureim.auth.DirectoryCredentialsGenerator;
 import com.openchat.secureim.auth.FederatedPeerAuthenticator;
 import com.openchat.secureim.auth.TurnTokenGenerator;
+import com.openchat.secureim.configuration.PresenceConfiguration;
 import com.openchat.secureim.controllers.AccountController;
 import com.openchat.secureim.controllers.AttachmentController;
 import com.openchat.secureim.controllers.DeviceController;
+import com.openchat.secureim.controllers.DeviceLimitExceededException;
 import com.openchat.secureim.controllers.DirectoryController;
 import com.openchat.secureim.controllers.FederationControllerV1;
 import com.openchat.secureim.controllers.FederationControllerV2;
@@ -27,6 +30,7 @@ import com.openchat.secureim.controllers.KeysController;
 import com.openchat.secureim.controllers.MessageController;
 import com.openchat.secureim.controllers.ProfileController;
 import com.openchat.secureim.controllers.ProvisioningController;
+import com.openchat.secureim.controllers.RateLimitExceededException;
 import com.openchat.secureim.federation.FederatedClientManager;
 import com.openchat.secureim.federation.FederatedPeer;
 import com.openchat.secureim.limits.RateLimiters;
@@ -40,6 +44,9 @@ import com.openchat.secureim.metrics.FileDescriptorGauge;
 import com.openchat.secureim.metrics.FreeMemoryGauge;
 import com.openchat.secureim.metrics.NetworkReceivedGauge;
 import com.openchat.secureim.metrics.NetworkSentGauge;
+import com.openchat.secureim.presence.NodeLinkServer;
+import com.openchat.secureim.presence.NodeRouter;
+import com.openchat.secureim.presence.PresenceRegistry;
 import com.openchat.secureim.providers.RedisClientFactory;
 import com.openchat.secureim.providers.RedisHealthCheck;
 import com.openchat.secureim.push.APNSender;
@@ -57,11 +64,14 @@ import com.openchat.secureim.storage.*;
 import com.openchat.secureim.util.Constants;
 import com.openchat.secureim.websocket.AuthenticatedConnectListener;
 import com.openchat.secureim.websocket.DeadLetterHandler;
+import com.openchat.secureim.websocket.FastPathHandlers;
+import com.openchat.secureim.websocket.InvalidWebsocketAddressException;
 import com.openchat.secureim.websocket.ProvisioningConnectListener;
 import com.openchat.secureim.websocket.WebSocketAccountAuthenticator;
 import com.openchat.secureim.workers.DeleteUserCommand;
 import com.openchat.secureim.workers.DirectoryCommand;
 import com.openchat.secureim.workers.PeriodicStatsCommand;
+import com.openchat.secureim.workers.PartitionMessagesCommand;
 import com.openchat.secureim.workers.TrimMessagesCommand;
 import com.openchat.secureim.workers.VacuumCommand;
 import com.openchat.websocket.WebSocketResourceProviderFactory;
@@ -70,8 +80,12 @@ import com.openchat.websocket.setup.WebSocketEnvironment;
 import javax.servlet.DispatcherType;
 import javax.servlet.FilterRegistration;
 import javax.servlet.ServletRegistration;
+import java.io.IOException;
 import java.security.Security;
 import java.util.EnumSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.ScheduledExecutorService;
 
 import static com.codahale.metrics.MetricRegistry.name;
 import io.dropwizard.Application;
@@ -91,6 +105,7 @@ public class OpenChatSecureimService extends Application<OpenChatSecureimConfigu
     bootstrap.addCommand(new DirectoryCommand());
     bootstrap.addCommand(new VacuumCommand());
     bootstrap.addCommand(new TrimMessagesCommand());
+    bootstrap.addCommand(new PartitionMessagesCommand());
     bootstrap.addCommand(new PeriodicStatsCommand());
     bootstrap.addCommand(new DeleteUserCommand());
     bootstrap.addBundle(new NameableMigrationsBundle<OpenChatSecureimConfiguration>("accountdb", "accountsdb.xml") {
@@ -142,17 +157,70 @@ public class OpenChatSecureimService extends Application<OpenChatSecureimConfigu
     ReplicatedJedisPool messagesClient      = messagesClientFactory.getRedisClientPool();
     ReplicatedJedisPool pushSchedulerClient = pushSchedulerClientFactory.getRedisClientPool();
 
+    List<RedisClientFactory>  dispatchClientFactories = new LinkedList<>();
+    List<ReplicatedJedisPool> dispatchClientPools     = new LinkedList<>();
+
+    if (config.getDispatchConfiguration().getShardUrls().isEmpty()) {
+      for (int i=0;i<config.getDispatchConfiguration().getConnections();i++) {
+        dispatchClientFactories.add(cacheClientFactory);
+      }
+
+      dispatchClientPools.add(cacheClient);
+    } else {
+      for (String shardUrl : config.getDispatchConfiguration().getShardUrls()) {
+        RedisClientFactory shardClientFactory = new RedisClientFactory(shardUrl, new LinkedList<>());
+        dispatchClientFactories.add(shardClientFactory);
+        dispatchClientPools.add(shardClientFactory.getRedisClientPool());
+      }
+    }
+
+    Optional<AccountCache>     accountCache               = Optional.absent();
+
+    if (config.getAccountCacheConfiguration().isEnabled()) {
+      accountCache = Optional.of(new AccountCache(config.getAccountCacheConfiguration().getMaxSize(), config.getAccountCacheConfiguration().getTtlSeconds()));
+    }
+
+    Optional<LastSeenTracker>  lastSeenTracker            = Optional.absent();
+
+    if (config.getLastSeenConfiguration().isEnabled()) {
+      lastSeenTracker = Optional.of(new LastSeenTracker(cacheClient, config.getLastSeenConfiguration().getFlushIntervalSeconds(), config.getLastSeenConfiguration().getBatchSize()));
+      environment.lifecycle().manage(lastSeenTracker.get());
+    }
+
     DirectoryManager           directory                  = new DirectoryManager(directoryClient);
     DirectoryQueue             directoryQueue             = new DirectoryQueue(config.getDirectoryConfiguration().getSqsConfiguration());
     PendingAccountsManager     pendingAccountsManager     = new PendingAccountsManager(pendingAccounts, cacheClient);
     PendingDevicesManager      pendingDevicesManager      = new PendingDevicesManager (pendingDevices, cacheClient );
-    AccountsManager            accountsManager            = new AccountsManager(accounts, directory, cacheClient);
+    AccountsManager            accountsManager            = new AccountsManager(accounts, directory, cacheClient, accountCache, config.getAccountCacheConfiguration().isCompactEncoding(), lastSeenTracker);
     FederatedClientManager     federatedClientManager     = new FederatedClientManager(environment, config.getJerseyClientConfiguration(), config.getFederationConfiguration());
-    MessagesCache              messagesCache              = new MessagesCache(messagesClient, messages, accountsManager, config.getMessageCacheConfiguration().getPersistDelayMinutes());
+    MessagesCache              messagesCache              = new MessagesCache(messagesClient, messages, accountsManager, config.getMessageCacheConfiguration());
     MessagesManager            messagesManager            = new MessagesManager(messages, messagesCache);
     DeadLetterHandler          deadLetterHandler          = new DeadLetterHandler(messagesManager);
-    DispatchManager            dispatchManager            = new DispatchManager(cacheClientFactory, Optional.of(deadLetterHandler));
-    PubSubManager              pubSubManager              = new PubSubManager(cacheClient, dispatchManager);
+    DispatchExecutor           dispatchExecutor           = new DispatchExecutor(config.getDispatchConfiguration().getExecutorThreads(), config.getDispatchConfiguration().getExecutorQueueSize(), config.getDispatchConfiguration().getOverflowPolicy(), config.getDispatchConfiguration().getOverflowBlockMillis(), environment.metrics());
+    DispatchManager            dispatchManager            = new DispatchManager(dispatchClientFactories, Optional.of(deadLetterHandler), dispatchExecutor, config.getDispatchConfiguration().getSubscriptionBatchSize(), config.getDispatchConfiguration().getSubscriptionFlushMillis(), environment.metrics());
+    Optional<NodeRouter>       nodeRouter                 = Optional.absent();
+
+    if (config.getPresenceConfiguration().isEnabled()) {
+      PresenceConfiguration presence = config.getPresenceConfiguration();
+
+      if (presence.getNodeId() == null) {
+        throw new IllegalArgumentException("presence.nodeId is required when presence routing is enabled");
+      }
+
+      if (presence.getSharedSecret() == null || presence.getSharedSecret().isEmpty()) {
+        throw new IllegalArgumentException("presence.sharedSecret is required when presence routing is enabled");
+      }
+
+      PresenceRegistry presenceRegistry = new PresenceRegistry(cacheClient, presence.getNodeId(), presence.getHost(), presence.getPort(), presence.getLeaseSeconds());
+      ScheduledExecutorService nodeLinkExecutor = environment.lifecycle().scheduledExecutorService("node-link-%d").threads(2).build();
+
+      nodeRouter = Optional.of(new NodeRouter(presenceRegistry, presence.getSharedSecret().getBytes(), presence.getReplyTimeoutMillis(), nodeLinkExecutor));
+
+      environment.lifecycle().manage(new NodeLinkServer(dispatchManager, presence.getHost(), presence.getPort(), presence.getSharedSecret().getBytes()));
+      environment.lifecycle().manage(presenceRegistry);
+    }
+
+    PubSubManager              pubSubManager              = new PubSubManager(dispatchClientPools, dispatchManager, config.getDispatchConfiguration().getPublisherConnections(), config.getDispatchConfiguration().getPublisherBatchSize(), nodeRouter);
     APNSender                  apnSender                  = new APNSender(accountsManager, config.getApnConfiguration());
     GCMSender                  gcmSender                  = new GCMSender(accountsManager, config.getGcmConfiguration().getApiKey(), directoryQueue);
     WebsocketSender            websocketSender            = new WebsocketSender(messagesManager, pubSubManager);
@@ -172,7 +240,7 @@ public class OpenChatSecureimService extends Application<OpenChatSecureimConfigu
                                                                                                     config.getDirectoryConfiguration().getDirectoryClientConfiguration().getUserAuthenticationTokenUserIdSecret());
     DirectoryReconciliationCache  directoryReconciliationCache  = new DirectoryReconciliationCache(cacheClient);
     DirectoryReconciliationClient directoryReconciliationClient = new DirectoryReconciliationClient(config.getDirectoryConfiguration().getDirectoryServerConfiguration());
-    DirectoryReconciler           directoryReconciler           = new DirectoryReconciler(directoryReconciliationClient, directoryReconciliationCache, directory, accounts,
+    DirectoryReconciler           directoryReconciler           = new DirectoryReconciler(directoryReconciliationClient, directoryReconciliationCache, directory, accounts, lastSeenTracker,
                                                                                           config.getDirectoryConfiguration().getDirectoryServerConfiguration().getReconciliationChunkSize(),
                                                                                           config.getDirectoryConfiguration().getDirectoryServerConfiguration().getReconciliationChunkIntervalMs());
 
@@ -185,6 +253,15 @@ public class OpenChatSecureimService extends Application<OpenChatSecureimConfigu
     environment.lifecycle().manage(messagesCache);
     environment.lifecycle().manage(directoryReconciler);
 
+    if (accountCache.isPresent()) {
+      accountCache.get().setPubSubManager(pubSubManager);
+      environment.lifecycle().manage(accountCache.get());
+    }
+
+    if (config.getMessageStorePartitionConfiguration().isEnabled()) {
+      environment.lifecycle().manage(new MessagePartitionManager(messagedb.onDemand(MessagePartitions.class), config.getMessageStorePartitionConfiguration()));
+    }
+
     AttachmentController attachmentController = new AttachmentController(rateLimiters, federatedClientManager, urlSigner);
     KeysController       keysController       = new KeysController(rateLimiters, keys, accountsManager, federatedClientManager);
     MessageController    messageController    = new MessageController(rateLimiters, pushSender, receiptSender, accountsManager, messagesManager, federatedClientManager, apnFallbackManager);
@@ -212,12 +289,23 @@ public class OpenChatSecureimService extends Application<OpenChatSecureimConfigu
     environment.jersey().register(profileController);
 
     ///
+    ScheduledExecutorService acknowledgementScheduler = environment.lifecycle().scheduledExecutorService("websocket-ack-%d").threads(1).build();
+
     WebSocketEnvironment webSocketEnvironment = new WebSocketEnvironment(environment, config.getWebSocketConfiguration(), 90000);
     webSocketEnvironment.setAuthenticator(new WebSocketAccountAuthenticator(deviceAuthenticator));
-    webSocketEnvironment.setConnectListener(new AuthenticatedConnectListener(pushSender, receiptSender, messagesManager, pubSubManager, apnFallbackManager));
-    webSocketEnvironment.jersey().register(new KeepAliveController(pubSubManager));
+    webSocketEnvironment.setConnectListener(new AuthenticatedConnectListener(pushSender, receiptSender, messagesManager, pubSubManager, apnFallbackManager, config.getMessageDeliveryConfiguration(), acknowledgementScheduler));
+    KeepAliveController keepAliveController = new KeepAliveController(pubSubManager);
+    webSocketEnvironment.jersey().register(keepAliveController);
     webSocketEnvironment.jersey().register(messageController);
     webSocketEnvironment.jersey().register(profileController);
+    webSocketEnvironment.registerExceptionMapper(IOException.class, new IOExceptionMapper());
+    webSocketEnvironment.registerExceptionMapper(RateLimitExceededException.class, new RateLimitExceededExceptionMapper());
+    webSocketEnvironment.registerExceptionMapper(InvalidWebsocketAddressException.class, new InvalidWebsocketAddressExceptionMapper());
+    webSocketEnvironment.registerExceptionMapper(DeviceLimitExceededException.class, new DeviceLimitExceededExceptionMapper());
+
+    if (config.getWebSocketConfiguration().isFastPathHandlers()) {
+      FastPathHandlers.register(webSocketEnvironment.handlers(), keepAliveController, messageController);
+    }
 
     WebSocketEnvironment provisioningEnvironment = new WebSocketEnvironment(environment, webSocketEnvironment.getRequestLog(), 60000);
     provisioningEnvironment.setConnectListener(new ProvisioningConnectListener(pubSubManager));
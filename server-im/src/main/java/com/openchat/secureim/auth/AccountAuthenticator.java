@@ -3,6 +3,7 @@ package com.openchat.secureim.auth;
 import com.codahale.metrics.Meter;
 import com.codahale.metrics.MetricRegistry;
 import com.codahale.metrics.SharedMetricRegistries;
+import com.codahale.metrics.Timer;
 import com.google.common.base.Optional;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -11,7 +12,8 @@ import com.openchat.secureim.storage.Account;
 import com.openchat.secureim.storage.AccountsManager;
 import com.openchat.secureim.storage.Device;
 import com.openchat.secureim.util.Constants;
-import com.openchat.secureim.util.Util;
+
+import java.util.concurrent.TimeUnit;
 
 import static com.codahale.metrics.MetricRegistry.name;
 import io.dropwizard.auth.AuthenticationException;
@@ -22,20 +24,27 @@ public class AccountAuthenticator implements Authenticator<BasicCredentials, Acc
   private final MetricRegistry metricRegistry               = SharedMetricRegistries.getOrCreate(Constants.METRICS_NAME);
   private final Meter          authenticationFailedMeter    = metricRegistry.meter(name(getClass(), "authentication", "failed"   ));
   private final Meter          authenticationSucceededMeter = metricRegistry.meter(name(getClass(), "authentication", "succeeded"));
+  private final Meter          authenticationCachedMeter    = metricRegistry.meter(name(getClass(), "authentication", "cached"   ));
+  private final Timer          authenticationTimer          = metricRegistry.timer(name(getClass(), "authentication"             ));
 
   private final Logger logger = LoggerFactory.getLogger(AccountAuthenticator.class);
 
+  private static final int  CREDENTIAL_CACHE_SIZE        = 100000;
+  private static final long CREDENTIAL_CACHE_TTL_SECONDS = 60;
+
   private final AccountsManager accountsManager;
+  private final CredentialCache credentialCache;
 
   public AccountAuthenticator(AccountsManager accountsManager) {
     this.accountsManager = accountsManager;
+    this.credentialCache = new CredentialCache(CREDENTIAL_CACHE_SIZE, CREDENTIAL_CACHE_TTL_SECONDS, TimeUnit.SECONDS);
   }
 
   @Override
   public Optional<Account> authenticate(BasicCredentials basicCredentials)
       throws AuthenticationException
   {
-    try {
+    try (Timer.Context timer = authenticationTimer.time()) {
       AuthorizationHeader authorizationHeader = AuthorizationHeader.fromUserAndPassword(basicCredentials.getUsername(), basicCredentials.getPassword());
       Optional<Account>   account             = accountsManager.get(authorizationHeader.getNumber());
 
@@ -49,10 +58,10 @@ public class AccountAuthenticator implements Authenticator<BasicCredentials, Acc
         return Optional.absent();
       }
 
-      if (device.get().getAuthenticationCredentials().verify(basicCredentials.getPassword())) {
+      if (isVerified(account.get(), device.get(), basicCredentials.getPassword())) {
         authenticationSucceededMeter.mark();
         account.get().setAuthenticatedDevice(device.get());
-        updateLastSeen(account.get(), device.get());
+        accountsManager.updateLastSeen(account.get(), device.get());
         return account;
       }
 
@@ -63,11 +72,20 @@ public class AccountAuthenticator implements Authenticator<BasicCredentials, Acc
     }
   }
 
-  private void updateLastSeen(Account account, Device device) {
-    if (device.getLastSeen() != Util.todayInMillis()) {
-      device.setLastSeen(Util.todayInMillis());
-      accountsManager.update(account);
+  private boolean isVerified(Account account, Device device, String password) {
+    AuthenticationCredentials credentials = device.getAuthenticationCredentials();
+
+    if (credentialCache.isVerified(account.getNumber(), device.getId(), credentials, password)) {
+      authenticationCachedMeter.mark();
+      return true;
     }
+
+    if (credentials.verify(password)) {
+      credentialCache.setVerified(account.getNumber(), device.getId(), credentials, password);
+      return true;
+    }
+
+    return false;
   }
 
 }
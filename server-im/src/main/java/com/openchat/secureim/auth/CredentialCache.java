@@ -0,0 +1,66 @@
+package com.openchat.secureim.auth;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+
+import java.nio.charset.StandardCharsets;
+import java.security.SecureRandom;
+import java.util.concurrent.TimeUnit;
+
+public class CredentialCache {
+
+  private final Cache<Key, String> verified;
+  private final HashFunction       secretHash;
+
+  public CredentialCache(int maxSize, long ttl, TimeUnit unit) {
+    SecureRandom random = new SecureRandom();
+
+    this.verified   = CacheBuilder.newBuilder()
+                                  .maximumSize(maxSize)
+                                  .expireAfterWrite(ttl, unit)
+                                  .build();
+    this.secretHash = Hashing.sipHash24(random.nextLong(), random.nextLong());
+  }
+
+  // Entries are bound to the stored token they were verified against, so a credential
+  // change or a relinked device id misses even when it happened on another node
+  public boolean isVerified(String number, long deviceId, AuthenticationCredentials credentials, String secret) {
+    String storedToken = verified.getIfPresent(new Key(number, deviceId, hash(secret)));
+    return storedToken != null && storedToken.equals(credentials.getHashedAuthenticationToken());
+  }
+
+  public void setVerified(String number, long deviceId, AuthenticationCredentials credentials, String secret) {
+    verified.put(new Key(number, deviceId, hash(secret)), credentials.getHashedAuthenticationToken());
+  }
+
+  private long hash(String secret) {
+    return secretHash.hashString(secret, StandardCharsets.UTF_8).asLong();
+  }
+
+  private static class Key {
+    private final String number;
+    private final long   deviceId;
+    private final long   secretHash;
+
+    private Key(String number, long deviceId, long secretHash) {
+      this.number     = number;
+      this.deviceId   = deviceId;
+      this.secretHash = secretHash;
+    }
+
+    @Override
+    public boolean equals(Object other) {
+      if (other == null || !(other instanceof Key)) return false;
+
+      Key that = (Key)other;
+      return this.deviceId == that.deviceId && this.secretHash == that.secretHash && this.number.equals(that.number);
+    }
+
+    @Override
+    public int hashCode() {
+      return number.hashCode() ^ (int)deviceId ^ (int)secretHash;
+    }
+  }
+}
@@ -0,0 +1,41 @@
+package com.openchat.secureim.configuration;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+import javax.validation.constraints.Min;
+
+public class AccountCacheConfiguration {
+
+  @JsonProperty
+  private boolean enabled = true;
+
+  @JsonProperty
+  @Min(1)
+  private int maxSize = 100000;
+
+  // Upper bound on staleness should an invalidation be missed
+  @JsonProperty
+  @Min(1)
+  private int ttlSeconds = 30;
+
+  // Write accounts to the shared redis cache in AccountCodec form, legacy JSON entries are read either way.
+  // Leave off until every node in the cluster can read the compact form.
+  @JsonProperty
+  private boolean compactEncoding = false;
+
+  public boolean isEnabled() {
+    return enabled;
+  }
+
+  public int getMaxSize() {
+    return maxSize;
+  }
+
+  public int getTtlSeconds() {
+    return ttlSeconds;
+  }
+
+  public boolean isCompactEncoding() {
+    return compactEncoding;
+  }
+}
@@ -0,0 +1,95 @@
+package com.openchat.secureim.configuration;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.openchat.dispatch.DispatchExecutor;
+
+import javax.validation.constraints.Min;
+import javax.validation.constraints.NotNull;
+import java.util.LinkedList;
+import java.util.List;
+
+public class DispatchConfiguration {
+
+  // Number of pub/sub connections to the cache redis, used when no shardUrls are configured.
+  @JsonProperty
+  @Min(1)
+  private int connections = 1;
+
+  // Every node must list the same shards in the same order, since publishers hash to them.
+  @JsonProperty
+  @NotNull
+  private List<String> shardUrls = new LinkedList<>();
+
+  @JsonProperty
+  @Min(1)
+  private int executorThreads = Runtime.getRuntime().availableProcessors() * 2;
+
+  @JsonProperty
+  @Min(1)
+  private int executorQueueSize = 1000;
+
+  @JsonProperty
+  @NotNull
+  private DispatchExecutor.OverflowPolicy overflowPolicy = DispatchExecutor.OverflowPolicy.BLOCK;
+
+  // How long BLOCK waits for queue space before dropping to a resync.
+  @JsonProperty
+  @Min(1)
+  private long overflowBlockMillis = 100;
+
+  @JsonProperty
+  @Min(1)
+  private int subscriptionBatchSize = 500;
+
+  @JsonProperty
+  @Min(1)
+  private long subscriptionFlushMillis = 5;
+
+  @JsonProperty
+  @Min(1)
+  private int publisherConnections = 2;
+
+  @JsonProperty
+  @Min(1)
+  private int publisherBatchSize = 128;
+
+  public int getConnections() {
+    return connections;
+  }
+
+  public List<String> getShardUrls() {
+    return shardUrls;
+  }
+
+  public int getExecutorThreads() {
+    return executorThreads;
+  }
+
+  public int getExecutorQueueSize() {
+    return executorQueueSize;
+  }
+
+  public DispatchExecutor.OverflowPolicy getOverflowPolicy() {
+    return overflowPolicy;
+  }
+
+  public long getOverflowBlockMillis() {
+    return overflowBlockMillis;
+  }
+
+  public int getSubscriptionBatchSize() {
+    return subscriptionBatchSize;
+  }
+
+  public long getSubscriptionFlushMillis() {
+    return subscriptionFlushMillis;
+  }
+
+  public int getPublisherConnections() {
+    return publisherConnections;
+  }
+
+  public int getPublisherBatchSize() {
+    return publisherBatchSize;
+  }
+}
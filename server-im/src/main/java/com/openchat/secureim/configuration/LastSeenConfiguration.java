@@ -0,0 +1,32 @@
+package com.openchat.secureim.configuration;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+import javax.validation.constraints.Min;
+
+public class LastSeenConfiguration {
+
+  // When disabled, every first authentication of the day rewrites the whole account
+  @JsonProperty
+  private boolean enabled = true;
+
+  @JsonProperty
+  @Min(1)
+  private int flushIntervalSeconds = 10;
+
+  @JsonProperty
+  @Min(1)
+  private int batchSize = 1000;
+
+  public boolean isEnabled() {
+    return enabled;
+  }
+
+  public int getFlushIntervalSeconds() {
+    return flushIntervalSeconds;
+  }
+
+  public int getBatchSize() {
+    return batchSize;
+  }
+}
@@ -3,6 +3,7 @@ package com.openchat.secureim.configuration;
 import com.fasterxml.jackson.annotation.JsonProperty;
 
 import javax.validation.Valid;
+import javax.validation.constraints.Min;
 import javax.validation.constraints.NotNull;
 
 public class MessageCacheConfiguration {
@@ -15,6 +16,18 @@ public class MessageCacheConfiguration {
   @JsonProperty
   private int persistDelayMinutes = 10;
 
+  @JsonProperty
+  private boolean persistBatch = false;
+
+  @JsonProperty
+  @Min(1)
+  private int persistWorkers = 1;
+
+  // Buckets may be added but not removed while queues are pending, or entries in dropped buckets are never drained.
+  @JsonProperty
+  @Min(1)
+  private int persistIndexBuckets = 1;
+
   public RedisConfiguration getRedisConfiguration() {
     return redis;
   }
@@ -23,4 +36,16 @@ public class MessageCacheConfiguration {
     return persistDelayMinutes;
   }
 
+  public boolean isPersistBatch() {
+    return persistBatch;
+  }
+
+  public int getPersistWorkers() {
+    return persistWorkers;
+  }
+
+  public int getPersistIndexBuckets() {
+    return persistIndexBuckets;
+  }
+
 }
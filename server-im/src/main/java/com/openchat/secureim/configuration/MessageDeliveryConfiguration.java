@@ -0,0 +1,32 @@
+package com.openchat.secureim.configuration;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+import javax.validation.constraints.Min;
+
+public class MessageDeliveryConfiguration {
+
+  @JsonProperty
+  @Min(1)
+  private int windowSize = 16;
+
+  @JsonProperty
+  @Min(1)
+  private int ackBatchSize = 20;
+
+  @JsonProperty
+  @Min(1)
+  private long ackBatchMillis = 250;
+
+  public int getWindowSize() {
+    return windowSize;
+  }
+
+  public int getAckBatchSize() {
+    return ackBatchSize;
+  }
+
+  public long getAckBatchMillis() {
+    return ackBatchMillis;
+  }
+}
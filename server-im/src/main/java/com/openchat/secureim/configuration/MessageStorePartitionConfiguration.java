@@ -0,0 +1,56 @@
+package com.openchat.secureim.configuration;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+import javax.validation.constraints.Min;
+import javax.validation.constraints.NotNull;
+import java.util.concurrent.TimeUnit;
+
+public class MessageStorePartitionConfiguration {
+
+  public enum Interval {
+    DAILY(1),
+    WEEKLY(7);
+
+    private final int days;
+
+    Interval(int days) {
+      this.days = days;
+    }
+
+    public long getMillis() {
+      return TimeUnit.DAYS.toMillis(days);
+    }
+  }
+
+  @JsonProperty
+  private boolean enabled = false;
+
+  @JsonProperty
+  @NotNull
+  private Interval interval = Interval.WEEKLY;
+
+  @JsonProperty
+  @Min(1)
+  private int precreatePartitions = 4;
+
+  @JsonProperty
+  @Min(1)
+  private int retentionDays = 90;
+
+  public boolean isEnabled() {
+    return enabled;
+  }
+
+  public Interval getInterval() {
+    return interval;
+  }
+
+  public int getPrecreatePartitions() {
+    return precreatePartitions;
+  }
+
+  public int getRetentionDays() {
+    return retentionDays;
+  }
+}
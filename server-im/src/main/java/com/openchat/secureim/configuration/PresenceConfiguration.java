@@ -0,0 +1,66 @@
+package com.openchat.secureim.configuration;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+import javax.validation.constraints.Max;
+import javax.validation.constraints.Min;
+
+public class PresenceConfiguration {
+
+  @JsonProperty
+  private boolean enabled = false;
+
+  // Unique per node, every node in the cluster shares the same presence redis
+  @JsonProperty
+  private String nodeId;
+
+  // Address other nodes use to reach this node's link listener
+  @JsonProperty
+  private String host = "localhost";
+
+  @JsonProperty
+  @Min(1)
+  @Max(65535)
+  private int port = 8090;
+
+  @JsonProperty
+  @Min(5)
+  private int leaseSeconds = 60;
+
+  // Routed messages fall back to broadcast if the owning node hasn't replied by then
+  @JsonProperty
+  @Min(1)
+  private long replyTimeoutMillis = 500;
+
+  // Required when enabled, node links are rejected unless both ends present the same secret
+  @JsonProperty
+  private String sharedSecret;
+
+  public boolean isEnabled() {
+    return enabled;
+  }
+
+  public String getNodeId() {
+    return nodeId;
+  }
+
+  public String getHost() {
+    return host;
+  }
+
+  public int getPort() {
+    return port;
+  }
+
+  public int getLeaseSeconds() {
+    return leaseSeconds;
+  }
+
+  public long getReplyTimeoutMillis() {
+    return replyTimeoutMillis;
+  }
+
+  public String getSharedSecret() {
+    return sharedSecret;
+  }
+}
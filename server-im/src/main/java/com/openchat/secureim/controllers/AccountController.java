@@ -212,14 +212,14 @@ public class AccountController {
       return;
     }
 
-    device.setApnId(null);
-    device.setVoipApnId(null);
-    device.setGcmId(registrationId.getGcmRegistrationId());
-
-    if (registrationId.isWebSocketChannel()) device.setFetchesMessages(true);
-    else                                     device.setFetchesMessages(false);
-
-    accounts.update(account);
+    accounts.updateDevice(account, device.getId(), d -> {
+      d.setApnId(null);
+      d.setVoipApnId(null);
+      d.setGcmId(registrationId.getGcmRegistrationId());
+
+      if (registrationId.isWebSocketChannel()) d.setFetchesMessages(true);
+      else                                     d.setFetchesMessages(false);
+    });
   }
 
   @Timed
@@ -227,10 +227,11 @@ public class AccountController {
   @Path("/gcm/")
   public void deleteGcmRegistrationId(@Auth Account account) {
     Device device = account.getAuthenticatedDevice().get();
-    device.setGcmId(null);
-    device.setFetchesMessages(false);
 
-    accounts.update(account);
+    accounts.updateDevice(account, device.getId(), d -> {
+      d.setGcmId(null);
+      d.setFetchesMessages(false);
+    });
 
     if (!account.isActive()) {
       directoryQueue.deleteRegisteredUser(account.getNumber());
@@ -243,11 +244,13 @@ public class AccountController {
   @Consumes(MediaType.APPLICATION_JSON)
   public void setApnRegistrationId(@Auth Account account, @Valid ApnRegistrationId registrationId) {
     Device device = account.getAuthenticatedDevice().get();
-    device.setApnId(registrationId.getApnRegistrationId());
-    device.setVoipApnId(registrationId.getVoipRegistrationId());
-    device.setGcmId(null);
-    device.setFetchesMessages(true);
-    accounts.update(account);
+
+    accounts.updateDevice(account, device.getId(), d -> {
+      d.setApnId(registrationId.getApnRegistrationId());
+      d.setVoipApnId(registrationId.getVoipRegistrationId());
+      d.setGcmId(null);
+      d.setFetchesMessages(true);
+    });
   }
 
   @Timed
@@ -255,10 +258,11 @@ public class AccountController {
   @Path("/apn/")
   public void deleteApnRegistrationId(@Auth Account account) {
     Device device = account.getAuthenticatedDevice().get();
-    device.setApnId(null);
-    device.setFetchesMessages(false);
 
-    accounts.update(account);
+    accounts.updateDevice(account, device.getId(), d -> {
+      d.setApnId(null);
+      d.setFetchesMessages(false);
+    });
 
     if (!account.isActive()) {
       directoryQueue.deleteRegisteredUser(account.getNumber());
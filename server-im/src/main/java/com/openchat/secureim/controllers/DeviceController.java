@@ -93,8 +93,7 @@ public class DeviceController {
       throw new WebApplicationException(Response.Status.UNAUTHORIZED);
     }
 
-    account.removeDevice(deviceId);
-    accounts.update(account);
+    accounts.removeDevice(account, deviceId);
 
     if (!account.isActive()) {
       directoryQueue.deleteRegisteredUser(account.getNumber());
@@ -184,9 +183,8 @@ public class DeviceController {
       device.setLastSeen(Util.todayInMillis());
       device.setCreated(System.currentTimeMillis());
 
-      account.get().addDevice(device);
       messages.clear(account.get().getNumber(), device.getId());
-      accounts.update(account.get());
+      accounts.addDevice(account.get(), device);
 
       pendingDevices.remove(number);
 
@@ -71,21 +71,16 @@ public class KeysController {
   @PUT
   @Consumes(MediaType.APPLICATION_JSON)
   public void setKeys(@Auth Account account, @Valid PreKeyState preKeys)  {
-    Device  device        = account.getAuthenticatedDevice().get();
-    boolean updateAccount = false;
+    Device  device          = account.getAuthenticatedDevice().get();
+    boolean updateSignedKey = !preKeys.getSignedPreKey().equals(device.getSignedPreKey());
+    boolean updateIdentity  = !preKeys.getIdentityKey().equals(account.getIdentityKey());
 
-    if (!preKeys.getSignedPreKey().equals(device.getSignedPreKey())) {
+    if (updateIdentity) {
       device.setSignedPreKey(preKeys.getSignedPreKey());
-      updateAccount = true;
-    }
-
-    if (!preKeys.getIdentityKey().equals(account.getIdentityKey())) {
       account.setIdentityKey(preKeys.getIdentityKey());
-      updateAccount = true;
-    }
-
-    if (updateAccount) {
       accounts.update(account);
+    } else if (updateSignedKey) {
+      accounts.updateDevice(account, device.getId(), d -> d.setSignedPreKey(preKeys.getSignedPreKey()));
     }
 
     keys.store(account.getNumber(), device.getId(), preKeys.getPreKeys());
@@ -147,8 +142,7 @@ public class KeysController {
   @Consumes(MediaType.APPLICATION_JSON)
   public void setSignedKey(@Auth Account account, @Valid SignedPreKey signedPreKey) {
     Device device = account.getAuthenticatedDevice().get();
-    device.setSignedPreKey(signedPreKey);
-    accounts.update(account);
+    accounts.updateDevice(account, device.getId(), d -> d.setSignedPreKey(signedPreKey));
   }
 
   @Timed
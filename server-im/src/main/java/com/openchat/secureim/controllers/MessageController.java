@@ -5,6 +5,8 @@ import com.google.common.base.Optional;
 import com.google.protobuf.ByteString;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import com.openchat.secureim.entities.AcknowledgedMessage;
+import com.openchat.secureim.entities.AcknowledgedMessageList;
 import com.openchat.secureim.entities.IncomingMessage;
 import com.openchat.secureim.entities.IncomingMessageList;
 import com.openchat.secureim.entities.MessageProtos.Envelope;
@@ -26,8 +28,11 @@ import com.openchat.secureim.redis.RedisOperation;
 import com.openchat.secureim.storage.Account;
 import com.openchat.secureim.storage.AccountsManager;
 import com.openchat.secureim.storage.Device;
+import com.openchat.secureim.storage.InvalidMessageCursorException;
+import com.openchat.secureim.storage.MessageCursor;
 import com.openchat.secureim.storage.MessagesManager;
 import com.openchat.secureim.util.Base64;
+import com.openchat.secureim.util.Pair;
 import com.openchat.secureim.util.Util;
 import com.openchat.secureim.websocket.WebSocketConnection;
 
@@ -39,6 +44,7 @@ import javax.ws.rs.PUT;
 import javax.ws.rs.Path;
 import javax.ws.rs.PathParam;
 import javax.ws.rs.Produces;
+import javax.ws.rs.QueryParam;
 import javax.ws.rs.WebApplicationException;
 import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.Response;
@@ -122,15 +128,25 @@ public class MessageController {
   @Timed
   @GET
   @Produces(MediaType.APPLICATION_JSON)
-  public OutgoingMessageEntityList getPendingMessages(@Auth Account account) {
+  public OutgoingMessageEntityList getPendingMessages(@Auth                Account account,
+                                                      @QueryParam("cursor") Optional<String> cursor)
+  {
     assert account.getAuthenticatedDevice().isPresent();
 
     if (!Util.isEmpty(account.getAuthenticatedDevice().get().getApnId())) {
       RedisOperation.unchecked(() -> apnFallbackManager.cancel(account, account.getAuthenticatedDevice().get()));
     }
 
-    return messagesManager.getMessagesForDevice(account.getNumber(),
-                                                account.getAuthenticatedDevice().get().getId());
+    try {
+      Optional<MessageCursor> position = cursor.isPresent() ? Optional.of(new MessageCursor(cursor.get())) :
+                                                              Optional.<MessageCursor>absent();
+
+      return messagesManager.getMessagesForDevice(account.getNumber(),
+                                                  account.getAuthenticatedDevice().get().getId(),
+                                                  position);
+    } catch (InvalidMessageCursorException e) {
+      throw new WebApplicationException(Response.status(400).build());
+    }
   }
 
   @Timed
@@ -161,6 +177,39 @@ public class MessageController {
     }
   }
 
+  @Timed
+  @PUT
+  @Path("/acknowledged")
+  @Consumes(MediaType.APPLICATION_JSON)
+  public void removePendingMessages(@Auth  Account account,
+                                    @Valid AcknowledgedMessageList acknowledged)
+      throws IOException
+  {
+    List<Pair<String, Long>> messages = new LinkedList<>();
+    long                     now      = System.currentTimeMillis();
+
+    for (AcknowledgedMessage message : acknowledged.getMessages()) {
+      WebSocketConnection.messageTime.update(now - message.getTimestamp());
+      messages.add(new Pair<>(message.getSource(), message.getTimestamp()));
+    }
+
+    List<OutgoingMessageEntity> removed = messagesManager.delete(account.getNumber(),
+                                                                 account.getAuthenticatedDevice().get().getId(),
+                                                                 messages);
+
+    for (OutgoingMessageEntity message : removed) {
+      if (message.getType() == Envelope.Type.RECEIPT_VALUE) continue;
+
+      try {
+        receiptSender.sendReceipt(account, message.getSource(), message.getTimestamp(),
+                                  Optional.fromNullable(message.getRelay()));
+      } catch (NotPushRegisteredException e) {
+        logger.info("User no longer push registered for delivery receipt: " + e.getMessage());
+      } catch (NoSuchUserException | TransientPushFailureException e) {
+        logger.warn("Sending delivery receipt", e);
+      }
+    }
+  }
 
   private void sendLocalMessage(Account source,
                                 String destinationName,
@@ -0,0 +1,29 @@
+package com.openchat.secureim.entities;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+import org.hibernate.validator.constraints.NotEmpty;
+
+public class AcknowledgedMessage {
+
+  @JsonProperty
+  @NotEmpty
+  private String source;
+
+  @JsonProperty
+  private long timestamp;
+
+  public AcknowledgedMessage() {}
+
+  public AcknowledgedMessage(String source, long timestamp) {
+    this.source    = source;
+    this.timestamp = timestamp;
+  }
+
+  public String getSource() {
+    return source;
+  }
+
+  public long getTimestamp() {
+    return timestamp;
+  }
+}
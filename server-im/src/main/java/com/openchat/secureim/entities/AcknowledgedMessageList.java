@@ -0,0 +1,27 @@
+package com.openchat.secureim.entities;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+import javax.validation.Valid;
+import javax.validation.constraints.NotNull;
+import javax.validation.constraints.Size;
+import java.util.List;
+
+public class AcknowledgedMessageList {
+
+  @JsonProperty
+  @NotNull
+  @Valid
+  @Size(max = 100)
+  private List<AcknowledgedMessage> messages;
+
+  public AcknowledgedMessageList() {}
+
+  public AcknowledgedMessageList(List<AcknowledgedMessage> messages) {
+    this.messages = messages;
+  }
+
+  public List<AcknowledgedMessage> getMessages() {
+    return messages;
+  }
+}
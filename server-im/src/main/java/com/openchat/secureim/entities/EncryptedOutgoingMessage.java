@@ -12,7 +12,6 @@ import javax.crypto.IllegalBlockSizeException;
 import javax.crypto.Mac;
 import javax.crypto.NoSuchPaddingException;
 import javax.crypto.spec.SecretKeySpec;
-import java.io.IOException;
 import java.security.InvalidKeyException;
 import java.security.NoSuchAlgorithmException;
 
@@ -20,27 +19,25 @@ public class EncryptedOutgoingMessage {
 
   private final Logger logger = LoggerFactory.getLogger(EncryptedOutgoingMessage.class);
 
-  private static final byte[] VERSION         = new byte[]{0x01};
-  private static final int    CIPHER_KEY_SIZE = 32;
-  private static final int    MAC_KEY_SIZE    = 20;
-  private static final int    MAC_SIZE        = 10;
+  private static final byte[] VERSION  = new byte[]{0x01};
+  private static final int    MAC_SIZE = 10;
 
   private final byte[] serialized;
-  private final String serializedAndEncoded;
 
   public EncryptedOutgoingMessage(Envelope outgoingMessage, String signalingKey)
       throws CryptoEncodingException
   {
-    byte[]        plaintext  = outgoingMessage.toByteArray();
-    SecretKeySpec cipherKey  = getCipherKey (signalingKey);
-    SecretKeySpec macKey     = getMacKey(signalingKey);
+    this(outgoingMessage.toByteArray(), new SignalingKey(signalingKey));
+  }
 
-    this.serialized           = getCiphertext(plaintext, cipherKey, macKey);
-    this.serializedAndEncoded = Base64.encodeBytes(this.serialized);
+  public EncryptedOutgoingMessage(byte[] plaintext, SignalingKey signalingKey)
+      throws CryptoEncodingException
+  {
+    this.serialized = getCiphertext(plaintext, signalingKey.getCipherKey(), signalingKey.getMacKey());
   }
 
   public String toEncodedString() {
-    return serializedAndEncoded;
+    return Base64.encodeBytes(serialized);
   }
 
   public byte[] toByteArray() {
@@ -76,35 +73,4 @@ public class EncryptedOutgoingMessage {
     }
   }
 
-  private SecretKeySpec getCipherKey(String signalingKey) throws CryptoEncodingException {
-    try {
-      byte[] signalingKeyBytes = Base64.decode(signalingKey);
-      byte[] cipherKey         = new byte[CIPHER_KEY_SIZE];
-
-      if (signalingKeyBytes.length < CIPHER_KEY_SIZE)
-        throw new CryptoEncodingException("Signaling key too short!");
-
-      System.arraycopy(signalingKeyBytes, 0, cipherKey, 0, cipherKey.length);
-      return new SecretKeySpec(cipherKey, "AES");
-    } catch (IOException e) {
-      throw new CryptoEncodingException(e);
-    }
-  }
-
-  private SecretKeySpec getMacKey(String signalingKey) throws CryptoEncodingException {
-    try {
-      byte[] signalingKeyBytes = Base64.decode(signalingKey);
-      byte[] macKey            = new byte[MAC_KEY_SIZE];
-
-      if (signalingKeyBytes.length < CIPHER_KEY_SIZE + MAC_KEY_SIZE)
-        throw new CryptoEncodingException("Signaling key too short!");
-
-      System.arraycopy(signalingKeyBytes, CIPHER_KEY_SIZE, macKey, 0, macKey.length);
-
-      return new SecretKeySpec(macKey, "HmacSHA256");
-    } catch (IOException e) {
-      throw new CryptoEncodingException(e);
-    }
-  }
-
 }
@@ -32,6 +32,9 @@ public class OutgoingMessageEntity {
   @JsonProperty
   private byte[] content;
 
+  @JsonIgnore
+  private byte[] envelope;
+
   public OutgoingMessageEntity() {}
 
   public OutgoingMessageEntity(long id, boolean cached, int type, String relay, long timestamp,
@@ -49,6 +52,14 @@ public class OutgoingMessageEntity {
     this.content      = content;
   }
 
+  public OutgoingMessageEntity(long id, boolean cached, int type, String relay, long timestamp,
+                               String source, int sourceDevice, byte[] message,
+                               byte[] content, byte[] envelope)
+  {
+    this(id, cached, type, relay, timestamp, source, sourceDevice, message, content);
+    this.envelope = envelope;
+  }
+
   public int getType() {
     return type;
   }
@@ -87,4 +98,9 @@ public class OutgoingMessageEntity {
     return cached;
   }
 
+  @JsonIgnore
+  public byte[] getEnvelope() {
+    return envelope;
+  }
+
 }
@@ -13,11 +13,19 @@ public class OutgoingMessageEntityList {
   @JsonProperty
   private boolean more;
 
+  @JsonProperty
+  private String cursor;
+
   public OutgoingMessageEntityList() {}
 
   public OutgoingMessageEntityList(List<OutgoingMessageEntity> messages, boolean more) {
+    this(messages, more, null);
+  }
+
+  public OutgoingMessageEntityList(List<OutgoingMessageEntity> messages, boolean more, String cursor) {
     this.messages = messages;
     this.more     = more;
+    this.cursor   = cursor;
   }
 
   public List<OutgoingMessageEntity> getMessages() {
@@ -27,4 +35,8 @@ public class OutgoingMessageEntityList {
   public boolean hasMore() {
     return more;
   }
+
+  public String getCursor() {
+    return cursor;
+  }
 }
@@ -0,0 +1,41 @@
+package com.openchat.secureim.entities;
+
+import com.openchat.secureim.util.Base64;
+
+import javax.crypto.spec.SecretKeySpec;
+import java.io.IOException;
+
+public class SignalingKey {
+
+  private static final int CIPHER_KEY_SIZE = 32;
+  private static final int MAC_KEY_SIZE    = 20;
+
+  private final SecretKeySpec cipherKey;
+  private final SecretKeySpec macKey;
+
+  public SignalingKey(String signalingKey) throws CryptoEncodingException {
+    try {
+      if (signalingKey == null) {
+        throw new CryptoEncodingException("No signaling key!");
+      }
+
+      byte[] signalingKeyBytes = Base64.decode(signalingKey);
+
+      if (signalingKeyBytes.length < CIPHER_KEY_SIZE + MAC_KEY_SIZE)
+        throw new CryptoEncodingException("Signaling key too short!");
+
+      this.cipherKey = new SecretKeySpec(signalingKeyBytes, 0, CIPHER_KEY_SIZE, "AES");
+      this.macKey    = new SecretKeySpec(signalingKeyBytes, CIPHER_KEY_SIZE, MAC_KEY_SIZE, "HmacSHA256");
+    } catch (IOException e) {
+      throw new CryptoEncodingException(e);
+    }
+  }
+
+  public SecretKeySpec getCipherKey() {
+    return cipherKey;
+  }
+
+  public SecretKeySpec getMacKey() {
+    return macKey;
+  }
+}
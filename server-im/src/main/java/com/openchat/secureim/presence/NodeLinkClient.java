@@ -0,0 +1,280 @@
+package com.openchat.secureim.presence;
+
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+// A link is single use: once it fails or a reply times out it closes for good, and the
+// router resolves the node again before creating a new one.
+public class NodeLinkClient {
+
+  private static final int CONNECT_TIMEOUT_MILLIS = 1000;
+  private static final int MAX_QUEUED_MESSAGES    = 10000;
+
+  private final Logger logger = LoggerFactory.getLogger(NodeLinkClient.class);
+
+  private final Deque<PendingReply>            pending = new ArrayDeque<>();
+  private final BlockingQueue<OutgoingMessage> queue   = new LinkedBlockingQueue<>(MAX_QUEUED_MESSAGES);
+
+  private final String                   host;
+  private final int                      port;
+  private final byte[]                   sharedSecret;
+  private final long                     replyTimeoutMillis;
+  private final ScheduledExecutorService executor;
+  private final CloseListener            closeListener;
+
+  private Socket             socket;
+  private Writer             writer;
+  private ScheduledFuture<?> timeoutCheck;
+  private boolean            connecting;
+  private boolean            closed;
+
+  public NodeLinkClient(String host, int port, byte[] sharedSecret, long replyTimeoutMillis,
+                        ScheduledExecutorService executor, CloseListener closeListener)
+  {
+    this.host               = host;
+    this.port               = port;
+    this.sharedSecret       = sharedSecret;
+    this.replyTimeoutMillis = replyTimeoutMillis;
+    this.executor           = executor;
+    this.closeListener      = closeListener;
+  }
+
+  // Resolves to false until the link is up, so callers fall back to broadcast while it connects.
+  public ListenableFuture<Boolean> send(String channel, byte[] message) {
+    SettableFuture<Boolean> result = SettableFuture.create();
+
+    synchronized (this) {
+      if (closed) {
+        return Futures.immediateFuture(false);
+      }
+
+      if (socket == null) {
+        if (!connecting) {
+          connecting = true;
+          executor.execute(new Runnable() {
+            @Override
+            public void run() {
+              connect();
+            }
+          });
+        }
+
+        return Futures.immediateFuture(false);
+      }
+
+      // Writes happen on the writer thread, a full queue means the link is falling behind
+      if (!queue.offer(new OutgoingMessage(channel.getBytes(), message))) {
+        return Futures.immediateFuture(false);
+      }
+
+      pending.add(new PendingReply(result));
+      return result;
+    }
+  }
+
+  public void close() {
+    List<PendingReply> failed;
+
+    synchronized (this) {
+      if (closed) return;
+
+      closed = true;
+      failed = new ArrayList<>(pending);
+      pending.clear();
+
+      if (timeoutCheck != null) timeoutCheck.cancel(false);
+      if (socket != null)       closeQuietly(socket);
+      if (writer != null)       writer.interrupt();
+
+      socket = null;
+      writer = null;
+      queue.clear();
+    }
+
+    // Completed outside the lock, the broadcast fallback runs on this thread
+    for (PendingReply reply : failed) {
+      reply.result.set(false);
+    }
+
+    closeListener.onClose(this);
+  }
+
+  public synchronized boolean isClosed() {
+    return closed;
+  }
+
+  private void connect() {
+    Socket           socket       = new Socket();
+    DataOutputStream outputStream;
+
+    try {
+      socket.setTcpNoDelay(true);
+      socket.connect(new InetSocketAddress(host, port), CONNECT_TIMEOUT_MILLIS);
+
+      outputStream = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+      NodeLinkServer.writeFrame(outputStream, sharedSecret);
+      outputStream.flush();
+    } catch (IOException e) {
+      logger.warn("Node link to " + host + ":" + port + " failed to connect", e);
+      closeQuietly(socket);
+      close();
+      return;
+    }
+
+    Writer writer = new Writer(outputStream);
+
+    synchronized (this) {
+      connecting = false;
+
+      if (closed) {
+        closeQuietly(socket);
+        return;
+      }
+
+      this.socket       = socket;
+      this.writer       = writer;
+      this.timeoutCheck = executor.scheduleWithFixedDelay(new Runnable() {
+        @Override
+        public void run() {
+          checkReplyTimeout();
+        }
+      }, replyTimeoutMillis, Math.max(1, replyTimeoutMillis / 2), TimeUnit.MILLISECONDS);
+    }
+
+    writer.start();
+    new Reader(socket).start();
+  }
+
+  // Replies come back in order, so only the oldest outstanding request needs checking.
+  private void checkReplyTimeout() {
+    synchronized (this) {
+      PendingReply oldest = pending.peek();
+
+      if (oldest == null || System.currentTimeMillis() - oldest.sent < replyTimeoutMillis) {
+        return;
+      }
+    }
+
+    logger.warn("Node link to " + host + ":" + port + " timed out waiting for a reply");
+    close();
+  }
+
+  private synchronized SettableFuture<Boolean> nextPending() {
+    PendingReply reply = pending.poll();
+    return reply != null ? reply.result : null;
+  }
+
+  private void closeQuietly(Socket socket) {
+    try {
+      socket.close();
+    } catch (IOException e) {
+      logger.warn("Close", e);
+    }
+  }
+
+  public interface CloseListener {
+    public void onClose(NodeLinkClient client);
+  }
+
+  private static class PendingReply {
+    private final SettableFuture<Boolean> result;
+    private final long                    sent;
+
+    private PendingReply(SettableFuture<Boolean> result) {
+      this.result = result;
+      this.sent   = System.currentTimeMillis();
+    }
+  }
+
+  private static class OutgoingMessage {
+    private final byte[] channel;
+    private final byte[] message;
+
+    private OutgoingMessage(byte[] channel, byte[] message) {
+      this.channel = channel;
+      this.message = message;
+    }
+  }
+
+  private class Writer extends Thread {
+
+    private final DataOutputStream outputStream;
+
+    private Writer(DataOutputStream outputStream) {
+      super(NodeLinkClient.class.getSimpleName() + "-writer-" + host + ":" + port);
+      this.outputStream = outputStream;
+      setDaemon(true);
+    }
+
+    @Override
+    public void run() {
+      try {
+        while (!isClosed()) {
+          OutgoingMessage outgoing = queue.take();
+
+          NodeLinkServer.writeFrame(outputStream, outgoing.channel);
+          NodeLinkServer.writeFrame(outputStream, outgoing.message);
+
+          if (queue.isEmpty()) {
+            outputStream.flush();
+          }
+        }
+      } catch (InterruptedException e) {
+        // Closed
+      } catch (IOException e) {
+        logger.warn("Node link to " + host + ":" + port + " failed", e);
+      } finally {
+        close();
+      }
+    }
+  }
+
+  private class Reader extends Thread {
+
+    private final Socket socket;
+
+    private Reader(Socket socket) {
+      super(NodeLinkClient.class.getSimpleName() + "-" + host + ":" + port);
+      this.socket = socket;
+      setDaemon(true);
+    }
+
+    @Override
+    public void run() {
+      try {
+        DataInputStream inputStream = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+
+        while (true) {
+          boolean                 delivered = inputStream.readBoolean();
+          SettableFuture<Boolean> result    = nextPending();
+
+          if (result != null) result.set(delivered);
+        }
+      } catch (IOException e) {
+        if (!socket.isClosed()) logger.warn("Node link to " + host + ":" + port + " closed", e);
+      } finally {
+        close();
+      }
+    }
+  }
+}
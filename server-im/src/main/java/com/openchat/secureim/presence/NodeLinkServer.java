@@ -0,0 +1,153 @@
+package com.openchat.secureim.presence;
+
+import io.dropwizard.lifecycle.Managed;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import com.openchat.dispatch.DispatchManager;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.security.MessageDigest;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+public class NodeLinkServer implements Managed, Runnable {
+
+  private static final int MAX_FRAME_SIZE           = 1024 * 1024;
+  private static final int MAX_CONNECTIONS          = 256;
+  private static final int HANDSHAKE_TIMEOUT_MILLIS = 5000;
+
+  private static final Logger logger = LoggerFactory.getLogger(NodeLinkServer.class);
+
+  private final Set<Socket> connections = Collections.newSetFromMap(new ConcurrentHashMap<Socket, Boolean>());
+
+  private final DispatchManager dispatchManager;
+  private final String          host;
+  private final int             port;
+  private final byte[]          sharedSecret;
+
+  private volatile boolean      running;
+  private          ServerSocket serverSocket;
+
+  public NodeLinkServer(DispatchManager dispatchManager, String host, int port, byte[] sharedSecret) {
+    this.dispatchManager = dispatchManager;
+    this.host            = host;
+    this.port            = port;
+    this.sharedSecret    = sharedSecret;
+  }
+
+  static void writeFrame(DataOutputStream outputStream, byte[] frame) throws IOException {
+    outputStream.writeInt(frame.length);
+    outputStream.write(frame);
+  }
+
+  static byte[] readFrame(DataInputStream inputStream) throws IOException {
+    return readFrame(inputStream, MAX_FRAME_SIZE);
+  }
+
+  private static byte[] readFrame(DataInputStream inputStream, int maxSize) throws IOException {
+    int length = inputStream.readInt();
+
+    if (length < 0 || length > maxSize) {
+      throw new IOException("Bad frame length: " + length);
+    }
+
+    byte[] frame = new byte[length];
+    inputStream.readFully(frame);
+
+    return frame;
+  }
+
+  @Override
+  public synchronized void start() throws IOException {
+    serverSocket = new ServerSocket();
+    serverSocket.setReuseAddress(true);
+    serverSocket.bind(new InetSocketAddress(host, port));
+
+    running = true;
+    new Thread(this, NodeLinkServer.class.getSimpleName()).start();
+  }
+
+  @Override
+  public synchronized void stop() throws IOException {
+    running = false;
+    serverSocket.close();
+
+    for (Socket connection : connections) {
+      connection.close();
+    }
+  }
+
+  @Override
+  public void run() {
+    while (running) {
+      try {
+        final Socket connection = serverSocket.accept();
+
+        if (connections.size() >= MAX_CONNECTIONS) {
+          logger.warn("Rejecting node link from " + connection.getRemoteSocketAddress() + ", too many connections");
+          connection.close();
+          continue;
+        }
+
+        connection.setTcpNoDelay(true);
+        connections.add(connection);
+
+        new Thread(NodeLinkServer.class.getSimpleName() + "-" + connection.getRemoteSocketAddress()) {
+          @Override
+          public void run() {
+            handle(connection);
+          }
+        }.start();
+      } catch (IOException e) {
+        if (running) logger.warn("Accept error", e);
+      }
+    }
+  }
+
+  private void handle(Socket connection) {
+    try {
+      DataInputStream  inputStream  = new DataInputStream(new BufferedInputStream(connection.getInputStream()));
+      DataOutputStream outputStream = new DataOutputStream(new BufferedOutputStream(connection.getOutputStream()));
+
+      // Unauthenticated peers get a short read timeout and can't send more than a secret's worth
+      connection.setSoTimeout(HANDSHAKE_TIMEOUT_MILLIS);
+
+      if (!MessageDigest.isEqual(sharedSecret, readFrame(inputStream, sharedSecret.length))) {
+        logger.warn("Rejecting node link with bad secret from " + connection.getRemoteSocketAddress());
+        return;
+      }
+
+      connection.setSoTimeout(0);
+
+      while (running) {
+        String channel = new String(readFrame(inputStream));
+        byte[] message = readFrame(inputStream);
+
+        outputStream.writeBoolean(dispatchManager.dispatchLocal(channel, message));
+
+        // Replies to a pipelined burst go out together
+        if (inputStream.available() == 0) {
+          outputStream.flush();
+        }
+      }
+    } catch (IOException e) {
+      if (running) logger.info("Node link closed: " + e.getMessage());
+    } finally {
+      connections.remove(connection);
+
+      try {
+        connection.close();
+      } catch (IOException e) {
+        logger.warn("Close", e);
+      }
+    }
+  }
+}
@@ -0,0 +1,120 @@
+package com.openchat.secureim.presence;
+
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.SharedMetricRegistries;
+import com.google.common.base.Optional;
+import com.google.common.util.concurrent.ListenableFuture;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import com.openchat.secureim.util.Constants;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledExecutorService;
+
+import static com.codahale.metrics.MetricRegistry.name;
+
+public class NodeRouter {
+
+  private static final MetricRegistry metricRegistry  = SharedMetricRegistries.getOrCreate(Constants.METRICS_NAME);
+  private static final Meter          routedMeter     = metricRegistry.meter(name(NodeRouter.class, "routed"    ));
+  private static final Meter          noPresenceMeter = metricRegistry.meter(name(NodeRouter.class, "noPresence"));
+  private static final Meter          noNodeMeter     = metricRegistry.meter(name(NodeRouter.class, "noNode"    ));
+  private static final Meter          evictedMeter    = metricRegistry.meter(name(NodeRouter.class, "evicted"   ));
+
+  private static final long RETRY_MILLIS = 1000;
+
+  private final Logger logger = LoggerFactory.getLogger(NodeRouter.class);
+
+  private final Map<String, NodeLinkClient> links    = new ConcurrentHashMap<>();
+  private final Map<String, Long>           failures = new ConcurrentHashMap<>();
+
+  private final PresenceRegistry         presenceRegistry;
+  private final byte[]                   sharedSecret;
+  private final long                     replyTimeoutMillis;
+  private final ScheduledExecutorService executor;
+
+  public NodeRouter(PresenceRegistry presenceRegistry, byte[] sharedSecret, long replyTimeoutMillis, ScheduledExecutorService executor) {
+    this.presenceRegistry   = presenceRegistry;
+    this.sharedSecret       = sharedSecret;
+    this.replyTimeoutMillis = replyTimeoutMillis;
+    this.executor           = executor;
+  }
+
+  public void register(String channel) {
+    presenceRegistry.register(channel);
+  }
+
+  public void unregister(String channel) {
+    presenceRegistry.unregister(channel);
+  }
+
+  public Optional<ListenableFuture<Boolean>> route(String channel, byte[] message) {
+    Optional<String> node = presenceRegistry.getNode(channel);
+
+    if (!node.isPresent() || node.get().equals(presenceRegistry.getNodeId())) {
+      noPresenceMeter.mark();
+      return Optional.absent();
+    }
+
+    Optional<NodeLinkClient> link = getLink(node.get());
+
+    if (!link.isPresent()) {
+      noNodeMeter.mark();
+      return Optional.absent();
+    }
+
+    routedMeter.mark();
+    return Optional.of(link.get().send(channel, message));
+  }
+
+  private Optional<NodeLinkClient> getLink(final String nodeId) {
+    NodeLinkClient link = links.get(nodeId);
+
+    if (link != null) return Optional.of(link);
+
+    // Traffic for a node whose link just failed goes out by broadcast for a while, rather
+    // than every request queueing another connect to a node that is likely gone.
+    Long failed = failures.get(nodeId);
+
+    if (failed != null && System.currentTimeMillis() - failed < RETRY_MILLIS) {
+      return Optional.absent();
+    }
+
+    Optional<String> nodeAddress = presenceRegistry.getNodeAddress(nodeId);
+
+    if (!nodeAddress.isPresent()) {
+      return Optional.absent();
+    }
+
+    int separator = nodeAddress.get().lastIndexOf(':');
+
+    try {
+      String host = nodeAddress.get().substring(0, separator);
+      int    port = Integer.parseInt(nodeAddress.get().substring(separator + 1));
+
+      NodeLinkClient created  = new NodeLinkClient(host, port, sharedSecret, replyTimeoutMillis, executor, new NodeLinkClient.CloseListener() {
+        @Override
+        public void onClose(NodeLinkClient client) {
+          evict(nodeId, client);
+        }
+      });
+
+      NodeLinkClient existing = links.putIfAbsent(nodeId, created);
+
+      return Optional.of(existing != null ? existing : created);
+    } catch (IndexOutOfBoundsException | NumberFormatException e) {
+      logger.warn("Bad node address for " + nodeId + ": " + nodeAddress.get());
+      return Optional.absent();
+    }
+  }
+
+  private void evict(String nodeId, NodeLinkClient client) {
+    if (links.remove(nodeId, client)) {
+      failures.put(nodeId, System.currentTimeMillis());
+      evictedMeter.mark();
+      logger.info("Evicted node link to " + nodeId);
+    }
+  }
+}
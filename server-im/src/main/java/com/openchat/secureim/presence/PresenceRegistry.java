@@ -0,0 +1,150 @@
+package com.openchat.secureim.presence;
+
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.SharedMetricRegistries;
+import com.codahale.metrics.Timer;
+import com.google.common.base.Optional;
+import io.dropwizard.lifecycle.Managed;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import com.openchat.secureim.redis.LuaScript;
+import com.openchat.secureim.redis.ReplicatedJedisPool;
+import com.openchat.secureim.util.Constants;
+import com.openchat.secureim.util.Util;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.Pipeline;
+import static com.codahale.metrics.MetricRegistry.name;
+
+public class PresenceRegistry implements Managed, Runnable {
+
+  private static final Logger logger = LoggerFactory.getLogger(PresenceRegistry.class);
+
+  private static final MetricRegistry metricRegistry = SharedMetricRegistries.getOrCreate(Constants.METRICS_NAME);
+  private static final Timer          refreshTimer   = metricRegistry.timer(name(PresenceRegistry.class, "refresh"));
+
+  private static final String PRESENCE_PREFIX = "presence::";
+  private static final String NODE_PREFIX     = "presence_node::";
+
+  private final Set<String> localChannels = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+
+  private final ReplicatedJedisPool jedisPool;
+  private final LuaScript           release;
+  private final String              nodeId;
+  private final String              nodeAddress;
+  private final int                 leaseSeconds;
+
+  private boolean running;
+  private boolean finished;
+
+  public PresenceRegistry(ReplicatedJedisPool jedisPool, String nodeId, String host, int port, int leaseSeconds)
+      throws IOException
+  {
+    this.jedisPool    = jedisPool;
+    this.release      = LuaScript.fromResource(jedisPool, "lua/release_lease.lua");
+    this.nodeId       = nodeId;
+    this.nodeAddress  = host + ":" + port;
+    this.leaseSeconds = leaseSeconds;
+  }
+
+  public String getNodeId() {
+    return nodeId;
+  }
+
+  public void register(String channel) {
+    localChannels.add(channel);
+
+    try (Jedis jedis = jedisPool.getWriteResource()) {
+      jedis.setex(PRESENCE_PREFIX + channel, leaseSeconds, nodeId);
+    }
+  }
+
+  public void unregister(String channel) {
+    localChannels.remove(channel);
+    release.execute(Collections.singletonList((PRESENCE_PREFIX + channel).getBytes()),
+                    Collections.singletonList(nodeId.getBytes()));
+  }
+
+  public Optional<String> getNode(String channel) {
+    try (Jedis jedis = jedisPool.getReadResource()) {
+      return Optional.fromNullable(jedis.get(PRESENCE_PREFIX + channel));
+    }
+  }
+
+  public Optional<String> getNodeAddress(String nodeId) {
+    try (Jedis jedis = jedisPool.getReadResource()) {
+      return Optional.fromNullable(jedis.get(NODE_PREFIX + nodeId));
+    }
+  }
+
+  @Override
+  public synchronized void start() {
+    refresh();
+    running = true;
+    new Thread(this, PresenceRegistry.class.getSimpleName()).start();
+  }
+
+  @Override
+  public synchronized void stop() {
+    running = false;
+    notifyAll();
+    while (!finished) {
+      Util.wait(this);
+    }
+
+    try (Jedis jedis = jedisPool.getWriteResource()) {
+      jedis.del(NODE_PREFIX + nodeId);
+    }
+  }
+
+  @Override
+  public void run() {
+    while (running) {
+      sleepWhileRunning(TimeUnit.SECONDS.toMillis(leaseSeconds) / 3);
+
+      try {
+        if (running) refresh();
+      } catch (Throwable t) {
+        logger.warn("Error refreshing presence", t);
+      }
+    }
+
+    synchronized (this) {
+      finished = true;
+      notifyAll();
+    }
+  }
+
+  private void refresh() {
+    try (Timer.Context timer = refreshTimer.time();
+         Jedis         jedis = jedisPool.getWriteResource())
+    {
+      Pipeline pipeline = jedis.pipelined();
+      pipeline.setex(NODE_PREFIX + nodeId, leaseSeconds, nodeAddress);
+
+      for (String channel : localChannels) {
+        pipeline.setex(PRESENCE_PREFIX + channel, leaseSeconds, nodeId);
+      }
+
+      pipeline.sync();
+    }
+  }
+
+  private synchronized void sleepWhileRunning(long delayMs) {
+    long startTimeMs = System.currentTimeMillis();
+
+    while (running && delayMs > 0) {
+      Util.wait(this, delayMs);
+
+      long nowMs = System.currentTimeMillis();
+      delayMs -= Math.abs(nowMs - startTimeMs);
+      startTimeMs = nowMs;
+    }
+  }
+}
@@ -114,11 +114,10 @@ public class GCMSender implements Managed {
     Optional<Account> account = getAccountForEvent(message);
 
     if (account.isPresent()) {
-      Device device = account.get().getDevice(message.getDeviceId()).get();
-      device.setGcmId(null);
-      device.setFetchesMessages(false);
-
-      accountsManager.update(account.get());
+      accountsManager.updateDevice(account.get(), message.getDeviceId(), device -> {
+        device.setGcmId(null);
+        device.setFetchesMessages(false);
+      });
 
       if (!account.get().isActive()) {
         directoryQueue.deleteRegisteredUser(account.get().getNumber());
@@ -136,10 +135,7 @@ public class GCMSender implements Managed {
     Optional<Account> account = getAccountForEvent(message);
 
     if (account.isPresent()) {
-      Device device = account.get().getDevice(message.getDeviceId()).get();
-      device.setGcmId(result.getCanonicalRegistrationId());
-
-      accountsManager.update(account.get());
+      accountsManager.updateDevice(account.get(), message.getDeviceId(), device -> device.setGcmId(result.getCanonicalRegistrationId()));
     }
 
     canonical.mark();
@@ -9,6 +9,7 @@ import org.slf4j.LoggerFactory;
 import com.openchat.secureim.storage.Account;
 import com.openchat.secureim.storage.Device;
 import com.openchat.secureim.storage.MessagesManager;
+import com.openchat.secureim.storage.PubSubAddress;
 import com.openchat.secureim.storage.PubSubManager;
 import com.openchat.secureim.util.Constants;
 import com.openchat.secureim.websocket.ProvisioningAddress;
@@ -44,6 +45,9 @@ public class WebsocketSender {
   private final Meter provisioningOnlineMeter  = metricRegistry.meter(name(getClass(), "provisioning_online" ));
   private final Meter provisioningOfflineMeter = metricRegistry.meter(name(getClass(), "provisioning_offline"));
 
+  private final Meter localDeliveryMeter    = metricRegistry.meter(name(getClass(), "local_delivery" ));
+  private final Meter remoteDeliveryMeter   = metricRegistry.meter(name(getClass(), "remote_delivery"));
+
   private final MessagesManager messagesManager;
   private final PubSubManager   pubSubManager;
 
@@ -59,7 +63,7 @@ public class WebsocketSender {
                                                   .setContent(message.toByteString())
                                                   .build();
 
-    if (pubSubManager.publish(address, pubSubMessage)) {
+    if (deliver(address, pubSubMessage)) {
       if      (channel == Type.APN) apnOnlineMeter.mark();
       else if (channel == Type.GCM) gcmOnlineMeter.mark();
       else                          websocketOnlineMeter.mark();
@@ -81,9 +85,9 @@ public class WebsocketSender {
     WebsocketAddress address = new WebsocketAddress(account.getNumber(), device.getId());
 
     messagesManager.insert(account.getNumber(), device.getId(), message);
-    pubSubManager.publish(address, PubSubMessage.newBuilder()
-                                                .setType(PubSubMessage.Type.QUERY_DB)
-                                                .build());
+    pubSubManager.publishAsync(address, PubSubMessage.newBuilder()
+                                                     .setType(PubSubMessage.Type.QUERY_DB)
+                                                     .build());
   }
 
   public boolean sendProvisioningMessage(ProvisioningAddress address, byte[] body) {
@@ -92,7 +96,7 @@ public class WebsocketSender {
                                                   .setContent(ByteString.copyFrom(body))
                                                   .build();
 
-    if (pubSubManager.publish(address, pubSubMessage)) {
+    if (deliver(address, pubSubMessage)) {
       provisioningOnlineMeter.mark();
       return true;
     } else {
@@ -101,6 +105,17 @@ public class WebsocketSender {
     }
   }
 
+  private boolean deliver(PubSubAddress address, PubSubMessage pubSubMessage) {
+    // A local socket that closes before handling the message requeues it, like a remote one would
+    if (pubSubManager.publishLocal(address, pubSubMessage)) {
+      localDeliveryMeter.mark();
+      return true;
+    }
+
+    remoteDeliveryMeter.mark();
+    return pubSubManager.publish(address, pubSubMessage);
+  }
+
   static class DeliveryStatus {
 
     private final boolean delivered;
@@ -46,6 +46,22 @@ public class Account {
     this.devices = devices;
   }
 
+  Account copy() {
+    Account copy = new Account();
+    copy.number       = number;
+    copy.identityKey  = identityKey;
+    copy.name         = name;
+    copy.avatar       = avatar;
+    copy.avatarDigest = avatarDigest;
+    copy.pin          = pin;
+
+    for (Device device : devices) {
+      copy.devices.add(device.copy());
+    }
+
+    return copy;
+  }
+
   public Optional<Device> getAuthenticatedDevice() {
     return Optional.fromNullable(authenticatedDevice);
   }
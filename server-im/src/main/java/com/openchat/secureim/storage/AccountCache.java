@@ -0,0 +1,156 @@
+package com.openchat.secureim.storage;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.SharedMetricRegistries;
+import com.google.common.base.Optional;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.RemovalListener;
+import com.google.common.cache.RemovalNotification;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import com.openchat.dispatch.DispatchChannel;
+import com.openchat.secureim.util.Constants;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import io.dropwizard.lifecycle.Managed;
+import static com.codahale.metrics.MetricRegistry.name;
+
+public class AccountCache implements Managed, DispatchChannel {
+
+  private static final String INVALIDATION_CHANNEL = "ACCOUNT_INVALIDATION";
+  private static final int    STAMP_STRIPES        = 1024;
+
+  private static final Logger         logger         = LoggerFactory.getLogger(AccountCache.class);
+  private static final MetricRegistry metricRegistry = SharedMetricRegistries.getOrCreate(Constants.METRICS_NAME);
+  private static final Meter          hitMeter       = metricRegistry.meter(name(AccountCache.class, "hit"     ));
+  private static final Meter          missMeter      = metricRegistry.meter(name(AccountCache.class, "miss"    ));
+  private static final Meter          evictionMeter  = metricRegistry.meter(name(AccountCache.class, "eviction"));
+
+  private final Cache<String, Account> cache;
+
+  // Bumped on every invalidation, so a load that raced one never repopulates a stale account
+  private final AtomicLongArray stamps = new AtomicLongArray(STAMP_STRIPES);
+
+  private PubSubManager pubSubManager;
+
+  public AccountCache(int maxSize, int ttlSeconds) {
+    this.cache = CacheBuilder.newBuilder()
+                             .maximumSize(maxSize)
+                             .expireAfterWrite(ttlSeconds, TimeUnit.SECONDS)
+                             .removalListener(new EvictionListener())
+                             .build();
+
+    metricRegistry.register(name(AccountCache.class, "size"), new Gauge<Long>() {
+      @Override
+      public Long getValue() {
+        return cache.size();
+      }
+    });
+  }
+
+  public void setPubSubManager(PubSubManager pubSubManager) {
+    this.pubSubManager = pubSubManager;
+  }
+
+  @Override
+  public void start() {
+    if (pubSubManager != null) {
+      pubSubManager.subscribeBroadcast(INVALIDATION_CHANNEL, this);
+    }
+  }
+
+  @Override
+  public void stop() {
+
+  }
+
+  public Optional<Account> get(String number) {
+    Account account = cache.getIfPresent(number);
+
+    if (account == null) {
+      missMeter.mark();
+      return Optional.absent();
+    }
+
+    hitMeter.mark();
+    return Optional.of(account.copy());
+  }
+
+  public long getStamp(String number) {
+    return stamps.get(getStripe(number));
+  }
+
+  public void put(String number, Account account, long stamp) {
+    if (getStamp(number) != stamp) return;
+
+    cache.put(number, account.copy());
+
+    if (getStamp(number) != stamp) {
+      cache.invalidate(number);
+    }
+  }
+
+  // Keeps a recorded last seen on the local entry, a stale one would be recorded again on every hit
+  public void setLastSeen(String number, long deviceId, long lastSeen) {
+    Account cached = cache.getIfPresent(number);
+
+    if (cached == null) return;
+
+    Account          updated = cached.copy();
+    Optional<Device> device  = updated.getDevice(deviceId);
+
+    if (!device.isPresent() || device.get().getLastSeen() >= lastSeen) return;
+
+    device.get().setLastSeen(lastSeen);
+    cache.asMap().replace(number, cached, updated);
+  }
+
+  public void invalidate(String number) {
+    invalidateLocal(number);
+
+    if (pubSubManager != null) {
+      pubSubManager.publishBroadcast(INVALIDATION_CHANNEL, number.getBytes(StandardCharsets.UTF_8));
+    }
+  }
+
+  private void invalidateLocal(String number) {
+    stamps.incrementAndGet(getStripe(number));
+    cache.invalidate(number);
+  }
+
+  private int getStripe(String number) {
+    return (number.hashCode() & 0x7fffffff) % STAMP_STRIPES;
+  }
+
+  @Override
+  public void onDispatchMessage(String channel, byte[] message) {
+    invalidateLocal(new String(message, StandardCharsets.UTF_8));
+  }
+
+  @Override
+  public void onDispatchSubscribed(String channel) {
+    // Invalidations published while the subscription was down are lost
+    cache.invalidateAll();
+  }
+
+  @Override
+  public void onDispatchUnsubscribed(String channel) {
+    logger.warn("Account invalidation channel unsubscribed");
+    cache.invalidateAll();
+  }
+
+  private static class EvictionListener implements RemovalListener<String, Account> {
+    @Override
+    public void onRemoval(RemovalNotification<String, Account> notification) {
+      if (notification.wasEvicted()) {
+        evictionMeter.mark();
+      }
+    }
+  }
+}
@@ -0,0 +1,260 @@
+package com.openchat.secureim.storage;
+
+import com.google.protobuf.CodedInputStream;
+import com.google.protobuf.CodedOutputStream;
+import com.google.protobuf.InvalidProtocolBufferException;
+import com.google.protobuf.WireFormat;
+import com.openchat.secureim.auth.AuthenticationCredentials;
+import com.openchat.secureim.entities.SignedPreKey;
+import com.openchat.secureim.util.Base64;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+// Protobuf wire format written by hand, since the tree has no protoc step for new messages.
+// Unknown fields are skipped, so fields can be added without bumping the version.
+public class AccountCodec {
+
+  private static final byte MAGIC   = (byte)0xA1;
+  private static final byte VERSION = 1;
+
+  private static final int ACCOUNT_NUMBER              = 1;
+  private static final int ACCOUNT_DEVICE              = 2;
+  private static final int ACCOUNT_IDENTITY_KEY_BYTES  = 3;
+  private static final int ACCOUNT_IDENTITY_KEY_STRING = 4;
+  private static final int ACCOUNT_NAME                = 5;
+  private static final int ACCOUNT_AVATAR              = 6;
+  private static final int ACCOUNT_AVATAR_DIGEST       = 7;
+  private static final int ACCOUNT_PIN                 = 8;
+
+  private static final int DEVICE_ID               = 1;
+  private static final int DEVICE_NAME             = 2;
+  private static final int DEVICE_AUTH_TOKEN       = 3;
+  private static final int DEVICE_SALT             = 4;
+  private static final int DEVICE_SIGNALING_KEY    = 5;
+  private static final int DEVICE_GCM_ID           = 6;
+  private static final int DEVICE_APN_ID           = 7;
+  private static final int DEVICE_VOIP_APN_ID      = 8;
+  private static final int DEVICE_PUSH_TIMESTAMP   = 9;
+  private static final int DEVICE_FETCHES_MESSAGES = 10;
+  private static final int DEVICE_REGISTRATION_ID  = 11;
+  private static final int DEVICE_SIGNED_PRE_KEY   = 12;
+  private static final int DEVICE_LAST_SEEN        = 13;
+  private static final int DEVICE_CREATED          = 14;
+  private static final int DEVICE_VOICE            = 15;
+  private static final int DEVICE_VIDEO            = 16;
+  private static final int DEVICE_USER_AGENT       = 17;
+
+  private static final int SIGNED_PRE_KEY_ID               = 1;
+  private static final int SIGNED_PRE_KEY_PUBLIC_BYTES     = 2;
+  private static final int SIGNED_PRE_KEY_PUBLIC_STRING    = 3;
+  private static final int SIGNED_PRE_KEY_SIGNATURE_BYTES  = 4;
+  private static final int SIGNED_PRE_KEY_SIGNATURE_STRING = 5;
+
+  public static boolean isEncoded(byte[] serialized) {
+    return serialized.length >= 2 && serialized[0] == MAGIC;
+  }
+
+  public static byte[] encode(Account account) {
+    try {
+      ByteArrayOutputStream baos   = new ByteArrayOutputStream(256);
+      CodedOutputStream     output = CodedOutputStream.newInstance(baos);
+
+      output.writeRawByte(MAGIC);
+      output.writeRawByte(VERSION);
+
+      writeString(output, ACCOUNT_NUMBER, account.getNumber());
+      writeKey(output, ACCOUNT_IDENTITY_KEY_BYTES, ACCOUNT_IDENTITY_KEY_STRING, account.getIdentityKey());
+      writeString(output, ACCOUNT_NAME, account.getName());
+      writeString(output, ACCOUNT_AVATAR, account.getAvatar());
+      writeString(output, ACCOUNT_AVATAR_DIGEST, account.getAvatarDigest());
+      writeString(output, ACCOUNT_PIN, account.getPin().orNull());
+
+      for (Device device : account.getDevices()) {
+        output.writeByteArray(ACCOUNT_DEVICE, encodeDevice(device));
+      }
+
+      output.flush();
+      return baos.toByteArray();
+    } catch (IOException e) {
+      throw new AssertionError(e);
+    }
+  }
+
+  public static Account decode(byte[] serialized) throws IOException {
+    if (!isEncoded(serialized)) {
+      throw new InvalidProtocolBufferException("Not an encoded account");
+    }
+
+    if (serialized[1] != VERSION) {
+      throw new InvalidProtocolBufferException("Unsupported account encoding version: " + serialized[1]);
+    }
+
+    CodedInputStream input   = CodedInputStream.newInstance(serialized, 2, serialized.length - 2);
+    Account          account = new Account();
+    int              tag;
+
+    while ((tag = input.readTag()) != 0) {
+      switch (WireFormat.getTagFieldNumber(tag)) {
+        case ACCOUNT_NUMBER:              account.setNumber(input.readString());                                        break;
+        case ACCOUNT_IDENTITY_KEY_BYTES:  account.setIdentityKey(Base64.encodeBytes(input.readBytes().toByteArray())); break;
+        case ACCOUNT_IDENTITY_KEY_STRING: account.setIdentityKey(input.readString());                                   break;
+        case ACCOUNT_NAME:                account.setName(input.readString());                                          break;
+        case ACCOUNT_AVATAR:              account.setAvatar(input.readString());                                        break;
+        case ACCOUNT_AVATAR_DIGEST:       account.setAvatarDigest(input.readString());                                  break;
+        case ACCOUNT_PIN:                 account.setPin(input.readString());                                           break;
+        case ACCOUNT_DEVICE:
+          int limit = input.pushLimit(input.readRawVarint32());
+          account.addDevice(decodeDevice(input));
+          input.popLimit(limit);
+          break;
+        default:
+          input.skipField(tag);
+      }
+    }
+
+    return account;
+  }
+
+  private static byte[] encodeDevice(Device device) throws IOException {
+    ByteArrayOutputStream     baos        = new ByteArrayOutputStream(128);
+    CodedOutputStream         output      = CodedOutputStream.newInstance(baos);
+    AuthenticationCredentials credentials = device.getAuthenticationCredentials();
+
+    writeLong(output, DEVICE_ID, device.getId());
+    writeString(output, DEVICE_NAME, device.getName());
+    writeString(output, DEVICE_AUTH_TOKEN, credentials.getHashedAuthenticationToken());
+    writeString(output, DEVICE_SALT, credentials.getSalt());
+    writeString(output, DEVICE_SIGNALING_KEY, device.getSignalingKey());
+    writeString(output, DEVICE_GCM_ID, device.getGcmId());
+    writeString(output, DEVICE_APN_ID, device.getApnId());
+    writeString(output, DEVICE_VOIP_APN_ID, device.getVoipApnId());
+    writeLong(output, DEVICE_PUSH_TIMESTAMP, device.getPushTimestamp());
+    writeBool(output, DEVICE_FETCHES_MESSAGES, device.getFetchesMessages());
+    writeLong(output, DEVICE_REGISTRATION_ID, device.getRegistrationId());
+    writeLong(output, DEVICE_LAST_SEEN, device.getLastSeen());
+    writeLong(output, DEVICE_CREATED, device.getCreated());
+    writeBool(output, DEVICE_VOICE, device.isVoiceSupported());
+    writeBool(output, DEVICE_VIDEO, device.isVideoSupported());
+    writeString(output, DEVICE_USER_AGENT, device.getUserAgent());
+
+    if (device.getSignedPreKey() != null) {
+      output.writeByteArray(DEVICE_SIGNED_PRE_KEY, encodeSignedPreKey(device.getSignedPreKey()));
+    }
+
+    output.flush();
+    return baos.toByteArray();
+  }
+
+  private static Device decodeDevice(CodedInputStream input) throws IOException {
+    Device device        = new Device();
+    String authToken     = null;
+    String salt          = null;
+    long   pushTimestamp = 0;
+    int    tag;
+
+    while ((tag = input.readTag()) != 0) {
+      switch (WireFormat.getTagFieldNumber(tag)) {
+        case DEVICE_ID:               device.setId(input.readUInt64());                 break;
+        case DEVICE_NAME:             device.setName(input.readString());               break;
+        case DEVICE_AUTH_TOKEN:       authToken = input.readString();                   break;
+        case DEVICE_SALT:             salt      = input.readString();                   break;
+        case DEVICE_SIGNALING_KEY:    device.setSignalingKey(input.readString());       break;
+        case DEVICE_GCM_ID:           device.setGcmId(input.readString());              break;
+        case DEVICE_APN_ID:           device.setApnId(input.readString());              break;
+        case DEVICE_VOIP_APN_ID:      device.setVoipApnId(input.readString());          break;
+        case DEVICE_PUSH_TIMESTAMP:   pushTimestamp = input.readUInt64();               break;
+        case DEVICE_FETCHES_MESSAGES: device.setFetchesMessages(input.readBool());      break;
+        case DEVICE_REGISTRATION_ID:  device.setRegistrationId((int)input.readUInt64()); break;
+        case DEVICE_LAST_SEEN:        device.setLastSeen(input.readUInt64());           break;
+        case DEVICE_CREATED:          device.setCreated(input.readUInt64());            break;
+        case DEVICE_VOICE:            device.setVoiceSupported(input.readBool());       break;
+        case DEVICE_VIDEO:            device.setVideoSupported(input.readBool());       break;
+        case DEVICE_USER_AGENT:       device.setUserAgent(input.readString());          break;
+        case DEVICE_SIGNED_PRE_KEY:
+          int limit = input.pushLimit(input.readRawVarint32());
+          device.setSignedPreKey(decodeSignedPreKey(input));
+          input.popLimit(limit);
+          break;
+        default:
+          input.skipField(tag);
+      }
+    }
+
+    device.setAuthenticationCredentials(new AuthenticationCredentials(authToken, salt));
+
+    // Set last, the push id setters stamp pushTimestamp with the current time
+    device.setPushTimestamp(pushTimestamp);
+
+    return device;
+  }
+
+  private static byte[] encodeSignedPreKey(SignedPreKey signedPreKey) throws IOException {
+    ByteArrayOutputStream baos   = new ByteArrayOutputStream(128);
+    CodedOutputStream     output = CodedOutputStream.newInstance(baos);
+
+    writeLong(output, SIGNED_PRE_KEY_ID, signedPreKey.getKeyId());
+    writeKey(output, SIGNED_PRE_KEY_PUBLIC_BYTES, SIGNED_PRE_KEY_PUBLIC_STRING, signedPreKey.getPublicKey());
+    writeKey(output, SIGNED_PRE_KEY_SIGNATURE_BYTES, SIGNED_PRE_KEY_SIGNATURE_STRING, signedPreKey.getSignature());
+
+    output.flush();
+    return baos.toByteArray();
+  }
+
+  private static SignedPreKey decodeSignedPreKey(CodedInputStream input) throws IOException {
+    long   keyId     = 0;
+    String publicKey = null;
+    String signature = null;
+    int    tag;
+
+    while ((tag = input.readTag()) != 0) {
+      switch (WireFormat.getTagFieldNumber(tag)) {
+        case SIGNED_PRE_KEY_ID:               keyId     = input.readUInt64();                                  break;
+        case SIGNED_PRE_KEY_PUBLIC_BYTES:     publicKey = Base64.encodeBytes(input.readBytes().toByteArray()); break;
+        case SIGNED_PRE_KEY_PUBLIC_STRING:    publicKey = input.readString();                                  break;
+        case SIGNED_PRE_KEY_SIGNATURE_BYTES:  signature = Base64.encodeBytes(input.readBytes().toByteArray()); break;
+        case SIGNED_PRE_KEY_SIGNATURE_STRING: signature = input.readString();                                  break;
+        default:                              input.skipField(tag);
+      }
+    }
+
+    return new SignedPreKey(keyId, publicKey, signature);
+  }
+
+  private static void writeString(CodedOutputStream output, int field, String value) throws IOException {
+    if (value != null) output.writeString(field, value);
+  }
+
+  private static void writeLong(CodedOutputStream output, int field, long value) throws IOException {
+    if (value != 0) output.writeUInt64(field, value);
+  }
+
+  private static void writeBool(CodedOutputStream output, int field, boolean value) throws IOException {
+    if (value) output.writeBool(field, true);
+  }
+
+  // Key material is stored raw when it round-trips through Base64 exactly, and as the original string otherwise
+  private static void writeKey(CodedOutputStream output, int bytesField, int stringField, String value) throws IOException {
+    if (value == null) return;
+
+    byte[] decoded = decodeKey(value);
+
+    if (decoded != null) output.writeByteArray(bytesField, decoded);
+    else                 output.writeString(stringField, value);
+  }
+
+  private static byte[] decodeKey(String value) {
+    try {
+      byte[] decoded = Base64.decode(value);
+
+      if (Arrays.equals(Base64.encodeBytes(decoded).getBytes(), value.getBytes())) {
+        return decoded;
+      }
+    } catch (IOException | IllegalArgumentException e) {
+      // Not canonical Base64
+    }
+
+    return null;
+  }
+}
@@ -49,6 +49,17 @@ public abstract class Accounts {
   @SqlQuery("SELECT * FROM accounts WHERE " + NUMBER + " = :number")
   abstract Account get(@Bind("number") String number);
 
+  // Replaces (or appends) one element of the devices array, leaving the rest of the document untouched
+  @SqlUpdate("UPDATE accounts SET " + DATA + " = CAST(jsonb_set(CAST(" + DATA + " AS jsonb), '{devices}', " +
+             "COALESCE((SELECT jsonb_agg(d) FROM jsonb_array_elements(CAST(" + DATA + " AS jsonb)->'devices') d WHERE (d->>'id')\\:\\:bigint <> :device_id), '[]'\\:\\:jsonb) || CAST(:device AS jsonb)) AS json) " +
+             "WHERE " + NUMBER + " = :number")
+  abstract int putDevice(@Bind("number") String number, @Bind("device_id") long deviceId, @DeviceBinder Device device);
+
+  @SqlUpdate("UPDATE accounts SET " + DATA + " = CAST(jsonb_set(CAST(" + DATA + " AS jsonb), '{devices}', " +
+             "COALESCE((SELECT jsonb_agg(d) FROM jsonb_array_elements(CAST(" + DATA + " AS jsonb)->'devices') d WHERE (d->>'id')\\:\\:bigint <> :device_id), '[]'\\:\\:jsonb)) AS json) " +
+             "WHERE " + NUMBER + " = :number")
+  abstract int removeDevice(@Bind("number") String number, @Bind("device_id") long deviceId);
+
   @SqlQuery("SELECT COUNT(DISTINCT " + NUMBER + ") from accounts")
   public abstract long getCount();
 
@@ -131,4 +142,28 @@ public abstract class Accounts {
     }
   }
 
+  @BindingAnnotation(DeviceBinder.DeviceBinderFactory.class)
+  @Retention(RetentionPolicy.RUNTIME)
+  @Target({ElementType.PARAMETER})
+  public @interface DeviceBinder {
+    public static class DeviceBinderFactory implements BinderFactory {
+      @Override
+      public Binder build(Annotation annotation) {
+        return new Binder<DeviceBinder, Device>() {
+          @Override
+          public void bind(SQLStatement<?> sql,
+                           DeviceBinder deviceBinder,
+                           Device device)
+          {
+            try {
+              sql.bind("device", mapper.writeValueAsString(device));
+            } catch (JsonProcessingException e) {
+              throw new IllegalArgumentException(e);
+            }
+          }
+        };
+      }
+    }
+  }
+
 }
@@ -1,6 +1,9 @@
 package com.openchat.secureim.storage;
 
 
+import com.codahale.metrics.Histogram;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.SharedMetricRegistries;
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.google.common.base.Optional;
@@ -8,17 +11,29 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import com.openchat.secureim.entities.ClientContact;
 import com.openchat.secureim.redis.ReplicatedJedisPool;
+import com.openchat.secureim.util.Constants;
 import com.openchat.secureim.util.SystemMapper;
 import com.openchat.secureim.util.Util;
 
 import java.io.IOException;
+import java.util.Collections;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
 
 import redis.clients.jedis.Jedis;
+import redis.clients.jedis.Pipeline;
+import redis.clients.jedis.Response;
+import redis.clients.jedis.Transaction;
+import redis.clients.util.SafeEncoder;
+import static com.codahale.metrics.MetricRegistry.name;
 
 public class AccountsManager {
 
+  private static final MetricRegistry metricRegistry     = SharedMetricRegistries.getOrCreate(Constants.METRICS_NAME);
+  private static final Histogram      cachedSizeHistogram = metricRegistry.histogram(name(AccountsManager.class, "cachedSize"));
+
   private final Logger logger = LoggerFactory.getLogger(AccountsManager.class);
 
   private final Accounts            accounts;
@@ -26,11 +41,26 @@ public class AccountsManager {
   private final DirectoryManager    directory;
   private final ObjectMapper        mapper;
 
+  private final Optional<AccountCache> accountCache;
+  private final boolean                compactEncoding;
+
+  private final Optional<LastSeenTracker> lastSeenTracker;
+
   public AccountsManager(Accounts accounts, DirectoryManager directory, ReplicatedJedisPool cacheClient) {
-    this.accounts    = accounts;
-    this.directory   = directory;
-    this.cacheClient = cacheClient;
-    this.mapper      = SystemMapper.getMapper();
+    this(accounts, directory, cacheClient, Optional.<AccountCache>absent(), false, Optional.<LastSeenTracker>absent());
+  }
+
+  public AccountsManager(Accounts accounts, DirectoryManager directory, ReplicatedJedisPool cacheClient,
+                         Optional<AccountCache> accountCache, boolean compactEncoding,
+                         Optional<LastSeenTracker> lastSeenTracker)
+  {
+    this.accounts        = accounts;
+    this.directory       = directory;
+    this.cacheClient     = cacheClient;
+    this.accountCache    = accountCache;
+    this.compactEncoding = compactEncoding;
+    this.lastSeenTracker = lastSeenTracker;
+    this.mapper          = SystemMapper.getMapper();
   }
 
   public long getCount() {
@@ -38,7 +68,13 @@ public class AccountsManager {
   }
 
   public List<Account> getAll(int offset, int length) {
-    return accounts.getAll(offset, length);
+    List<Account> results = accounts.getAll(offset, length);
+
+    if (lastSeenTracker.isPresent()) {
+      lastSeenTracker.get().merge(results);
+    }
+
+    return results;
   }
 
   public Iterator<Account> getAll() {
@@ -48,6 +84,7 @@ public class AccountsManager {
   public boolean create(Account account) {
     boolean freshUser = accounts.create(account);
     memcacheSet(account.getNumber(), account);
+    invalidateLocalCache(account.getNumber());
     updateDirectory(account);
 
     return freshUser;
@@ -56,11 +93,114 @@ public class AccountsManager {
   public void update(Account account) {
     memcacheSet(account.getNumber(), account);
     accounts.update(account);
+    invalidateLocalCache(account.getNumber());
     updateDirectory(account);
   }
 
+  // Field-level alternatives to update() for changes confined to a single device: only that
+  // device is rewritten in the row and in the cached entry, and the directory is only touched
+  // when the change alters what it publishes
+  public void updateDevice(Account account, long deviceId, Consumer<Device> update) {
+    Optional<Device> device = account.getDevice(deviceId);
+
+    if (!device.isPresent()) {
+      throw new IllegalArgumentException("No device " + deviceId + " for " + account.getNumber());
+    }
+
+    int directoryState = getDirectoryState(account);
+    update.accept(device.get());
+
+    accounts.putDevice(account.getNumber(), deviceId, device.get());
+    memcachePatch(account.getNumber(), deviceId, Optional.of(device.get()));
+    invalidateLocalCache(account.getNumber());
+
+    if (getDirectoryState(account) != directoryState) {
+      updateDirectory(account);
+    }
+  }
+
+  public void addDevice(Account account, Device device) {
+    int directoryState = getDirectoryState(account);
+    account.addDevice(device);
+
+    accounts.putDevice(account.getNumber(), device.getId(), device);
+    memcachePatch(account.getNumber(), device.getId(), Optional.of(device));
+    invalidateLocalCache(account.getNumber());
+
+    if (getDirectoryState(account) != directoryState) {
+      updateDirectory(account);
+    }
+  }
+
+  public void removeDevice(Account account, long deviceId) {
+    int directoryState = getDirectoryState(account);
+    account.removeDevice(deviceId);
+
+    accounts.removeDevice(account.getNumber(), deviceId);
+    memcachePatch(account.getNumber(), deviceId, Optional.<Device>absent());
+    invalidateLocalCache(account.getNumber());
+
+    if (getDirectoryState(account) != directoryState) {
+      updateDirectory(account);
+    }
+  }
+
   public Optional<Account> get(String number) {
-    Optional<Account> account = memcacheGet(number);
+    if (!accountCache.isPresent()) {
+      return getShared(number);
+    }
+
+    Optional<Account> account = accountCache.get().get(number);
+
+    if (!account.isPresent()) {
+      long stamp = accountCache.get().getStamp(number);
+      account = getShared(number);
+
+      if (account.isPresent()) {
+        accountCache.get().put(number, account.get(), stamp);
+      }
+    }
+
+    return account;
+  }
+
+  public void updateLastSeen(Account account, Device device) {
+    if (device.getLastSeen() == Util.todayInMillis()) {
+      return;
+    }
+
+    // Returning from inactivity changes the directory entry, which only a full update publishes
+    if (lastSeenTracker.isPresent() && account.isActive() && device.isActive()) {
+      lastSeenTracker.get().record(account, device);
+
+      if (accountCache.isPresent()) {
+        accountCache.get().setLastSeen(account.getNumber(), device.getId(), device.getLastSeen());
+      }
+    } else {
+      device.setLastSeen(Util.todayInMillis());
+      update(account);
+    }
+  }
+
+  private Optional<Account> getShared(String number) {
+    Optional<Account>   account;
+    Map<String, String> lastSeen = Collections.emptyMap();
+
+    if (lastSeenTracker.isPresent()) {
+      // The last seen hash is read in the same round trip as the cached entry
+      try (Jedis jedis = cacheClient.getReadResource()) {
+        Pipeline                      pipeline   = jedis.pipelined();
+        Response<byte[]>              serialized = pipeline.get(SafeEncoder.encode(getKey(number)));
+        Response<Map<String, String>> persisted  = pipeline.hgetAll(LastSeenTracker.getKey(number));
+
+        pipeline.sync();
+
+        account  = deserializeCached(serialized.get());
+        lastSeen = persisted.get();
+      }
+    } else {
+      account = memcacheGet(number);
+    }
 
     if (!account.isPresent()) {
       account = Optional.fromNullable(accounts.get(number));
@@ -70,6 +210,10 @@ public class AccountsManager {
       }
     }
 
+    if (account.isPresent() && lastSeenTracker.isPresent()) {
+      lastSeenTracker.get().merge(account.get(), lastSeen);
+    }
+
     return account;
   }
 
@@ -90,24 +234,96 @@ public class AccountsManager {
     }
   }
 
+  private int getDirectoryState(Account account) {
+    return (account.isActive()         ? 1 : 0) |
+           (account.isVoiceSupported() ? 2 : 0) |
+           (account.isVideoSupported() ? 4 : 0);
+  }
+
+  private void invalidateLocalCache(String number) {
+    if (accountCache.isPresent()) {
+      accountCache.get().invalidate(number);
+    }
+  }
+
   private String getKey(String number) {
     return Account.class.getSimpleName() + Account.MEMCACHE_VERION + number;
   }
 
   private void memcacheSet(String number, Account account) {
     try (Jedis jedis = cacheClient.getWriteResource()) {
-      jedis.set(getKey(number), mapper.writeValueAsString(account));
+      jedis.set(SafeEncoder.encode(getKey(number)), serialize(account));
+    }
+  }
+
+  // Redis can't edit inside the cached value, so the device is swapped in a watched read-modify-write
+  // of the entry; if that races another writer the entry is dropped and the next read reloads it
+  private void memcachePatch(String number, long deviceId, Optional<Device> device) {
+    byte[] key = SafeEncoder.encode(getKey(number));
+
+    try (Jedis jedis = cacheClient.getWriteResource()) {
+      jedis.watch(key);
+
+      byte[] serialized = jedis.get(key);
+
+      if (serialized == null) {
+        jedis.unwatch();
+        return;
+      }
+
+      Account cached = deserialize(serialized);
+
+      if (!cached.getDevice(deviceId).isPresent() && !device.isPresent()) {
+        jedis.unwatch();
+        return;
+      }
+
+      if (device.isPresent()) cached.addDevice(device.get());
+      else                    cached.removeDevice(deviceId);
+
+      Transaction transaction = jedis.multi();
+      transaction.set(key, serialize(cached));
+
+      List<Object> result = transaction.exec();
+
+      if (result == null || result.isEmpty()) {
+        jedis.del(key);
+      }
+    } catch (IOException e) {
+      logger.warn("Cached account patch failed", e);
+
+      try (Jedis jedis = cacheClient.getWriteResource()) {
+        jedis.del(key);
+      }
+    }
+  }
+
+  private byte[] serialize(Account account) {
+    try {
+      byte[] serialized = compactEncoding ? AccountCodec.encode(account) : mapper.writeValueAsBytes(account);
+
+      cachedSizeHistogram.update(serialized.length);
+      return serialized;
     } catch (JsonProcessingException e) {
       throw new IllegalArgumentException(e);
     }
   }
 
+  private Account deserialize(byte[] serialized) throws IOException {
+    if (AccountCodec.isEncoded(serialized)) return AccountCodec.decode(serialized);
+    else                                    return mapper.readValue(serialized, Account.class);
+  }
+
   private Optional<Account> memcacheGet(String number) {
     try (Jedis jedis = cacheClient.getReadResource()) {
-      String json = jedis.get(getKey(number));
+      return deserializeCached(jedis.get(SafeEncoder.encode(getKey(number))));
+    }
+  }
 
-      if (json != null) return Optional.of(mapper.readValue(json, Account.class));
-      else              return Optional.absent();
+  private Optional<Account> deserializeCached(byte[] serialized) {
+    try {
+      if (serialized == null) return Optional.absent();
+      else                    return Optional.of(deserialize(serialized));
     } catch (IOException e) {
       logger.warn("AccountsManager", "Deserialization error", e);
       return Optional.absent();
@@ -90,6 +90,15 @@ public class Device {
     this.userAgent       = userAgent;
   }
 
+  Device copy() {
+    Device copy = new Device(id, name, authToken, salt, signalingKey, gcmId, apnId, voipApnId,
+                             fetchesMessages, registrationId, signedPreKey, lastSeen, created,
+                             voice, video, userAgent);
+    copy.pushTimestamp = pushTimestamp;
+
+    return copy;
+  }
+
   public String getApnId() {
     return apnId;
   }
@@ -226,6 +235,10 @@ public class Device {
     return pushTimestamp;
   }
 
+  void setPushTimestamp(long pushTimestamp) {
+    this.pushTimestamp = pushTimestamp;
+  }
+
   public void setUserAgent(String userAgent) {
     this.userAgent = userAgent;
   }
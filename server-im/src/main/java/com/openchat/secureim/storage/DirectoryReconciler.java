@@ -40,6 +40,7 @@ public class DirectoryReconciler implements Managed, Runnable {
   private static final double JITTER_MAX                 = 0.20;
 
   private final Accounts                      accounts;
+  private final Optional<LastSeenTracker>     lastSeenTracker;
   private final DirectoryManager              directoryManager;
   private final DirectoryReconciliationClient reconciliationClient;
   private final DirectoryReconciliationCache  reconciliationCache;
@@ -55,9 +56,11 @@ public class DirectoryReconciler implements Managed, Runnable {
                              DirectoryReconciliationCache reconciliationCache,
                              DirectoryManager directoryManager,
                              Accounts accounts,
+                             Optional<LastSeenTracker> lastSeenTracker,
                              int chunkSize,
                              long chunkIntervalMs) {
     this.accounts             = accounts;
+    this.lastSeenTracker      = lastSeenTracker;
     this.directoryManager     = directoryManager;
     this.reconciliationClient = reconciliationClient;
     this.reconciliationCache  = reconciliationCache;
@@ -183,7 +186,14 @@ public class DirectoryReconciler implements Managed, Runnable {
         chunkAccounts = Optional.fromNullable(accounts.getAllFrom(chunkSize));
       }
 
-      return chunkAccounts.or(Collections::emptyList);
+      List<Account> results = chunkAccounts.or(Collections::emptyList);
+
+      // Rows only carry the last seen of their last full rewrite
+      if (lastSeenTracker.isPresent()) {
+        lastSeenTracker.get().merge(results);
+      }
+
+      return results;
     }
   }
 
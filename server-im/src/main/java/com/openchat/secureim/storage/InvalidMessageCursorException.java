@@ -0,0 +1,11 @@
+package com.openchat.secureim.storage;
+
+public class InvalidMessageCursorException extends Exception {
+  public InvalidMessageCursorException(String serialized) {
+    super(serialized);
+  }
+
+  public InvalidMessageCursorException(Exception e) {
+    super(e);
+  }
+}
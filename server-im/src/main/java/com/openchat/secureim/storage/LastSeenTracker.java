@@ -0,0 +1,225 @@
+package com.openchat.secureim.storage;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.SharedMetricRegistries;
+import com.codahale.metrics.Timer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import com.openchat.secureim.redis.ReplicatedJedisPool;
+import com.openchat.secureim.util.Constants;
+import com.openchat.secureim.util.Util;
+
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import io.dropwizard.lifecycle.Managed;
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.Pipeline;
+import redis.clients.jedis.Response;
+import redis.clients.jedis.exceptions.JedisException;
+import static com.codahale.metrics.MetricRegistry.name;
+
+// Daily device activity is buffered here and flushed in batches to a per-account redis hash, so
+// the account row and its cached entry are never rewritten for it. Readers merge the hash back in:
+// AccountsManager fetches it alongside the cached entry, and bulk row readers fetch it per chunk.
+public class LastSeenTracker implements Managed, Runnable {
+
+  private static final String KEY_PREFIX     = "last_seen::";
+  private static final int    EXPIRE_SECONDS = (int)TimeUnit.DAYS.toSeconds(400);
+
+  private static final Logger         logger         = LoggerFactory.getLogger(LastSeenTracker.class);
+  private static final MetricRegistry metricRegistry = SharedMetricRegistries.getOrCreate(Constants.METRICS_NAME);
+  private static final Meter          recordedMeter  = metricRegistry.meter(name(LastSeenTracker.class, "recorded"));
+  private static final Meter          flushedMeter   = metricRegistry.meter(name(LastSeenTracker.class, "flushed" ));
+  private static final Timer          flushTimer     = metricRegistry.timer(name(LastSeenTracker.class, "flush"   ));
+
+  private final Map<Key, Long> dirty = new ConcurrentHashMap<>();
+
+  private final ReplicatedJedisPool cacheClient;
+  private final long                flushIntervalMillis;
+  private final int                 batchSize;
+
+  private boolean running;
+  private boolean finished;
+
+  public LastSeenTracker(ReplicatedJedisPool cacheClient, int flushIntervalSeconds, int batchSize) {
+    this.cacheClient         = cacheClient;
+    this.flushIntervalMillis = TimeUnit.SECONDS.toMillis(flushIntervalSeconds);
+    this.batchSize           = batchSize;
+
+    metricRegistry.register(name(LastSeenTracker.class, "pending"), new Gauge<Integer>() {
+      @Override
+      public Integer getValue() {
+        return dirty.size();
+      }
+    });
+  }
+
+  public void record(Account account, Device device) {
+    long today = Util.todayInMillis();
+
+    if (device.getLastSeen() >= today) return;
+
+    device.setLastSeen(today);
+
+    Long previous = dirty.put(new Key(account.getNumber(), device.getId()), today);
+
+    if (previous == null || previous < today) {
+      recordedMeter.mark();
+    }
+  }
+
+  public void merge(List<Account> accounts) {
+    List<Response<Map<String, String>>> persisted = new ArrayList<>(accounts.size());
+
+    try (Jedis jedis = cacheClient.getReadResource()) {
+      Pipeline pipeline = jedis.pipelined();
+
+      for (Account account : accounts) {
+        persisted.add(pipeline.hgetAll(getKey(account.getNumber())));
+      }
+
+      pipeline.sync();
+    } catch (JedisException e) {
+      logger.warn("Last seen merge failed", e);
+      persisted = null;
+    }
+
+    for (int i = 0; i < accounts.size(); i++) {
+      merge(accounts.get(i), persisted != null ? persisted.get(i).get() : Collections.<String, String>emptyMap());
+    }
+  }
+
+  // Applies the flushed values fetched from getKey(), and any this node has not flushed yet
+  public void merge(Account account, Map<String, String> persisted) {
+    for (Device device : account.getDevices()) {
+      String persistedLastSeen = persisted.get(String.valueOf(device.getId()));
+      Long   pendingLastSeen   = dirty.get(new Key(account.getNumber(), device.getId()));
+
+      if (persistedLastSeen != null) {
+        try {
+          device.setLastSeen(Math.max(device.getLastSeen(), Long.parseLong(persistedLastSeen)));
+        } catch (NumberFormatException e) {
+          logger.warn("Bad last seen value for " + account.getNumber() + "." + device.getId(), e);
+        }
+      }
+
+      if (pendingLastSeen != null) {
+        device.setLastSeen(Math.max(device.getLastSeen(), pendingLastSeen));
+      }
+    }
+  }
+
+  @Override
+  public synchronized void start() {
+    running = true;
+    new Thread(this, "LastSeenTracker").start();
+  }
+
+  @Override
+  public synchronized void stop() {
+    running = false;
+    notifyAll();
+
+    while (!finished) Util.wait(this);
+  }
+
+  @Override
+  public void run() {
+    while (sleepWhileRunning(flushIntervalMillis)) {
+      flush();
+    }
+
+    flush();
+
+    synchronized (this) {
+      finished = true;
+      notifyAll();
+    }
+  }
+
+  private void flush() {
+    Iterator<Map.Entry<Key, Long>> iterator = dirty.entrySet().iterator();
+
+    while (iterator.hasNext()) {
+      List<Map.Entry<Key, Long>> batch = new ArrayList<>(batchSize);
+
+      while (iterator.hasNext() && batch.size() < batchSize) {
+        Map.Entry<Key, Long> entry = iterator.next();
+        batch.add(new AbstractMap.SimpleImmutableEntry<>(entry.getKey(), entry.getValue()));
+      }
+
+      try (Timer.Context timer = flushTimer.time();
+           Jedis         jedis = cacheClient.getWriteResource())
+      {
+        Pipeline pipeline = jedis.pipelined();
+
+        for (Map.Entry<Key, Long> entry : batch) {
+          String key = getKey(entry.getKey().number);
+
+          pipeline.hset(key, String.valueOf(entry.getKey().deviceId), String.valueOf(entry.getValue()));
+          pipeline.expire(key, EXPIRE_SECONDS);
+        }
+
+        pipeline.sync();
+      } catch (Exception e) {
+        logger.warn("Last seen flush failed, retrying next interval", e);
+        return;
+      }
+
+      // A newer value recorded during the flush stays dirty
+      for (Map.Entry<Key, Long> entry : batch) {
+        dirty.remove(entry.getKey(), entry.getValue());
+      }
+
+      flushedMeter.mark(batch.size());
+    }
+  }
+
+  private synchronized boolean sleepWhileRunning(long delayMillis) {
+    long startMillis     = System.currentTimeMillis();
+    long remainingMillis = delayMillis;
+
+    while (running && remainingMillis > 0) {
+      Util.wait(this, remainingMillis);
+      remainingMillis = delayMillis - (System.currentTimeMillis() - startMillis);
+    }
+
+    return running;
+  }
+
+  static String getKey(String number) {
+    return KEY_PREFIX + number;
+  }
+
+  private static class Key {
+    private final String number;
+    private final long   deviceId;
+
+    private Key(String number, long deviceId) {
+      this.number   = number;
+      this.deviceId = deviceId;
+    }
+
+    @Override
+    public boolean equals(Object other) {
+      if (other == null || !(other instanceof Key)) return false;
+
+      Key that = (Key)other;
+      return this.deviceId == that.deviceId && this.number.equals(that.number);
+    }
+
+    @Override
+    public int hashCode() {
+      return number.hashCode() ^ (int)deviceId;
+    }
+  }
+}
@@ -0,0 +1,69 @@
+package com.openchat.secureim.storage;
+
+import com.openchat.secureim.entities.OutgoingMessageEntity;
+
+import java.util.List;
+
+public class MessageCursor {
+
+  // Pages follow id (insertion order) rather than the sender supplied timestamp,
+  // so a message persisted mid-drain can't land behind the cursor
+  private final long id;
+  private final long cacheId;
+
+  public MessageCursor(long id, long cacheId) {
+    this.id      = id;
+    this.cacheId = cacheId;
+  }
+
+  public MessageCursor(String serialized) throws InvalidMessageCursorException {
+    try {
+      String[] parts = serialized.split(":");
+
+      if (parts.length == 2) {
+        this.id      = Long.parseLong(parts[0]);
+        this.cacheId = Long.parseLong(parts[1]);
+      } else if (parts.length == 3) {
+        // timestamp:id:cacheId, as handed out before paging moved to id
+        this.id      = Long.parseLong(parts[1]);
+        this.cacheId = Long.parseLong(parts[2]);
+      } else {
+        throw new InvalidMessageCursorException("Bad cursor: " + serialized);
+      }
+    } catch (NumberFormatException e) {
+      throw new InvalidMessageCursorException(e);
+    }
+  }
+
+  public static MessageCursor start() {
+    return new MessageCursor(-1, -1);
+  }
+
+  public long getId() {
+    return id;
+  }
+
+  public long getCacheId() {
+    return cacheId;
+  }
+
+  public MessageCursor advance(List<OutgoingMessageEntity> messages) {
+    long id      = this.id;
+    long cacheId = this.cacheId;
+
+    for (OutgoingMessageEntity message : messages) {
+      if (message.isCached()) cacheId = message.getId();
+      else                    id      = message.getId();
+    }
+
+    return new MessageCursor(id, cacheId);
+  }
+
+  public String serialize() {
+    return id + ":" + cacheId;
+  }
+
+  public String toString() {
+    return serialize();
+  }
+}
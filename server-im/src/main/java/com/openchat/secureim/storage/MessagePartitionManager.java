@@ -0,0 +1,174 @@
+package com.openchat.secureim.storage;
+
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.SharedMetricRegistries;
+import com.codahale.metrics.Timer;
+import io.dropwizard.lifecycle.Managed;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import com.openchat.secureim.configuration.MessageStorePartitionConfiguration;
+import com.openchat.secureim.util.Constants;
+import com.openchat.secureim.util.Util;
+
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static com.codahale.metrics.MetricRegistry.name;
+
+public class MessagePartitionManager implements Managed, Runnable {
+
+  private static final Logger logger = LoggerFactory.getLogger(MessagePartitionManager.class);
+
+  private static final MetricRegistry metricRegistry     = SharedMetricRegistries.getOrCreate(Constants.METRICS_NAME);
+  private static final Timer          maintainTimer      = metricRegistry.timer(name(MessagePartitionManager.class, "maintain"));
+  private static final Meter          createdMeter       = metricRegistry.meter(name(MessagePartitionManager.class, "created"));
+  private static final Meter          droppedMeter       = metricRegistry.meter(name(MessagePartitionManager.class, "dropped"));
+  private static final Meter          maintainErrorMeter = metricRegistry.meter(name(MessagePartitionManager.class, "maintainError"));
+
+  private static final long              MAINTENANCE_INTERVAL = TimeUnit.HOURS.toMillis(1);
+  private static final DateTimeFormatter PARTITION_SUFFIX     = DateTimeFormatter.ofPattern("yyyyMMdd").withZone(ZoneOffset.UTC);
+
+  private final MessagePartitions partitions;
+  private final long              intervalMillis;
+  private final int               precreatePartitions;
+  private final long              retentionMillis;
+
+  private volatile boolean running;
+  private          boolean finished;
+
+  public MessagePartitionManager(MessagePartitions partitions, MessageStorePartitionConfiguration configuration) {
+    this.partitions          = partitions;
+    this.intervalMillis      = configuration.getInterval().getMillis();
+    this.precreatePartitions = configuration.getPrecreatePartitions();
+    this.retentionMillis     = TimeUnit.DAYS.toMillis(configuration.getRetentionDays());
+  }
+
+  @Override
+  public synchronized void start() {
+    running = true;
+    new Thread(this, "MessagePartitionManager").start();
+  }
+
+  @Override
+  public synchronized void stop() {
+    running = false;
+    notifyAll();
+    while (!finished) {
+      Util.wait(this);
+    }
+  }
+
+  @Override
+  public void run() {
+    while (running) {
+      try {
+        maintain(System.currentTimeMillis());
+      } catch (Throwable t) {
+        logger.warn("Error maintaining message partitions", t);
+        maintainErrorMeter.mark();
+      }
+
+      sleepWhileRunning(MAINTENANCE_INTERVAL);
+    }
+
+    synchronized (this) {
+      finished = true;
+      notifyAll();
+    }
+  }
+
+  public void maintain(long now) {
+    try (Timer.Context timer = maintainTimer.time()) {
+      if (!partitions.isPartitioned()) {
+        logger.warn("Messages table is not partitioned, run the partition-messages command to convert it");
+        return;
+      }
+
+      List<MessagePartitions.Partition> existing = partitions.getPartitions();
+
+      createPartitions(existing, now);
+      dropExpiredPartitions(existing, now);
+    }
+  }
+
+  public void createPartitions(List<MessagePartitions.Partition> existing, long now) {
+    MessagePartitions.Partition future = null;
+
+    for (MessagePartitions.Partition partition : existing) {
+      if (partition.getName().equals(MessagePartitions.FUTURE_TABLE)) future = partition;
+    }
+
+    if (future == null) {
+      logger.warn("No " + MessagePartitions.FUTURE_TABLE + " partition, not creating message partitions");
+      return;
+    }
+
+    long horizon = getNextIntervalStart(now) + (precreatePartitions * intervalMillis);
+
+    for (long from = future.getFrom(); from < horizon; from += intervalMillis) {
+      try {
+        partitions.splitFuturePartition(getPartitionName(from), from, from + intervalMillis);
+        createdMeter.mark();
+        logger.info("Created message partition " + getPartitionName(from));
+      } catch (Exception e) {
+        logger.warn("Failed to create message partition " + getPartitionName(from), e);
+        break;
+      }
+    }
+  }
+
+  public int dropExpiredPartitions(List<MessagePartitions.Partition> existing, long now) {
+    long         cutoff     = now - retentionMillis;
+    long         lowerBound = Long.MAX_VALUE;
+    List<String> expired    = new LinkedList<>();
+    boolean      ranged     = false;
+
+    for (MessagePartitions.Partition partition : existing) {
+      if (partition.getTo() <= cutoff) {
+        expired.add(partition.getName());
+        ranged |= partition.getFrom() != Long.MIN_VALUE;
+      } else if (partition.getFrom() != Long.MIN_VALUE) {
+        lowerBound = Math.min(lowerBound, partition.getFrom());
+      }
+    }
+
+    // The MINVALUE partition (legacy rows, then stray old timestamps) only moves up once a
+    // ranged partition below the cutoff goes with it, so it isn't recreated every pass.
+    if (!ranged || lowerBound == Long.MAX_VALUE) return 0;
+
+    try {
+      partitions.dropPartitions(expired, lowerBound);
+      droppedMeter.mark(expired.size());
+      logger.info("Dropped expired message partitions " + expired);
+      return expired.size();
+    } catch (Exception e) {
+      logger.warn("Failed to drop message partitions " + expired, e);
+      return 0;
+    }
+  }
+
+  public long getNextIntervalStart(long now) {
+    return (now / intervalMillis) * intervalMillis + intervalMillis;
+  }
+
+  public static String getPartitionName(long from) {
+    return MessagePartitions.PARTITION_PREFIX + PARTITION_SUFFIX.format(Instant.ofEpochMilli(from));
+  }
+
+  private synchronized void sleepWhileRunning(long delayMs) {
+    long startTimeMs = System.currentTimeMillis();
+
+    while (running && delayMs > 0) {
+      Util.wait(this, delayMs);
+
+      long nowMs = System.currentTimeMillis();
+      delayMs -= Math.abs(nowMs - startTimeMs);
+      startTimeMs = nowMs;
+    }
+  }
+}
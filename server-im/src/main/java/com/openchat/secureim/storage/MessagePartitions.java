@@ -0,0 +1,135 @@
+package com.openchat.secureim.storage;
+
+import org.skife.jdbi.v2.StatementContext;
+import org.skife.jdbi.v2.sqlobject.Bind;
+import org.skife.jdbi.v2.sqlobject.SqlQuery;
+import org.skife.jdbi.v2.sqlobject.Transaction;
+import org.skife.jdbi.v2.sqlobject.customizers.Mapper;
+import org.skife.jdbi.v2.sqlobject.mixins.GetHandle;
+import org.skife.jdbi.v2.tweak.ResultSetMapper;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+public abstract class MessagePartitions implements GetHandle {
+
+  static final String PARTITION_PREFIX = "messages_p";
+  static final String LEGACY_TABLE     = "messages_legacy";
+  static final String PAST_TABLE       = "messages_past";
+  static final String FUTURE_TABLE     = "messages_future";
+
+  private static final Pattern RANGE_BOUND = Pattern.compile("FOR VALUES FROM \\('?(-?\\d+|MINVALUE)'?\\) TO \\('?(-?\\d+|MAXVALUE)'?\\)");
+
+  @SqlQuery("SELECT COUNT(*) FROM pg_partitioned_table pt JOIN pg_class c ON pt.partrelid = c.oid WHERE c.relname = 'messages'")
+  abstract int getPartitionedCount();
+
+  @Mapper(PartitionMapper.class)
+  @SqlQuery("SELECT c.relname AS name, pg_get_expr(c.relpartbound, c.oid) AS bound FROM pg_inherits i " +
+            "JOIN pg_class c ON i.inhrelid = c.oid JOIN pg_class p ON i.inhparent = p.oid WHERE p.relname = 'messages'")
+  public abstract List<Partition> getPartitions();
+
+  @SqlQuery("SELECT pg_get_serial_sequence(:table, 'id')")
+  abstract String getIdSequence(@Bind("table") String table);
+
+  public boolean isPartitioned() {
+    return getPartitionedCount() > 0;
+  }
+
+  // The future partition catches everything from the last precreated interval up, so a new
+  // interval is split off its head; it only ever holds the odd message with a skewed clock.
+  @Transaction
+  public void splitFuturePartition(String name, long from, long to) {
+    getHandle().execute("ALTER TABLE messages DETACH PARTITION " + FUTURE_TABLE);
+    getHandle().execute("CREATE TABLE " + name + " PARTITION OF messages FOR VALUES FROM (" + from + ") TO (" + to + ")");
+    getHandle().execute("CREATE INDEX " + name + "_id_index ON " + name + " (id)");
+    getHandle().execute("INSERT INTO " + name + " SELECT * FROM " + FUTURE_TABLE + " WHERE timestamp < " + to);
+    getHandle().execute("DELETE FROM " + FUTURE_TABLE + " WHERE timestamp < " + to);
+    getHandle().execute("ALTER TABLE messages ATTACH PARTITION " + FUTURE_TABLE + " FOR VALUES FROM (" + to + ") TO (MAXVALUE)");
+  }
+
+  @Transaction
+  public void dropPartitions(List<String> names, long lowerBound) {
+    if (names.contains(LEGACY_TABLE)) {
+      transferIdSequence();
+    }
+
+    for (String name : names) {
+      getHandle().execute("DROP TABLE IF EXISTS " + name);
+    }
+
+    getHandle().execute("CREATE TABLE " + PAST_TABLE + " PARTITION OF messages FOR VALUES FROM (MINVALUE) TO (" + lowerBound + ")");
+    getHandle().execute("CREATE INDEX " + PAST_TABLE + "_id_index ON " + PAST_TABLE + " (id)");
+  }
+
+  @Transaction
+  public void convertToPartitioned(long boundary) {
+    getHandle().execute("ALTER TABLE messages RENAME TO " + LEGACY_TABLE);
+    getHandle().execute("CREATE TABLE messages (LIKE " + LEGACY_TABLE + " INCLUDING DEFAULTS) PARTITION BY RANGE (timestamp)");
+    transferIdSequence();
+    getHandle().execute("CREATE TABLE " + FUTURE_TABLE + " PARTITION OF messages FOR VALUES FROM (" + boundary + ") TO (MAXVALUE)");
+    getHandle().execute("INSERT INTO " + FUTURE_TABLE + " SELECT * FROM " + LEGACY_TABLE + " WHERE timestamp >= " + boundary);
+    getHandle().execute("DELETE FROM " + LEGACY_TABLE + " WHERE timestamp >= " + boundary);
+    getHandle().execute("ALTER TABLE " + LEGACY_TABLE + " ADD CONSTRAINT " + LEGACY_TABLE + "_bound CHECK (timestamp IS NOT NULL AND timestamp < " + boundary + ")");
+    getHandle().execute("ALTER TABLE messages ATTACH PARTITION " + LEGACY_TABLE + " FOR VALUES FROM (MINVALUE) TO (" + boundary + ")");
+    getHandle().execute("CREATE INDEX messages_destination_cursor_index ON messages (destination, destination_device, id)");
+    getHandle().execute("CREATE INDEX " + FUTURE_TABLE + "_id_index ON " + FUTURE_TABLE + " (id)");
+  }
+
+  // The id default still draws on the legacy serial, which has to belong to messages before the
+  // legacy partition can be dropped
+  private void transferIdSequence() {
+    String sequence = getIdSequence(LEGACY_TABLE);
+
+    if (sequence != null) {
+      getHandle().execute("ALTER SEQUENCE " + sequence + " OWNED BY messages.id");
+    }
+  }
+
+  public static class Partition {
+
+    private final String name;
+    private final long   from;
+    private final long   to;
+
+    Partition(String name, long from, long to) {
+      this.name = name;
+      this.from = from;
+      this.to   = to;
+    }
+
+    public String getName() {
+      return name;
+    }
+
+    public long getFrom() {
+      return from;
+    }
+
+    public long getTo() {
+      return to;
+    }
+  }
+
+  public static class PartitionMapper implements ResultSetMapper<Partition> {
+    @Override
+    public Partition map(int i, ResultSet resultSet, StatementContext statementContext)
+        throws SQLException
+    {
+      String  name    = resultSet.getString("name");
+      String  bound   = resultSet.getString("bound");
+      Matcher matcher = RANGE_BOUND.matcher(bound == null ? "" : bound);
+
+      if (!matcher.find()) {
+        throw new SQLException("Unexpected partition bound for " + name + ": " + bound);
+      }
+
+      long from = "MINVALUE".equals(matcher.group(1)) ? Long.MIN_VALUE : Long.parseLong(matcher.group(1));
+      long to   = "MAXVALUE".equals(matcher.group(2)) ? Long.MAX_VALUE : Long.parseLong(matcher.group(2));
+
+      return new Partition(name, from, to);
+    }
+  }
+}
@@ -1,17 +1,22 @@
 package com.openchat.secureim.storage;
 
+import org.skife.jdbi.v2.Query;
 import org.skife.jdbi.v2.SQLStatement;
 import org.skife.jdbi.v2.StatementContext;
+import org.skife.jdbi.v2.Update;
 import org.skife.jdbi.v2.sqlobject.Bind;
 import org.skife.jdbi.v2.sqlobject.Binder;
 import org.skife.jdbi.v2.sqlobject.BinderFactory;
 import org.skife.jdbi.v2.sqlobject.BindingAnnotation;
+import org.skife.jdbi.v2.sqlobject.SqlBatch;
 import org.skife.jdbi.v2.sqlobject.SqlQuery;
 import org.skife.jdbi.v2.sqlobject.SqlUpdate;
 import org.skife.jdbi.v2.sqlobject.customizers.Mapper;
+import org.skife.jdbi.v2.sqlobject.mixins.GetHandle;
 import org.skife.jdbi.v2.tweak.ResultSetMapper;
 import com.openchat.secureim.entities.MessageProtos.Envelope;
 import com.openchat.secureim.entities.OutgoingMessageEntity;
+import com.openchat.secureim.util.Pair;
 
 import java.lang.annotation.Annotation;
 import java.lang.annotation.ElementType;
@@ -20,9 +25,10 @@ import java.lang.annotation.RetentionPolicy;
 import java.lang.annotation.Target;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.util.LinkedList;
 import java.util.List;
 
-public abstract class Messages {
+public abstract class Messages implements GetHandle {
 
   static final int RESULT_SET_CHUNK_SIZE = 100;
 
@@ -43,10 +49,17 @@ public abstract class Messages {
                      @Bind("destination") String destination,
                      @Bind("destination_device") long destinationDevice);
 
+  @SqlBatch("INSERT INTO messages (" + TYPE + ", " + RELAY + ", " + TIMESTAMP + ", " + SOURCE + ", " + SOURCE_DEVICE + ", " + DESTINATION + ", " + DESTINATION_DEVICE + ", " + MESSAGE + ", " + CONTENT + ") " +
+            "VALUES (:type, :relay, :timestamp, :source, :source_device, :destination, :destination_device, :message, :content)")
+  abstract void store(@MessageBinder List<Envelope> messages,
+                      @Bind("destination") String destination,
+                      @Bind("destination_device") long destinationDevice);
+
   @Mapper(MessageMapper.class)
-  @SqlQuery("SELECT * FROM messages WHERE " + DESTINATION + " = :destination AND " + DESTINATION_DEVICE + " = :destination_device ORDER BY " + TIMESTAMP + " ASC LIMIT " + RESULT_SET_CHUNK_SIZE)
+  @SqlQuery("SELECT * FROM messages WHERE " + DESTINATION + " = :destination AND " + DESTINATION_DEVICE + " = :destination_device AND " + ID + " > :id ORDER BY " + ID + " ASC LIMIT " + RESULT_SET_CHUNK_SIZE)
   abstract List<OutgoingMessageEntity> load(@Bind("destination")        String destination,
-                                            @Bind("destination_device") long destinationDevice);
+                                            @Bind("destination_device") long destinationDevice,
+                                            @Bind("id")                 long afterId);
 
   @Mapper(MessageMapper.class)
   @SqlQuery("DELETE FROM messages WHERE " + ID + " IN (SELECT " + ID + " FROM messages WHERE " + DESTINATION + " = :destination AND " + DESTINATION_DEVICE + " = :destination_device AND " + SOURCE + " = :source AND " + TIMESTAMP + " = :timestamp ORDER BY " + ID + " LIMIT 1) RETURNING *")
@@ -55,9 +68,49 @@ public abstract class Messages {
                                         @Bind("source")             String source,
                                         @Bind("timestamp")          long timestamp);
 
-  @Mapper(MessageMapper.class)
-  @SqlUpdate("DELETE FROM messages WHERE " + ID + " = :id AND " + DESTINATION + " = :destination")
-  abstract void remove(@Bind("destination") String destination, @Bind("id") long id);
+  int remove(String destination, List<Long> ids) {
+    if (ids.isEmpty()) return 0;
+
+    StringBuilder placeholders = new StringBuilder();
+
+    for (int i=0;i<ids.size();i++) {
+      if (i > 0) placeholders.append(", ");
+      placeholders.append(":id").append(i);
+    }
+
+    Update update = getHandle().createStatement("DELETE FROM messages WHERE " + DESTINATION + " = :destination AND " + ID + " IN (" + placeholders + ")")
+                               .bind("destination", destination);
+
+    for (int i=0;i<ids.size();i++) {
+      update.bind("id" + i, ids.get(i));
+    }
+
+    return update.execute();
+  }
+
+  List<OutgoingMessageEntity> remove(String destination, long destinationDevice, List<Pair<String, Long>> messages) {
+    if (messages.isEmpty()) return new LinkedList<>();
+
+    StringBuilder placeholders = new StringBuilder();
+
+    for (int i=0;i<messages.size();i++) {
+      if (i > 0) placeholders.append(", ");
+      placeholders.append("(:source").append(i).append(", :timestamp").append(i).append(")");
+    }
+
+    // Like the single remove, only the oldest row of each (source, timestamp) pair is deleted.
+    Query<OutgoingMessageEntity> query = getHandle().createQuery("DELETE FROM messages WHERE " + ID + " IN (SELECT MIN(" + ID + ") FROM messages WHERE " + DESTINATION + " = :destination AND " + DESTINATION_DEVICE + " = :destination_device AND (" + SOURCE + ", " + TIMESTAMP + ") IN (" + placeholders + ") GROUP BY " + SOURCE + ", " + TIMESTAMP + ") RETURNING *")
+                                                    .bind("destination", destination)
+                                                    .bind("destination_device", destinationDevice)
+                                                    .map(new MessageMapper());
+
+    for (int i=0;i<messages.size();i++) {
+      query.bind("source" + i, messages.get(i).first());
+      query.bind("timestamp" + i, messages.get(i).second());
+    }
+
+    return new LinkedList<>(query.list());
+  }
 
   @SqlUpdate("DELETE FROM messages WHERE " + DESTINATION + " = :destination")
   abstract void clear(@Bind("destination") String destination);
@@ -1,5 +1,6 @@
 package com.openchat.secureim.storage;
 
+import com.codahale.metrics.Gauge;
 import com.codahale.metrics.Histogram;
 import com.codahale.metrics.MetricRegistry;
 import com.codahale.metrics.SharedMetricRegistries;
@@ -8,6 +9,7 @@ import com.google.common.base.Optional;
 import com.google.protobuf.InvalidProtocolBufferException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import com.openchat.secureim.configuration.MessageCacheConfiguration;
 import com.openchat.secureim.entities.MessageProtos.Envelope;
 import com.openchat.secureim.entities.OutgoingMessageEntity;
 import com.openchat.secureim.push.NotPushRegisteredException;
@@ -20,12 +22,15 @@ import com.openchat.secureim.util.Util;
 import com.openchat.secureim.websocket.WebsocketAddress;
 
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Random;
 import java.util.Set;
+import java.util.UUID;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 
@@ -43,6 +48,7 @@ public class MessagesCache implements Managed {
   private static final Timer          insertTimer       = metricRegistry.timer(name(MessagesCache.class, "insert"      ));
   private static final Timer          removeByIdTimer   = metricRegistry.timer(name(MessagesCache.class, "removeById"  ));
   private static final Timer          removeByNameTimer = metricRegistry.timer(name(MessagesCache.class, "removeByName"));
+  private static final Timer          removeBatchTimer  = metricRegistry.timer(name(MessagesCache.class, "removeBatch" ));
   private static final Timer          getTimer          = metricRegistry.timer(name(MessagesCache.class, "get"         ));
   private static final Timer          clearAccountTimer = metricRegistry.timer(name(MessagesCache.class, "clearAccount"));
   private static final Timer          clearDeviceTimer  = metricRegistry.timer(name(MessagesCache.class, "clearDevice" ));
@@ -51,20 +57,33 @@ public class MessagesCache implements Managed {
   private final Messages            database;
   private final AccountsManager     accountsManager;
   private final int                 delayMinutes;
+  private final boolean             persistBatch;
+  private final int                 persistWorkers;
+  private final int                 indexBuckets;
 
-  private InsertOperation  insertOperation;
-  private RemoveOperation  removeOperation;
-  private GetOperation     getOperation;
+  private InsertOperation         insertOperation;
+  private RemoveOperation         removeOperation;
+  private GetOperation            getOperation;
+  private PersistedCountOperation persistedCountOperation;
 
-  private PubSubManager    pubSubManager;
-  private PushSender       pushSender;
-  private MessagePersister messagePersister;
+  private PubSubManager          pubSubManager;
+  private PushSender             pushSender;
+  private List<MessagePersister> messagePersisters;
 
-  public MessagesCache(ReplicatedJedisPool jedisPool, Messages database, AccountsManager accountsManager, int delayMinutes) {
+  public MessagesCache(ReplicatedJedisPool jedisPool, Messages database, AccountsManager accountsManager, MessageCacheConfiguration configuration) {
     this.jedisPool       = jedisPool;
     this.database        = database;
     this.accountsManager = accountsManager;
-    this.delayMinutes    = delayMinutes;
+    this.delayMinutes    = configuration.getPersistDelayMinutes();
+    this.persistBatch    = configuration.isPersistBatch();
+    this.persistWorkers  = configuration.getPersistWorkers();
+    this.indexBuckets    = configuration.getPersistIndexBuckets();
+
+    for (int bucket = 0; bucket < indexBuckets; bucket++) {
+      final byte[] index = Key.getUserMessageQueueIndexForBucket(bucket);
+      metricRegistry.register(name(MessagesCache.class, "persistLag", String.valueOf(bucket)),
+                              (Gauge<Long>) () -> getOperation != null ? getOperation.getIndexLag(index) : 0L);
+    }
   }
 
   public void insert(String destination, long destinationDevice, Envelope message) {
@@ -87,6 +106,40 @@ public class MessagesCache implements Managed {
     }
   }
 
+  public void remove(String destination, long destinationDevice, List<Long> ids) {
+    if (ids.isEmpty()) return;
+
+    Timer.Context timer = removeBatchTimer.time();
+
+    try {
+      removeOperation.remove(destination, destinationDevice, ids);
+    } finally {
+      timer.stop();
+    }
+  }
+
+  public List<OutgoingMessageEntity> removeBySender(String destination, long destinationDevice, List<Pair<String, Long>> senders) {
+    List<OutgoingMessageEntity> results = new LinkedList<>();
+
+    if (senders.isEmpty()) return results;
+
+    Timer.Context timer = removeBatchTimer.time();
+
+    try {
+      for (byte[] serialized : removeOperation.removeBySender(destination, destinationDevice, senders)) {
+        try {
+          results.add(constructEntityFromEnvelope(0, Envelope.parseFrom(serialized)));
+        } catch (InvalidProtocolBufferException e) {
+          logger.warn("Failed to parse envelope", e);
+        }
+      }
+
+      return results;
+    } finally {
+      timer.stop();
+    }
+  }
+
   public Optional<OutgoingMessageEntity> remove(String destination, long destinationDevice, String sender, long timestamp) {
     Timer.Context timer = removeByNameTimer.time();
 
@@ -106,19 +159,19 @@ public class MessagesCache implements Managed {
     return Optional.absent();
   }
 
-  public List<OutgoingMessageEntity> get(String destination, long destinationDevice, int limit) {
+  public List<OutgoingMessageEntity> get(String destination, long destinationDevice, long afterId, int limit) {
     Timer.Context timer = getTimer.time();
 
     try {
       List<OutgoingMessageEntity> results = new LinkedList<>();
       Key                         key     = new Key(destination, destinationDevice);
-      List<Pair<byte[], Double>>  items   = getOperation.getItems(key.getUserMessageQueue(), key.getUserMessageQueuePersistInProgress(), limit);
+      List<Pair<byte[], Double>>  items   = getOperation.getItems(key.getUserMessageQueue(), key.getUserMessageQueuePersistInProgress(), afterId, limit);
 
       for (Pair<byte[], Double> item : items) {
         try {
           long     id      = item.second().longValue();
           Envelope message = Envelope.parseFrom(item.first());
-          results.add(constructEntityFromEnvelope(id, message));
+          results.add(constructEntityFromEnvelope(id, message, item.first()));
         } catch (InvalidProtocolBufferException e) {
           logger.warn("Failed to parse envelope", e);
         }
@@ -134,9 +187,7 @@ public class MessagesCache implements Managed {
     Timer.Context timer = clearAccountTimer.time();
 
     try {
-      for (int i = 1; i < 255; i++) {
-        clear(destination, i);
-      }
+      removeOperation.clear(destination);
     } finally {
       timer.stop();
     }
@@ -152,6 +203,18 @@ public class MessagesCache implements Managed {
     }
   }
 
+  public Optional<Long> getPersistedCount(String destination, long destinationDevice) {
+    return persistedCountOperation.get(destination, destinationDevice);
+  }
+
+  public void decrementPersistedCount(String destination, long destinationDevice, int amount) {
+    persistedCountOperation.decrement(destination, destinationDevice, amount);
+  }
+
+  public void resetPersistedCount(String destination, long destinationDevice, Optional<Long> observed) {
+    persistedCountOperation.reset(destination, destinationDevice, observed);
+  }
+
   public void setPubSubManager(PubSubManager pubSubManager, PushSender pushSender) {
     this.pubSubManager = pubSubManager;
     this.pushSender    = pushSender;
@@ -159,21 +222,39 @@ public class MessagesCache implements Managed {
 
   @Override
   public void start() throws Exception {
-    this.insertOperation  = new InsertOperation(jedisPool);
-    this.removeOperation  = new RemoveOperation(jedisPool);
-    this.getOperation     = new GetOperation(jedisPool);
-    this.messagePersister = new MessagePersister(jedisPool, database, pubSubManager, pushSender, accountsManager, delayMinutes, TimeUnit.MINUTES);
+    this.insertOperation         = new InsertOperation(jedisPool, indexBuckets);
+    this.removeOperation         = new RemoveOperation(jedisPool, indexBuckets);
+    this.getOperation            = new GetOperation(jedisPool);
+    this.persistedCountOperation = new PersistedCountOperation(jedisPool);
+    this.messagePersisters       = new LinkedList<>();
+
+    for (int i = 0; i < persistWorkers; i++) {
+      messagePersisters.add(new MessagePersister(jedisPool, database, pubSubManager, pushSender, accountsManager, delayMinutes, TimeUnit.MINUTES, persistBatch, indexBuckets, i));
+    }
 
-    this.messagePersister.start();
+    for (MessagePersister messagePersister : messagePersisters) {
+      messagePersister.start();
+    }
   }
 
   @Override
   public void stop() throws Exception {
-    messagePersister.shutdown();
-    logger.info("Message persister shut down...");
+    for (MessagePersister messagePersister : messagePersisters) {
+      messagePersister.halt();
+    }
+
+    for (MessagePersister messagePersister : messagePersisters) {
+      messagePersister.shutdown();
+    }
+
+    logger.info("Message persisters shut down...");
   }
 
   private OutgoingMessageEntity constructEntityFromEnvelope(long id, Envelope envelope) {
+    return constructEntityFromEnvelope(id, envelope, null);
+  }
+
+  private OutgoingMessageEntity constructEntityFromEnvelope(long id, Envelope envelope, byte[] serialized) {
     return new OutgoingMessageEntity(id, true,
                                      envelope.getType().getNumber(),
                                      envelope.getRelay(),
@@ -181,7 +262,8 @@ public class MessagesCache implements Managed {
                                      envelope.getSource(),
                                      envelope.getSourceDevice(),
                                      envelope.hasLegacyMessage() ? envelope.getLegacyMessage().toByteArray() : null,
-                                     envelope.hasContent() ? envelope.getContent().toByteArray() : null);
+                                     envelope.hasContent() ? envelope.getContent().toByteArray() : null,
+                                     serialized);
   }
 
   private static class Key {
@@ -189,6 +271,7 @@ public class MessagesCache implements Managed {
     private final byte[] userMessageQueue;
     private final byte[] userMessageQueueMetadata;
     private final byte[] userMessageQueuePersistInProgress;
+    private final byte[] userMessageQueuePersistedCount;
 
     private final String address;
     private final long   deviceId;
@@ -199,6 +282,7 @@ public class MessagesCache implements Managed {
       this.userMessageQueue                  = ("user_queue::" + address + "::" + deviceId).getBytes();
       this.userMessageQueueMetadata          = ("user_queue_metadata::" + address + "::" + deviceId).getBytes();
       this.userMessageQueuePersistInProgress = ("user_queue_persisting::" + address + "::" + deviceId).getBytes();
+      this.userMessageQueuePersistedCount    = ("user_queue_persisted::" + address + "::" + deviceId).getBytes();
     }
 
     String getAddress() {
@@ -221,8 +305,34 @@ public class MessagesCache implements Managed {
       return userMessageQueuePersistInProgress;
     }
 
-    static byte[] getUserMessageQueueIndex() {
-      return "user_queue_index".getBytes();
+    byte[] getUserMessageQueuePersistedCount() {
+      return userMessageQueuePersistedCount;
+    }
+
+    byte[] getAccountDevices() {
+      return getAccountDevices(address);
+    }
+
+    byte[] getUserMessageQueueIndex(int bucketCount) {
+      return getUserMessageQueueIndexForBucket(getIndexBucket(bucketCount));
+    }
+
+    int getIndexBucket(int bucketCount) {
+      return ((address + "::" + deviceId).hashCode() & 0x7fffffff) % bucketCount;
+    }
+
+    // Bucket 0 keeps the original unsharded key so queues indexed before sharding are still drained.
+    static byte[] getUserMessageQueueIndexForBucket(int bucket) {
+      if (bucket == 0) return "user_queue_index".getBytes();
+      else             return ("user_queue_index::" + bucket).getBytes();
+    }
+
+    static byte[] getAccountDevices(String address) {
+      return ("user_queue_devices::" + address).getBytes();
+    }
+
+    static byte[] getUserMessageQueueIndexLease(int bucket) {
+      return ("user_queue_index_lease::" + bucket).getBytes();
     }
 
     static Key fromUserMessageQueue(byte[] userMessageQueue) throws IOException {
@@ -242,17 +352,19 @@ public class MessagesCache implements Managed {
 
   private static class InsertOperation {
     private final LuaScript insert;
+    private final int       indexBuckets;
 
-    InsertOperation(ReplicatedJedisPool jedisPool) throws IOException {
-      this.insert = LuaScript.fromResource(jedisPool, "lua/insert_item.lua");
+    InsertOperation(ReplicatedJedisPool jedisPool, int indexBuckets) throws IOException {
+      this.insert       = LuaScript.fromResource(jedisPool, "lua/insert_item_registered.lua");
+      this.indexBuckets = indexBuckets;
     }
 
     public void insert(String destination, long destinationDevice, long timestamp, Envelope message) {
       Key    key    = new Key(destination, destinationDevice);
       String sender = message.getSource() + "::" + message.getTimestamp();
 
-      List<byte[]> keys = Arrays.asList(key.getUserMessageQueue(), key.getUserMessageQueueMetadata(), Key.getUserMessageQueueIndex());
-      List<byte[]> args = Arrays.asList(message.toByteArray(), String.valueOf(timestamp).getBytes(), sender.getBytes());
+      List<byte[]> keys = Arrays.asList(key.getUserMessageQueue(), key.getUserMessageQueueMetadata(), key.getUserMessageQueueIndex(indexBuckets), key.getAccountDevices());
+      List<byte[]> args = Arrays.asList(message.toByteArray(), String.valueOf(timestamp).getBytes(), sender.getBytes(), String.valueOf(destinationDevice).getBytes());
 
       insert.execute(keys, args);
     }
@@ -260,53 +372,131 @@ public class MessagesCache implements Managed {
 
   private static class RemoveOperation {
 
-    private final LuaScript removeById;
-    private final LuaScript removeBySender;
-    private final LuaScript removeQueue;
-
-    RemoveOperation(ReplicatedJedisPool jedisPool) throws IOException {
-      this.removeById     = LuaScript.fromResource(jedisPool, "lua/remove_item_by_id.lua"    );
-      this.removeBySender = LuaScript.fromResource(jedisPool, "lua/remove_item_by_sender.lua");
-      this.removeQueue    = LuaScript.fromResource(jedisPool, "lua/remove_queue.lua"         );
+    private final ReplicatedJedisPool jedisPool;
+    private final LuaScript           removeById;
+    private final LuaScript           removeByIds;
+    private final LuaScript           removeBySender;
+    private final LuaScript           removeBySenders;
+    private final LuaScript           removeAccountQueues;
+    private final int                 indexBuckets;
+
+    RemoveOperation(ReplicatedJedisPool jedisPool, int indexBuckets) throws IOException {
+      this.jedisPool           = jedisPool;
+      this.removeById          = LuaScript.fromResource(jedisPool, "lua/remove_item_by_id.lua"    );
+      this.removeByIds         = LuaScript.fromResource(jedisPool, "lua/remove_items_by_id.lua"   );
+      this.removeBySender      = LuaScript.fromResource(jedisPool, "lua/remove_item_by_sender.lua");
+      this.removeBySenders     = LuaScript.fromResource(jedisPool, "lua/remove_items_by_sender.lua");
+      this.removeAccountQueues = LuaScript.fromResource(jedisPool, "lua/remove_account_queues.lua");
+      this.indexBuckets        = indexBuckets;
     }
 
     public void remove(String destination, long destinationDevice, long id) {
       Key key = new Key(destination, destinationDevice);
 
-      List<byte[]> keys = Arrays.asList(key.getUserMessageQueue(), key.getUserMessageQueueMetadata(), Key.getUserMessageQueueIndex());
+      List<byte[]> keys = Arrays.asList(key.getUserMessageQueue(), key.getUserMessageQueueMetadata(), key.getUserMessageQueueIndex(indexBuckets));
       List<byte[]> args = Collections.singletonList(String.valueOf(id).getBytes());
 
       this.removeById.execute(keys, args);
     }
 
+    public void remove(String destination, long destinationDevice, List<Long> ids) {
+      Key key = new Key(destination, destinationDevice);
+
+      List<byte[]> keys = Arrays.asList(key.getUserMessageQueue(), key.getUserMessageQueueMetadata(), key.getUserMessageQueueIndex(indexBuckets));
+      List<byte[]> args = new LinkedList<>();
+
+      for (long id : ids) {
+        args.add(String.valueOf(id).getBytes());
+      }
+
+      this.removeByIds.execute(keys, args);
+    }
+
     public byte[] remove(String destination, long destinationDevice, String sender, long timestamp) {
       Key    key       = new Key(destination, destinationDevice);
       String senderKey = sender + "::" + timestamp;
 
-      List<byte[]> keys = Arrays.asList(key.getUserMessageQueue(), key.getUserMessageQueueMetadata(), Key.getUserMessageQueueIndex());
+      List<byte[]> keys = Arrays.asList(key.getUserMessageQueue(), key.getUserMessageQueueMetadata(), key.getUserMessageQueueIndex(indexBuckets));
       List<byte[]> args = Collections.singletonList(senderKey.getBytes());
 
       return (byte[])this.removeBySender.execute(keys, args);
     }
 
+    public List<byte[]> removeBySender(String destination, long destinationDevice, List<Pair<String, Long>> senders) {
+      Key key = new Key(destination, destinationDevice);
+
+      List<byte[]> keys = Arrays.asList(key.getUserMessageQueue(), key.getUserMessageQueueMetadata(), key.getUserMessageQueueIndex(indexBuckets));
+      List<byte[]> args = new LinkedList<>();
+
+      for (Pair<String, Long> sender : senders) {
+        args.add((sender.first() + "::" + sender.second()).getBytes());
+      }
+
+      return (List<byte[]>)this.removeBySenders.execute(keys, args);
+    }
+
     public void clear(String destination, long deviceId) {
       Key key = new Key(destination, deviceId);
 
-      List<byte[]> keys = Arrays.asList(key.getUserMessageQueue(), key.getUserMessageQueueMetadata(), Key.getUserMessageQueueIndex());
+      List<byte[]> keys = Arrays.asList(key.getAccountDevices(), key.getUserMessageQueue(), key.getUserMessageQueueMetadata(),
+                                        key.getUserMessageQueuePersistedCount(), key.getUserMessageQueueIndex(indexBuckets));
+      List<byte[]> args = Collections.singletonList(String.valueOf(deviceId).getBytes());
+
+      this.removeAccountQueues.execute(keys, args);
+    }
+
+    // Only registered queues are cleared; queues written before the registry existed are
+    // persisted to the database within the persist delay and cleared there
+    public void clear(String destination) {
+      byte[]      accountDevices = Key.getAccountDevices(destination);
+      Set<byte[]> devices;
+
+      try (Jedis jedis = jedisPool.getWriteResource()) {
+        devices = jedis.smembers(accountDevices);
+      }
+
+      if (devices == null || devices.isEmpty()) {
+        return;
+      }
+
+      List<byte[]> keys = new LinkedList<>();
       List<byte[]> args = new LinkedList<>();
 
-      this.removeQueue.execute(keys, args);
+      keys.add(accountDevices);
+
+      for (byte[] device : devices) {
+        Key key = new Key(destination, Long.parseLong(SafeEncoder.encode(device)));
+
+        keys.add(key.getUserMessageQueue());
+        keys.add(key.getUserMessageQueueMetadata());
+        keys.add(key.getUserMessageQueuePersistedCount());
+        keys.add(key.getUserMessageQueueIndex(indexBuckets));
+        args.add(device);
+      }
+
+      this.removeAccountQueues.execute(keys, args);
     }
   }
 
   private static class GetOperation {
 
-    private final LuaScript getQueues;
-    private final LuaScript getItems;
+    private final ReplicatedJedisPool jedisPool;
+    private final LuaScript           getQueues;
+    private final LuaScript           getItems;
 
     GetOperation(ReplicatedJedisPool jedisPool) throws IOException {
+      this.jedisPool = jedisPool;
       this.getQueues = LuaScript.fromResource(jedisPool, "lua/get_queues_to_persist.lua");
-      this.getItems  = LuaScript.fromResource(jedisPool, "lua/get_items.lua");
+      this.getItems  = LuaScript.fromResource(jedisPool, "lua/get_items_after.lua");
+    }
+
+    long getIndexLag(byte[] index) {
+      try (Jedis jedis = jedisPool.getReadResource()) {
+        Set<Tuple> oldest = jedis.zrangeWithScores(index, 0, 0);
+
+        if (oldest.isEmpty()) return 0;
+        else                  return System.currentTimeMillis() - (long)oldest.iterator().next().getScore();
+      }
     }
 
     List<byte[]> getQueues(byte[] queue, long maxTimeMillis, int limit) {
@@ -316,9 +506,9 @@ public class MessagesCache implements Managed {
       return (List<byte[]>)getQueues.execute(keys, args);
     }
 
-    List<Pair<byte[], Double>> getItems(byte[] queue, byte[] lock, int limit) {
+    List<Pair<byte[], Double>> getItems(byte[] queue, byte[] lock, long afterId, int limit) {
       List<byte[]> keys = Arrays.asList(queue, lock);
-      List<byte[]> args = Collections.singletonList(String.valueOf(limit).getBytes());
+      List<byte[]> args = Arrays.asList(String.valueOf(afterId).getBytes(), String.valueOf(limit).getBytes());
 
       Iterator<byte[]>           results = ((List<byte[]>) getItems.execute(keys, args)).iterator();
       List<Pair<byte[], Double>> items   = new LinkedList<>();
@@ -331,6 +521,82 @@ public class MessagesCache implements Managed {
     }
   }
 
+  // An absent count means unknown (e.g. rows persisted before the count existed), so callers must still read the database.
+  private static class PersistedCountOperation {
+
+    private final ReplicatedJedisPool jedisPool;
+    private final LuaScript           decrement;
+    private final LuaScript           reset;
+
+    PersistedCountOperation(ReplicatedJedisPool jedisPool) throws IOException {
+      this.jedisPool = jedisPool;
+      this.decrement = LuaScript.fromResource(jedisPool, "lua/decrement_persisted_count.lua");
+      this.reset     = LuaScript.fromResource(jedisPool, "lua/reset_persisted_count.lua"    );
+    }
+
+    Optional<Long> get(String destination, long destinationDevice) {
+      try (Jedis jedis = jedisPool.getWriteResource()) {
+        byte[] count = jedis.get(new Key(destination, destinationDevice).getUserMessageQueuePersistedCount());
+
+        if (count == null) return Optional.absent();
+        else               return Optional.of(Long.parseLong(SafeEncoder.encode(count)));
+      }
+    }
+
+    void increment(String destination, long destinationDevice, int amount) {
+      try (Jedis jedis = jedisPool.getWriteResource()) {
+        jedis.incrBy(new Key(destination, destinationDevice).getUserMessageQueuePersistedCount(), amount);
+      }
+    }
+
+    void decrement(String destination, long destinationDevice, int amount) {
+      List<byte[]> keys = Collections.singletonList(new Key(destination, destinationDevice).getUserMessageQueuePersistedCount());
+      List<byte[]> args = Collections.singletonList(String.valueOf(amount).getBytes());
+
+      decrement.execute(keys, args);
+    }
+
+    void reset(String destination, long destinationDevice, Optional<Long> observed) {
+      List<byte[]> keys = Collections.singletonList(new Key(destination, destinationDevice).getUserMessageQueuePersistedCount());
+      List<byte[]> args = Collections.singletonList(observed.isPresent() ? String.valueOf(observed.get()).getBytes() : new byte[0]);
+
+      reset.execute(keys, args);
+    }
+  }
+
+  private static class LeaseOperation {
+
+    private final ReplicatedJedisPool jedisPool;
+    private final LuaScript           renew;
+    private final LuaScript           release;
+
+    LeaseOperation(ReplicatedJedisPool jedisPool) throws IOException {
+      this.jedisPool = jedisPool;
+      this.renew     = LuaScript.fromResource(jedisPool, "lua/renew_lease.lua"  );
+      this.release   = LuaScript.fromResource(jedisPool, "lua/release_lease.lua");
+    }
+
+    boolean acquire(byte[] lease, String owner, long leaseMillis) {
+      try (Jedis jedis = jedisPool.getWriteResource()) {
+        return "OK".equals(jedis.set(lease, owner.getBytes(), "NX".getBytes(), "PX".getBytes(), leaseMillis));
+      }
+    }
+
+    boolean renew(byte[] lease, String owner, long leaseMillis) {
+      List<byte[]> keys = Collections.singletonList(lease);
+      List<byte[]> args = Arrays.asList(owner.getBytes(), String.valueOf(leaseMillis).getBytes());
+
+      return ((long)renew.execute(keys, args)) > 0;
+    }
+
+    void release(byte[] lease, String owner) {
+      List<byte[]> keys = Collections.singletonList(lease);
+      List<byte[]> args = Collections.singletonList(owner.getBytes());
+
+      release.execute(keys, args);
+    }
+  }
+
   private static class MessagePersister extends Thread {
 
     private static final Logger         logger              = LoggerFactory.getLogger(MessagePersister.class);
@@ -341,7 +607,8 @@ public class MessagesCache implements Managed {
     private static final Histogram      queueSizeHistogram  = metricRegistry.histogram(name(MessagesCache.class, "persistQueueSize" ));
     private static final Histogram      queueCountHistogram = metricRegistry.histogram(name(MessagesCache.class, "persistQueueCount"));
 
-    private static final int CHUNK_SIZE = 100;
+    private static final int  CHUNK_SIZE   = 100;
+    private static final long LEASE_MILLIS = TimeUnit.SECONDS.toMillis(60);
 
     private final AtomicBoolean running = new AtomicBoolean(true);
 
@@ -349,13 +616,19 @@ public class MessagesCache implements Managed {
     private final Messages            database;
     private final long                delayTime;
     private final TimeUnit            delayTimeUnit;
+    private final boolean             persistBatch;
+    private final int                 indexBuckets;
+    private final String              workerId;
+    private final Random              random = new Random();
 
     private final PubSubManager   pubSubManager;
     private final PushSender      pushSender;
     private final AccountsManager accountsManager;
 
-    private final GetOperation    getOperation;
-    private final RemoveOperation removeOperation;
+    private final GetOperation            getOperation;
+    private final RemoveOperation         removeOperation;
+    private final LeaseOperation          leaseOperation;
+    private final PersistedCountOperation persistedCountOperation;
 
     private boolean finished = false;
 
@@ -365,10 +638,13 @@ public class MessagesCache implements Managed {
                      PushSender          pushSender,
                      AccountsManager     accountsManager,
                      long                delayTime,
-                     TimeUnit            delayTimeUnit)
+                     TimeUnit            delayTimeUnit,
+                     boolean             persistBatch,
+                     int                 indexBuckets,
+                     int                 workerIndex)
         throws IOException
     {
-      super(MessagePersister.class.getSimpleName());
+      super(MessagePersister.class.getSimpleName() + "-" + workerIndex);
       this.jedisPool = jedisPool;
       this.database  = database;
 
@@ -378,25 +654,39 @@ public class MessagesCache implements Managed {
 
       this.delayTime       = delayTime;
       this.delayTimeUnit   = delayTimeUnit;
+      this.persistBatch    = persistBatch;
+      this.indexBuckets    = indexBuckets;
+      this.workerId        = UUID.randomUUID().toString();
       this.getOperation    = new GetOperation(jedisPool);
-      this.removeOperation = new RemoveOperation(jedisPool);
+      this.removeOperation = new RemoveOperation(jedisPool, indexBuckets);
+      this.leaseOperation  = new LeaseOperation(jedisPool);
+
+      this.persistedCountOperation = new PersistedCountOperation(jedisPool);
     }
 
     @Override
     public void run() {
       while (running.get()) {
         try {
-          List<byte[]> queuesToPersist = getQueuesToPersist(getOperation);
-          queueCountHistogram.update(queuesToPersist.size());
+          boolean persisted = false;
+          int     offset    = random.nextInt(indexBuckets);
+
+          for (int i = 0; i < indexBuckets && running.get(); i++) {
+            int    bucket = (offset + i) % indexBuckets;
+            byte[] lease  = Key.getUserMessageQueueIndexLease(bucket);
 
-          for (byte[] queue : queuesToPersist) {
-            Key key = Key.fromUserMessageQueue(queue);
+            if (!leaseOperation.acquire(lease, workerId, LEASE_MILLIS)) {
+              continue;
+            }
 
-            persistQueue(jedisPool, key);
-            notifyClients(accountsManager, pubSubManager, pushSender, key);
+            try {
+              persisted |= persistBucket(bucket, lease);
+            } finally {
+              leaseOperation.release(lease, workerId);
+            }
           }
 
-          if (queuesToPersist.isEmpty()) {
+          if (!persisted) {
             Thread.sleep(10000);
           }
         } catch (Throwable t) {
@@ -410,11 +700,34 @@ public class MessagesCache implements Managed {
       }
     }
 
+    void halt() {
+      running.set(false);
+    }
+
     synchronized void shutdown() {
       running.set(false);
       while (!finished) Util.wait(this);
     }
 
+    private boolean persistBucket(int bucket, byte[] lease) throws IOException {
+      List<byte[]> queuesToPersist = getQueuesToPersist(getOperation, bucket);
+      queueCountHistogram.update(queuesToPersist.size());
+
+      for (byte[] queue : queuesToPersist) {
+        Key key = Key.fromUserMessageQueue(queue);
+
+        persistQueue(jedisPool, key);
+        notifyClients(accountsManager, pubSubManager, pushSender, key);
+
+        if (!leaseOperation.renew(lease, workerId, LEASE_MILLIS)) {
+          logger.warn("Lost lease on queue index bucket " + bucket);
+          break;
+        }
+      }
+
+      return !queuesToPersist.isEmpty();
+    }
+
     private void persistQueue(ReplicatedJedisPool jedisPool, Key key) throws IOException {
       Timer.Context timer = persistQueueTimer.time();
 
@@ -426,9 +739,14 @@ public class MessagesCache implements Managed {
 
           Set<Tuple> messages = jedis.zrangeWithScores(key.getUserMessageQueue(), 0, CHUNK_SIZE);
 
-          for (Tuple message : messages) {
-            persistMessage(key, (long)message.getScore(), message.getBinaryElement());
-            messagesPersistedCount++;
+          if (persistBatch) {
+            persistMessages(key, messages);
+            messagesPersistedCount += messages.size();
+          } else {
+            for (Tuple message : messages) {
+              persistMessage(key, (long)message.getScore(), message.getBinaryElement());
+              messagesPersistedCount++;
+            }
           }
 
           if (messages.size() < CHUNK_SIZE) {
@@ -445,8 +763,8 @@ public class MessagesCache implements Managed {
     private void persistMessage(Key key, long score, byte[] message) {
       try {
         Envelope envelope = Envelope.parseFrom(message);
+        persistedCountOperation.increment(key.getAddress(), key.getDeviceId(), 1);
         database.store(envelope, key.getAddress(), key.getDeviceId());
-
       } catch (InvalidProtocolBufferException e) {
         logger.error("Error parsing envelope", e);
       }
@@ -454,11 +772,36 @@ public class MessagesCache implements Managed {
       removeOperation.remove(key.getAddress(), key.getDeviceId(), score);
     }
 
-    private List<byte[]> getQueuesToPersist(GetOperation getOperation) {
+    private void persistMessages(Key key, Set<Tuple> messages) {
+      if (messages.isEmpty()) return;
+
+      List<Envelope> envelopes = new ArrayList<>(messages.size());
+      List<Long>     ids       = new ArrayList<>(messages.size());
+
+      for (Tuple message : messages) {
+        try {
+          envelopes.add(Envelope.parseFrom(message.getBinaryElement()));
+        } catch (InvalidProtocolBufferException e) {
+          logger.error("Error parsing envelope", e);
+        }
+
+        ids.add((long)message.getScore());
+      }
+
+      if (!envelopes.isEmpty()) {
+        // Over-counting only costs an extra database read, under-counting hides stored messages.
+        persistedCountOperation.increment(key.getAddress(), key.getDeviceId(), envelopes.size());
+        database.store(envelopes, key.getAddress(), key.getDeviceId());
+      }
+
+      removeOperation.remove(key.getAddress(), key.getDeviceId(), ids);
+    }
+
+    private List<byte[]> getQueuesToPersist(GetOperation getOperation, int bucket) {
       Timer.Context timer = getQueuesTimer.time();
       try {
         long maxTime = System.currentTimeMillis() - delayTimeUnit.toMillis(delayTime);
-        return getOperation.getQueues(Key.getUserMessageQueueIndex(), maxTime, 100);
+        return getOperation.getQueues(Key.getUserMessageQueueIndexForBucket(bucket), maxTime, 100);
       } finally {
         timer.stop();
       }
@@ -9,8 +9,12 @@ import com.openchat.secureim.entities.MessageProtos.Envelope;
 import com.openchat.secureim.entities.OutgoingMessageEntity;
 import com.openchat.secureim.entities.OutgoingMessageEntityList;
 import com.openchat.secureim.util.Constants;
+import com.openchat.secureim.util.Pair;
 
+import java.util.LinkedHashSet;
+import java.util.LinkedList;
 import java.util.List;
+import java.util.Set;
 
 import static com.codahale.metrics.MetricRegistry.name;
 
@@ -21,6 +25,8 @@ public class MessagesManager {
   private static final Meter          cacheMissByIdMeter   = metricRegistry.meter(name(MessagesManager.class, "cacheMissById"  ));
   private static final Meter          cacheHitByNameMeter  = metricRegistry.meter(name(MessagesManager.class, "cacheHitByName" ));
   private static final Meter          cacheMissByNameMeter = metricRegistry.meter(name(MessagesManager.class, "cacheMissByName"));
+  private static final Meter          persistedHitMeter    = metricRegistry.meter(name(MessagesManager.class, "persistedHit"   ));
+  private static final Meter          persistedSkipMeter   = metricRegistry.meter(name(MessagesManager.class, "persistedSkip"  ));
 
   private final Messages      messages;
   private final MessagesCache messagesCache;
@@ -34,14 +40,28 @@ public class MessagesManager {
     messagesCache.insert(destination, destinationDevice, message);
   }
 
-  public OutgoingMessageEntityList getMessagesForDevice(String destination, long destinationDevice) {
-    List<OutgoingMessageEntity> messages = this.messages.load(destination, destinationDevice);
+  public OutgoingMessageEntityList getMessagesForDevice(String destination, long destinationDevice, Optional<MessageCursor> cursor) {
+    MessageCursor               position       = cursor.or(MessageCursor.start());
+    Optional<Long>              persistedCount = this.messagesCache.getPersistedCount(destination, destinationDevice);
+    List<OutgoingMessageEntity> messages;
 
-    if (messages.size() <= Messages.RESULT_SET_CHUNK_SIZE) {
-      messages.addAll(this.messagesCache.get(destination, destinationDevice, Messages.RESULT_SET_CHUNK_SIZE - messages.size()));
+    if (persistedCount.isPresent() && persistedCount.get() <= 0) {
+      messages = new LinkedList<>();
+      persistedSkipMeter.mark();
+    } else {
+      messages = this.messages.load(destination, destinationDevice, position.getId());
+      persistedHitMeter.mark();
+
+      if (messages.isEmpty() && !cursor.isPresent()) {
+        this.messagesCache.resetPersistedCount(destination, destinationDevice, persistedCount);
+      }
     }
 
-    return new OutgoingMessageEntityList(messages, messages.size() >= Messages.RESULT_SET_CHUNK_SIZE);
+    if (messages.size() < Messages.RESULT_SET_CHUNK_SIZE) {
+      messages.addAll(this.messagesCache.get(destination, destinationDevice, position.getCacheId(), Messages.RESULT_SET_CHUNK_SIZE - messages.size()));
+    }
+
+    return new OutgoingMessageEntityList(messages, messages.size() >= Messages.RESULT_SET_CHUNK_SIZE, position.advance(messages).serialize());
   }
 
   public void clear(String destination) {
@@ -61,6 +81,10 @@ public class MessagesManager {
     if (!removed.isPresent()) {
       removed = Optional.fromNullable(this.messages.remove(destination, destinationDevice, source, timestamp));
       cacheMissByNameMeter.mark();
+
+      if (removed.isPresent()) {
+        this.messagesCache.decrementPersistedCount(destination, destinationDevice, 1);
+      }
     } else {
       cacheHitByNameMeter.mark();
     }
@@ -68,13 +92,41 @@ public class MessagesManager {
     return removed;
   }
 
-  public void delete(String destination, long deviceId, long id, boolean cached) {
-    if (cached) {
-      this.messagesCache.remove(destination, deviceId, id);
-      cacheHitByIdMeter.mark();
-    } else {
-      this.messages.remove(destination, id);
-      cacheMissByIdMeter.mark();
+  public List<OutgoingMessageEntity> delete(String destination, long destinationDevice, List<Pair<String, Long>> messages) {
+    List<OutgoingMessageEntity> removed   = this.messagesCache.removeBySender(destination, destinationDevice, messages);
+    Set<Pair<String, Long>>     remaining = new LinkedHashSet<>(messages);
+
+    for (OutgoingMessageEntity entity : removed) {
+      remaining.remove(new Pair<>(entity.getSource(), entity.getTimestamp()));
+    }
+
+    cacheHitByNameMeter.mark(removed.size());
+
+    if (!remaining.isEmpty()) {
+      List<OutgoingMessageEntity> persisted = this.messages.remove(destination, destinationDevice, new LinkedList<>(remaining));
+      cacheMissByNameMeter.mark(remaining.size());
+
+      if (!persisted.isEmpty()) {
+        this.messagesCache.decrementPersistedCount(destination, destinationDevice, persisted.size());
+      }
+
+      removed.addAll(persisted);
+    }
+
+    return removed;
+  }
+
+  public void delete(String destination, long deviceId, List<Long> cachedIds, List<Long> persistedIds) {
+    this.messagesCache.remove(destination, deviceId, cachedIds);
+    cacheHitByIdMeter.mark(cachedIds.size());
+
+    if (!persistedIds.isEmpty()) {
+      int removed = this.messages.remove(destination, persistedIds);
+      cacheMissByIdMeter.mark(persistedIds.size());
+
+      if (removed > 0) {
+        this.messagesCache.decrementPersistedCount(destination, deviceId, removed);
+      }
     }
   }
 
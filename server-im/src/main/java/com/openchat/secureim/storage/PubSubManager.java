@@ -1,37 +1,69 @@
 package com.openchat.secureim.storage;
 
+import com.google.common.base.Optional;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import com.openchat.dispatch.DispatchChannel;
 import com.openchat.dispatch.DispatchManager;
+import com.openchat.secureim.presence.NodeRouter;
 import com.openchat.secureim.redis.ReplicatedJedisPool;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
 import io.dropwizard.lifecycle.Managed;
 import static com.openchat.secureim.storage.PubSubProtos.PubSubMessage;
-import redis.clients.jedis.Jedis;
+import redis.clients.jedis.exceptions.JedisException;
 
 public class PubSubManager implements Managed {
 
-  private static final String KEEPALIVE_CHANNEL = "KEEPALIVE";
+  private static final String KEEPALIVE_CHANNEL            = "KEEPALIVE";
+  private static final int    DEFAULT_PUBLISHER_CONNECTIONS = 2;
+  private static final int    DEFAULT_PUBLISHER_BATCH_SIZE  = 128;
+  private static final int    PUBLISHER_QUEUE_SIZE          = 10000;
+  private static final long   PUBLISH_TIMEOUT_MILLIS        = 5000;
 
   private final Logger logger = LoggerFactory.getLogger(PubSubManager.class);
 
-  private final DispatchManager     dispatchManager;
-  private final ReplicatedJedisPool jedisPool;
+  private final DispatchManager       dispatchManager;
+  private final List<PubSubPublisher> publishers;
+  private final Optional<NodeRouter>  nodeRouter;
 
   private boolean subscribed = false;
 
   public PubSubManager(ReplicatedJedisPool jedisPool, DispatchManager dispatchManager) {
+    this(Collections.singletonList(jedisPool), dispatchManager, DEFAULT_PUBLISHER_CONNECTIONS, DEFAULT_PUBLISHER_BATCH_SIZE, Optional.absent());
+  }
+
+  public PubSubManager(List<ReplicatedJedisPool> jedisPools, DispatchManager dispatchManager,
+                       int publisherConnections, int publisherBatchSize,
+                       Optional<NodeRouter> nodeRouter)
+  {
     this.dispatchManager = dispatchManager;
-    this.jedisPool       = jedisPool;
+    this.publishers      = new ArrayList<>(jedisPools.size());
+    this.nodeRouter      = nodeRouter;
+
+    for (ReplicatedJedisPool jedisPool : jedisPools) {
+      publishers.add(new PubSubPublisher(jedisPool, publisherConnections, publisherBatchSize, PUBLISHER_QUEUE_SIZE));
+    }
   }
 
   @Override
   public void start() throws Exception {
+    for (PubSubPublisher publisher : publishers) {
+      publisher.start();
+    }
+
     this.dispatchManager.start();
 
     KeepaliveDispatchChannel keepaliveDispatchChannel = new KeepaliveDispatchChannel();
-    this.dispatchManager.subscribe(KEEPALIVE_CHANNEL, keepaliveDispatchChannel);
+    this.dispatchManager.subscribeAllShards(KEEPALIVE_CHANNEL, keepaliveDispatchChannel);
 
     synchronized (this) {
       while (!subscribed) wait(0);
@@ -43,34 +75,87 @@ public class PubSubManager implements Managed {
   @Override
   public void stop() throws Exception {
     dispatchManager.shutdown();
+
+    for (PubSubPublisher publisher : publishers) {
+      publisher.stop();
+    }
   }
 
   public void subscribe(PubSubAddress address, DispatchChannel channel) {
     dispatchManager.subscribe(address.serialize(), channel);
+
+    if (nodeRouter.isPresent()) {
+      nodeRouter.get().register(address.serialize());
+    }
   }
 
   public void unsubscribe(PubSubAddress address, DispatchChannel dispatchChannel) {
-    dispatchManager.unsubscribe(address.serialize(), dispatchChannel);
+    if (dispatchManager.unsubscribe(address.serialize(), dispatchChannel) && nodeRouter.isPresent()) {
+      nodeRouter.get().unregister(address.serialize());
+    }
+  }
+
+  public void subscribeBroadcast(String channel, DispatchChannel dispatchChannel) {
+    dispatchManager.subscribeAllShards(channel, dispatchChannel);
+  }
+
+  // Every node subscribes broadcast channels on all shards, so any single shard reaches them all
+  public ListenableFuture<Long> publishBroadcast(String channel, byte[] message) {
+    return getPublisher(channel).publish(channel.getBytes(), message);
   }
 
   public boolean hasLocalSubscription(PubSubAddress address) {
     return dispatchManager.hasSubscription(address.serialize());
   }
 
-  public boolean publish(PubSubAddress address, PubSubMessage message) {
-    return publish(address.serialize().getBytes(), message);
+  public boolean publishLocal(PubSubAddress address, PubSubMessage message) {
+    return dispatchManager.dispatchLocal(address.serialize(), message.toByteArray());
   }
 
-  private boolean publish(byte[] channel, PubSubMessage message) {
-    try (Jedis jedis = jedisPool.getWriteResource()) {
-      long result = jedis.publish(channel, message.toByteArray());
+  public boolean publish(PubSubAddress address, PubSubMessage message) {
+    try {
+      long result = publishAsync(address, message).get(PUBLISH_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
 
       if (result < 0) {
         logger.warn("**** Jedis publish result < 0");
       }
 
       return result > 0;
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new JedisException(e);
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof RuntimeException) throw (RuntimeException)e.getCause();
+      else                                           throw new JedisException(e.getCause());
+    } catch (TimeoutException e) {
+      throw new JedisException("Publish timed out", e);
+    }
+  }
+
+  public ListenableFuture<Long> publishAsync(PubSubAddress address, PubSubMessage message) {
+    final String channel    = address.serialize();
+    final byte[] serialized = message.toByteArray();
+
+    if (nodeRouter.isPresent()) {
+      if (dispatchManager.dispatchLocal(channel, serialized)) {
+        return Futures.immediateFuture(1L);
+      }
+
+      Optional<ListenableFuture<Boolean>> routed = nodeRouter.get().route(channel, serialized);
+
+      if (routed.isPresent()) {
+        // The owning node may have lost the socket since registering, so fall back to broadcast
+        return Futures.transformAsync(routed.get(), delivered -> delivered ? Futures.immediateFuture(1L)
+                                                                           : getPublisher(channel).publish(channel.getBytes(), serialized));
+      }
     }
+
+    return getPublisher(channel).publish(channel.getBytes(), serialized);
+  }
+
+  private PubSubPublisher getPublisher(String channel) {
+    if (publishers.size() == 1) return publishers.get(0);
+    else                        return publishers.get(dispatchManager.getShard(channel));
   }
 
   private class KeepaliveDispatchChannel implements DispatchChannel {
@@ -102,9 +187,12 @@ public class PubSubManager implements Managed {
       while (true) {
         try {
           Thread.sleep(20000);
-          publish(KEEPALIVE_CHANNEL.getBytes(), PubSubMessage.newBuilder()
-                                                             .setType(PubSubMessage.Type.KEEPALIVE)
-                                                             .build());
+          for (PubSubPublisher publisher : publishers) {
+            publisher.publish(KEEPALIVE_CHANNEL.getBytes(), PubSubMessage.newBuilder()
+                                                                         .setType(PubSubMessage.Type.KEEPALIVE)
+                                                                         .build()
+                                                                         .toByteArray());
+          }
         } catch (Throwable e) {
           logger.warn("***** KEEPALIVE EXCEPTION ******", e);
         }
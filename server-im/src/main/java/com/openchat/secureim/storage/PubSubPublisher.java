@@ -0,0 +1,211 @@
+package com.openchat.secureim.storage;
+
+import com.codahale.metrics.Histogram;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.SharedMetricRegistries;
+import com.codahale.metrics.Timer;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import com.openchat.secureim.redis.ReplicatedJedisPool;
+import com.openchat.secureim.util.Constants;
+
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import io.dropwizard.lifecycle.Managed;
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.Pipeline;
+import redis.clients.jedis.Response;
+import redis.clients.jedis.exceptions.JedisException;
+import static com.codahale.metrics.MetricRegistry.name;
+
+public class PubSubPublisher implements Managed {
+
+  private static final MetricRegistry metricRegistry     = SharedMetricRegistries.getOrCreate(Constants.METRICS_NAME);
+  private static final Histogram      batchSizeHistogram = metricRegistry.histogram(name(PubSubPublisher.class, "batchSize"));
+  private static final Timer          publishTimer       = metricRegistry.timer(name(PubSubPublisher.class, "publish"));
+  private static final Meter          rejectedMeter      = metricRegistry.meter(name(PubSubPublisher.class, "rejected"));
+
+  private final Logger logger = LoggerFactory.getLogger(PubSubPublisher.class);
+
+  private final BlockingQueue<PendingPublish> queue;
+  private final List<Worker>                  workers;
+  private final ReplicatedJedisPool           jedisPool;
+  private final int                           batchSize;
+
+  private volatile boolean stopped = false;
+
+  public PubSubPublisher(ReplicatedJedisPool jedisPool, int connections, int batchSize, int queueSize) {
+    this.jedisPool = jedisPool;
+    this.batchSize = batchSize;
+    this.queue     = new LinkedBlockingQueue<>(queueSize);
+    this.workers   = new ArrayList<>(connections);
+
+    for (int i=0;i<connections;i++) {
+      workers.add(new Worker());
+    }
+  }
+
+  @Override
+  public void start() {
+    for (Worker worker : workers) {
+      worker.start();
+    }
+  }
+
+  @Override
+  public void stop() throws InterruptedException {
+    stopped = true;
+
+    for (Worker worker : workers) {
+      worker.shutdown();
+    }
+
+    for (Worker worker : workers) {
+      worker.join();
+    }
+
+    failRemaining();
+  }
+
+  public ListenableFuture<Long> publish(byte[] channel, byte[] message) {
+    if (stopped) {
+      return Futures.immediateFailedFuture(new IllegalStateException("Publisher stopped"));
+    }
+
+    PendingPublish pending = new PendingPublish(channel, message);
+
+    if (!queue.offer(pending)) {
+      rejectedMeter.mark();
+      pending.timer.stop();
+      return Futures.immediateFailedFuture(new JedisException("Publish queue full"));
+    }
+
+    // stop() may have drained the queue between the check above and the offer
+    if (stopped && queue.remove(pending)) {
+      pending.timer.stop();
+      pending.future.setException(new IllegalStateException("Publisher stopped"));
+    }
+
+    return pending.future;
+  }
+
+  private void failRemaining() {
+    List<PendingPublish> remaining = new LinkedList<>();
+    queue.drainTo(remaining);
+
+    for (PendingPublish pending : remaining) {
+      pending.timer.stop();
+      pending.future.setException(new IllegalStateException("Publisher stopped"));
+    }
+  }
+
+  private static class PendingPublish {
+    private final byte[]               channel;
+    private final byte[]               message;
+    private final Timer.Context        timer;
+    private final SettableFuture<Long> future;
+
+    private PendingPublish(byte[] channel, byte[] message) {
+      this.channel = channel;
+      this.message = message;
+      this.timer   = publishTimer.time();
+      this.future  = SettableFuture.create();
+    }
+  }
+
+  private class Worker extends Thread {
+
+    private volatile boolean running = true;
+
+    private Jedis jedis;
+
+    private Worker() {
+      super(PubSubPublisher.class.getSimpleName());
+      setDaemon(true);
+    }
+
+    private void shutdown() {
+      running = false;
+      interrupt();
+    }
+
+    @Override
+    public void run() {
+      List<PendingPublish> batch = new ArrayList<>(batchSize);
+
+      while (running) {
+        try {
+          PendingPublish first = queue.poll(1, TimeUnit.SECONDS);
+
+          if (first == null) continue;
+
+          batch.add(first);
+          queue.drainTo(batch, batchSize - 1);
+
+          publish(batch);
+        } catch (InterruptedException e) {
+          if (running) logger.warn("Publisher interrupted", e);
+        } finally {
+          batch.clear();
+        }
+      }
+
+      closeConnection();
+      failRemaining();
+    }
+
+    private void publish(List<PendingPublish> batch) {
+      batchSizeHistogram.update(batch.size());
+
+      try {
+        if (jedis == null) {
+          jedis = jedisPool.getWriteResource();
+        }
+
+        Pipeline             pipeline  = jedis.pipelined();
+        List<Response<Long>> responses = new ArrayList<>(batch.size());
+
+        for (PendingPublish pending : batch) {
+          responses.add(pipeline.publish(pending.channel, pending.message));
+        }
+
+        pipeline.sync();
+
+        for (int i=0;i<batch.size();i++) {
+          batch.get(i).timer.stop();
+          batch.get(i).future.set(responses.get(i).get());
+        }
+      } catch (Throwable t) {
+        logger.warn("Pipelined publish failed", t);
+
+        for (PendingPublish pending : batch) {
+          pending.timer.stop();
+          pending.future.setException(t);
+        }
+
+        closeConnection();
+      }
+    }
+
+    private void closeConnection() {
+      if (jedis != null) {
+        try {
+          jedis.close();
+        } catch (Exception e) {
+          logger.warn("Closing publisher connection", e);
+        }
+
+        jedis = null;
+      }
+    }
+  }
+}
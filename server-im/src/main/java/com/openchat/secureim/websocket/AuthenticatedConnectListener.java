@@ -6,6 +6,7 @@ import com.codahale.metrics.Timer;
 import com.google.protobuf.ByteString;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import com.openchat.secureim.configuration.MessageDeliveryConfiguration;
 import com.openchat.secureim.push.ApnFallbackManager;
 import com.openchat.secureim.push.PushSender;
 import com.openchat.secureim.push.ReceiptSender;
@@ -20,6 +21,7 @@ import com.openchat.websocket.session.WebSocketSessionContext;
 import com.openchat.websocket.setup.WebSocketConnectListener;
 
 import java.security.SecureRandom;
+import java.util.concurrent.ScheduledExecutorService;
 
 import static com.codahale.metrics.MetricRegistry.name;
 
@@ -35,41 +37,54 @@ public class AuthenticatedConnectListener implements WebSocketConnectListener {
   private final PubSubManager      pubSubManager;
   private final ApnFallbackManager apnFallbackManager;
 
+  private final MessageDeliveryConfiguration deliveryConfiguration;
+  private final ScheduledExecutorService     acknowledgementScheduler;
+
   public AuthenticatedConnectListener(PushSender pushSender,
                                       ReceiptSender receiptSender,
                                       MessagesManager messagesManager,
                                       PubSubManager pubSubManager,
-                                      ApnFallbackManager apnFallbackManager)
+                                      ApnFallbackManager apnFallbackManager,
+                                      MessageDeliveryConfiguration deliveryConfiguration,
+                                      ScheduledExecutorService acknowledgementScheduler)
   {
-    this.pushSender         = pushSender;
-    this.receiptSender      = receiptSender;
-    this.messagesManager    = messagesManager;
-    this.pubSubManager      = pubSubManager;
-    this.apnFallbackManager = apnFallbackManager;
+    this.pushSender               = pushSender;
+    this.receiptSender            = receiptSender;
+    this.messagesManager          = messagesManager;
+    this.pubSubManager            = pubSubManager;
+    this.apnFallbackManager       = apnFallbackManager;
+    this.deliveryConfiguration    = deliveryConfiguration;
+    this.acknowledgementScheduler = acknowledgementScheduler;
   }
 
   @Override
   public void onWebSocketConnect(WebSocketSessionContext context) {
-    final Account                 account        = context.getAuthenticated(Account.class);
-    final Device                  device         = account.getAuthenticatedDevice().get();
-    final String                  connectionId   = String.valueOf(new SecureRandom().nextLong());
-    final Timer.Context           timer          = durationTimer.time();
-    final WebsocketAddress        address        = new WebsocketAddress(account.getNumber(), device.getId());
-    final WebSocketConnection     connection     = new WebSocketConnection(pushSender, receiptSender,
-                                                                           messagesManager, account, device,
-                                                                           context.getClient(), connectionId);
-    final PubSubMessage           connectMessage = PubSubMessage.newBuilder().setType(PubSubMessage.Type.CONNECTED)
-                                                                .setContent(ByteString.copyFrom(connectionId.getBytes()))
-                                                                .build();
+    final Account                   account        = context.getAuthenticated(Account.class);
+    final Device                    device         = account.getAuthenticatedDevice().get();
+    final String                    connectionId   = String.valueOf(new SecureRandom().nextLong());
+    final Timer.Context             timer          = durationTimer.time();
+    final WebsocketAddress          address        = new WebsocketAddress(account.getNumber(), device.getId());
+    final StoredMessageAcknowledger acknowledger   = new StoredMessageAcknowledger(messagesManager, acknowledgementScheduler,
+                                                                                   account.getNumber(), device.getId(),
+                                                                                   deliveryConfiguration.getAckBatchSize(),
+                                                                                   deliveryConfiguration.getAckBatchMillis());
+    final WebSocketConnection       connection     = new WebSocketConnection(pushSender, receiptSender,
+                                                                             messagesManager, acknowledger, account, device,
+                                                                             context.getClient(), connectionId,
+                                                                             deliveryConfiguration);
+    final PubSubMessage             connectMessage = PubSubMessage.newBuilder().setType(PubSubMessage.Type.CONNECTED)
+                                                                  .setContent(ByteString.copyFrom(connectionId.getBytes()))
+                                                                  .build();
 
     RedisOperation.unchecked(() -> apnFallbackManager.cancel(account, device));
-    pubSubManager.publish(address, connectMessage);
+    pubSubManager.publishAsync(address, connectMessage);
     pubSubManager.subscribe(address, connection);
 
     context.addListener(new WebSocketSessionContext.WebSocketEventListener() {
       @Override
       public void onWebSocketClose(WebSocketSessionContext context, int statusCode, String reason) {
         pubSubManager.unsubscribe(address, connection);
+        acknowledger.flush();
         timer.stop();
       }
     });
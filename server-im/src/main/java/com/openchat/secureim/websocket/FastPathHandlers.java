@@ -0,0 +1,45 @@
+package com.openchat.secureim.websocket;
+
+import com.openchat.secureim.controllers.KeepAliveController;
+import com.openchat.secureim.controllers.MessageController;
+import com.openchat.secureim.entities.AcknowledgedMessageList;
+import com.openchat.secureim.entities.IncomingMessageList;
+import com.openchat.secureim.storage.Account;
+import com.openchat.websocket.WebSocketHandlerRegistry;
+
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
+
+public class FastPathHandlers {
+
+  // Every route here must be registered alongside any Jersey route it could shadow, since
+  // the registry only knows about its own templates: /acknowledged must stay registered
+  // next to /{destination}.
+  public static void register(WebSocketHandlerRegistry handlers,
+                              final KeepAliveController keepAliveController,
+                              final MessageController messageController)
+  {
+    handlers.register("GET", "/v1/keepalive", request ->
+        keepAliveController.getKeepAlive(request.getAuthenticated(Account.class), request.getContext()));
+
+    handlers.register("PUT", "/v1/messages/{destination}", request ->
+        Response.ok(messageController.sendMessage(request.getAuthenticated(Account.class),
+                                                  request.getPathParameter("destination"),
+                                                  request.readEntity(IncomingMessageList.class)),
+                    MediaType.APPLICATION_JSON_TYPE)
+                .build());
+
+    handlers.register("PUT", "/v1/messages/acknowledged", request -> {
+      messageController.removePendingMessages(request.getAuthenticated(Account.class),
+                                              request.readEntity(AcknowledgedMessageList.class));
+      return Response.noContent().build();
+    });
+
+    handlers.register("DELETE", "/v1/messages/{source}/{timestamp}", request -> {
+      messageController.removePendingMessage(request.getAuthenticated(Account.class),
+                                             request.getPathParameter("source"),
+                                             request.getLongPathParameter("timestamp"));
+      return Response.noContent().build();
+    });
+  }
+}
@@ -0,0 +1,98 @@
+package com.openchat.secureim.websocket;
+
+import com.codahale.metrics.Histogram;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.SharedMetricRegistries;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import com.openchat.secureim.storage.MessagesManager;
+import com.openchat.secureim.util.Constants;
+
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static com.codahale.metrics.MetricRegistry.name;
+
+public class StoredMessageAcknowledger {
+
+  private static final Logger logger = LoggerFactory.getLogger(StoredMessageAcknowledger.class);
+
+  private static final MetricRegistry metricRegistry     = SharedMetricRegistries.getOrCreate(Constants.METRICS_NAME);
+  private static final Histogram      flushSizeHistogram = metricRegistry.histogram(name(StoredMessageAcknowledger.class, "flushSize"));
+
+  private final MessagesManager          messagesManager;
+  private final ScheduledExecutorService scheduler;
+  private final String                   number;
+  private final long                     deviceId;
+  private final int                      batchSize;
+  private final long                     batchMillis;
+
+  private List<Long> cachedIds    = new LinkedList<>();
+  private List<Long> persistedIds = new LinkedList<>();
+  private boolean    scheduled    = false;
+
+  public StoredMessageAcknowledger(MessagesManager messagesManager, ScheduledExecutorService scheduler,
+                                   String number, long deviceId, int batchSize, long batchMillis)
+  {
+    this.messagesManager = messagesManager;
+    this.scheduler       = scheduler;
+    this.number          = number;
+    this.deviceId        = deviceId;
+    this.batchSize       = batchSize;
+    this.batchMillis     = batchMillis;
+  }
+
+  public void acknowledge(long id, boolean cached) {
+    boolean flushNow      = false;
+    boolean scheduleFlush = false;
+
+    synchronized (this) {
+      if (cached) cachedIds.add(id);
+      else        persistedIds.add(id);
+
+      if (cachedIds.size() + persistedIds.size() >= batchSize) {
+        flushNow = true;
+      } else if (!scheduled) {
+        scheduled     = true;
+        scheduleFlush = true;
+      }
+    }
+
+    if (flushNow) {
+      flush();
+    } else if (scheduleFlush) {
+      try {
+        scheduler.schedule(this::flush, batchMillis, TimeUnit.MILLISECONDS);
+      } catch (RejectedExecutionException e) {
+        flush();
+      }
+    }
+  }
+
+  public void flush() {
+    List<Long> cached;
+    List<Long> persisted;
+
+    synchronized (this) {
+      cached       = cachedIds;
+      persisted    = persistedIds;
+      cachedIds    = new LinkedList<>();
+      persistedIds = new LinkedList<>();
+      scheduled    = false;
+    }
+
+    if (cached.isEmpty() && persisted.isEmpty()) {
+      return;
+    }
+
+    try {
+      flushSizeHistogram.update(cached.size() + persisted.size());
+      messagesManager.delete(number, deviceId, cached, persisted);
+    } catch (Exception e) {
+      logger.warn("Failed to delete acknowledged messages", e);
+    }
+  }
+}
@@ -1,6 +1,7 @@
 package com.openchat.secureim.websocket;
 
 import com.codahale.metrics.Histogram;
+import com.codahale.metrics.Meter;
 import com.codahale.metrics.MetricRegistry;
 import com.codahale.metrics.SharedMetricRegistries;
 import com.google.common.base.Optional;
@@ -12,18 +13,21 @@ import com.google.protobuf.InvalidProtocolBufferException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import com.openchat.dispatch.DispatchChannel;
+import com.openchat.secureim.configuration.MessageDeliveryConfiguration;
 import com.openchat.secureim.controllers.MessageController;
 import com.openchat.secureim.controllers.NoSuchUserException;
 import com.openchat.secureim.entities.CryptoEncodingException;
 import com.openchat.secureim.entities.EncryptedOutgoingMessage;
 import com.openchat.secureim.entities.OutgoingMessageEntity;
 import com.openchat.secureim.entities.OutgoingMessageEntityList;
+import com.openchat.secureim.entities.SignalingKey;
 import com.openchat.secureim.push.NotPushRegisteredException;
 import com.openchat.secureim.push.PushSender;
 import com.openchat.secureim.push.ReceiptSender;
 import com.openchat.secureim.push.TransientPushFailureException;
 import com.openchat.secureim.storage.Account;
 import com.openchat.secureim.storage.Device;
+import com.openchat.secureim.storage.MessageCursor;
 import com.openchat.secureim.storage.MessagesManager;
 import com.openchat.secureim.util.Constants;
 import com.openchat.websocket.WebSocketClient;
@@ -33,7 +37,13 @@ import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 import javax.ws.rs.WebApplicationException;
 import java.io.IOException;
-import java.util.Iterator;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 import static com.codahale.metrics.MetricRegistry.name;
 import static com.openchat.secureim.entities.MessageProtos.Envelope;
@@ -44,32 +54,60 @@ public class WebSocketConnection implements DispatchChannel {
   private static final MetricRegistry metricRegistry = SharedMetricRegistries.getOrCreate(Constants.METRICS_NAME);
   public  static final Histogram      messageTime    = metricRegistry.histogram(name(MessageController.class, "message_delivery_duration"));
 
+  private static final Histogram deliveryWindowHistogram = metricRegistry.histogram(name(WebSocketConnection.class, "deliveryWindow"));
+  private static final Histogram ackLatencyHistogram     = metricRegistry.histogram(name(WebSocketConnection.class, "ackLatency"    ));
+  private static final Meter     redundantQueryMeter     = metricRegistry.meter(name(WebSocketConnection.class, "redundantQuery"   ));
+  private static final Meter     duplicateDeliveryMeter  = metricRegistry.meter(name(WebSocketConnection.class, "duplicateDelivery"));
+
+  private static final int RECENTLY_DELIVERED_SIZE = 1000;
+
   private static final Logger logger = LoggerFactory.getLogger(WebSocketConnection.class);
 
-  private final ReceiptSender    receiptSender;
-  private final PushSender       pushSender;
-  private final MessagesManager  messagesManager;
+  private final ReceiptSender             receiptSender;
+  private final PushSender                pushSender;
+  private final MessagesManager           messagesManager;
+  private final StoredMessageAcknowledger acknowledger;
+
+  private final Account                   account;
+  private final Device                    device;
+  private final WebSocketClient           client;
+  private final String                    connectionId;
+  private final int                       windowSize;
+
+  private final Deque<StoredMessageInfo> pendingStoredMessages = new LinkedList<>();
+
+  private final Set<String> recentlyDelivered = Collections.newSetFromMap(new LinkedHashMap<String, Boolean>() {
+    @Override
+    protected boolean removeEldestEntry(Map.Entry<String, Boolean> eldest) {
+      return size() > RECENTLY_DELIVERED_SIZE;
+    }
+  });
+
+  private int     storedMessagesInFlight = 0;
+  private boolean draining               = false;
+  private boolean drainRequested         = false;
 
-  private final Account          account;
-  private final Device           device;
-  private final WebSocketClient  client;
-  private final String           connectionId;
+  private volatile SignalingKey signalingKey;
 
   public WebSocketConnection(PushSender pushSender,
                              ReceiptSender receiptSender,
                              MessagesManager messagesManager,
+                             StoredMessageAcknowledger acknowledger,
                              Account account,
                              Device device,
                              WebSocketClient client,
-                             String connectionId)
+                             String connectionId,
+                             MessageDeliveryConfiguration deliveryConfiguration)
   {
     this.pushSender      = pushSender;
     this.receiptSender   = receiptSender;
     this.messagesManager = messagesManager;
+    this.acknowledger    = acknowledger;
     this.account         = account;
     this.device          = device;
     this.client          = client;
     this.connectionId    = connectionId;
+    this.windowSize      = deliveryConfiguration.getWindowSize();
   }
 
   @Override
@@ -79,10 +117,11 @@ public class WebSocketConnection implements DispatchChannel {
 
       switch (pubSubMessage.getType().getNumber()) {
         case PubSubMessage.Type.QUERY_DB_VALUE:
-          processStoredMessages();
+          requestDrain();
           break;
         case PubSubMessage.Type.DELIVER_VALUE:
-          sendMessage(Envelope.parseFrom(pubSubMessage.getContent()), Optional.absent(), false);
+          byte[] serialized = pubSubMessage.getContent().toByteArray();
+          sendMessage(Envelope.parseFrom(serialized), serialized, Optional.absent());
           break;
         case PubSubMessage.Type.CONNECTED_VALUE:
           if (pubSubMessage.hasContent() && !new String(pubSubMessage.getContent().toByteArray()).equals(connectionId)) {
@@ -103,15 +142,15 @@ public class WebSocketConnection implements DispatchChannel {
   }
 
   public void onDispatchSubscribed(String channel) {
-    processStoredMessages();
+    requestDrain();
   }
 
   private void sendMessage(final Envelope                    message,
-                           final Optional<StoredMessageInfo> storedMessageInfo,
-                           final boolean                     requery)
+                           final byte[]                      serialized,
+                           final Optional<StoredMessageInfo> storedMessageInfo)
   {
     try {
-      EncryptedOutgoingMessage                   encryptedMessage = new EncryptedOutgoingMessage(message, device.getSignalingKey());
+      EncryptedOutgoingMessage                   encryptedMessage = new EncryptedOutgoingMessage(serialized, getSignalingKey());
       Optional<byte[]>                           body             = Optional.fromNullable(encryptedMessage.toByteArray());
       ListenableFuture<WebSocketResponseMessage> response         = client.sendRequest("PUT", "/api/v1/message", null, body);
 
@@ -125,17 +164,19 @@ public class WebSocketConnection implements DispatchChannel {
           }
 
           if (isSuccessResponse(response)) {
-            if (storedMessageInfo.isPresent()) messagesManager.delete(account.getNumber(), device.getId(), storedMessageInfo.get().id, storedMessageInfo.get().cached);
+            if (storedMessageInfo.isPresent()) acknowledger.acknowledge(storedMessageInfo.get().getId(), storedMessageInfo.get().isCached());
             if (!isReceipt)                    sendDeliveryReceiptFor(message);
-            if (requery)                       processStoredMessages();
           } else if (!isSuccessResponse(response) && !storedMessageInfo.isPresent()) {
             requeueMessage(message);
           }
+
+          if (storedMessageInfo.isPresent()) onStoredMessageComplete(storedMessageInfo.get(), isSuccessResponse(response));
         }
 
         @Override
         public void onFailure(@Nonnull Throwable throwable) {
           if (!storedMessageInfo.isPresent()) requeueMessage(message);
+          else                                onStoredMessageComplete(storedMessageInfo.get(), false);
         }
 
         private boolean isSuccessResponse(WebSocketResponseMessage response) {
@@ -144,7 +185,16 @@ public class WebSocketConnection implements DispatchChannel {
       });
     } catch (CryptoEncodingException e) {
       logger.warn("Bad signaling key", e);
+      if (storedMessageInfo.isPresent()) onStoredMessageComplete(storedMessageInfo.get(), false);
+    }
+  }
+
+  private SignalingKey getSignalingKey() throws CryptoEncodingException {
+    if (signalingKey == null) {
+      signalingKey = new SignalingKey(device.getSignalingKey());
     }
+
+    return signalingKey;
   }
 
   private void requeueMessage(Envelope message) {
@@ -171,45 +221,215 @@ public class WebSocketConnection implements DispatchChannel {
     }
   }
 
-  private void processStoredMessages() {
-    OutgoingMessageEntityList       messages = messagesManager.getMessagesForDevice(account.getNumber(), device.getId());
-    Iterator<OutgoingMessageEntity> iterator = messages.getMessages().iterator();
+  private void requestDrain() {
+    synchronized (this) {
+      if (draining) {
+        drainRequested = true;
+        redundantQueryMeter.mark();
+        return;
+      }
+
+      draining = true;
+    }
+
+    processStoredMessages(Optional.absent());
+  }
+
+  private void finishDrain() {
+    synchronized (this) {
+      if (!drainRequested) {
+        draining = false;
+        return;
+      }
+
+      drainRequested = false;
+    }
+
+    processStoredMessages(Optional.absent());
+  }
+
+  private void processStoredMessages(Optional<MessageCursor> cursor) {
+    OutgoingMessageEntityList messages;
 
-    while (iterator.hasNext()) {
-      OutgoingMessageEntity message = iterator.next();
+    try {
+      if (!cursor.isPresent()) {
+        acknowledger.flush();
+      }
+
+      messages = messagesManager.getMessagesForDevice(account.getNumber(), device.getId(), cursor);
+    } catch (RuntimeException e) {
+      logger.warn("Failed to load stored messages", e);
+
+      synchronized (this) {
+        draining       = false;
+        drainRequested = false;
+      }
+
+      return;
+    }
+
+    StoredMessagePage page = new StoredMessagePage(messages.getMessages().size(),
+                                                   messages.hasMore() ? Optional.of(cursor.or(MessageCursor.start()).advance(messages.getMessages()))
+                                                                      : Optional.<MessageCursor>absent());
+
+    synchronized (this) {
+      for (OutgoingMessageEntity message : messages.getMessages()) {
+        pendingStoredMessages.add(new StoredMessageInfo(page, message));
+      }
+    }
+
+    deliverStoredMessages();
+
+    if (messages.getMessages().isEmpty()) {
+      if (!messages.hasMore()) sendQueueEmpty();
+      finishDrain();
+    }
+  }
+
+  private void deliverStoredMessages() {
+    List<StoredMessageInfo> ready = new LinkedList<>();
+
+    synchronized (this) {
+      while (storedMessagesInFlight < windowSize && !pendingStoredMessages.isEmpty()) {
+        StoredMessageInfo storedMessage = pendingStoredMessages.removeFirst();
+
+        if (!recentlyDelivered.add(storedMessage.getKey())) {
+          duplicateDeliveryMeter.mark();
+        }
+
+        ready.add(storedMessage);
+        storedMessagesInFlight++;
+      }
+
+      if (!ready.isEmpty()) {
+        deliveryWindowHistogram.update(storedMessagesInFlight);
+      }
+    }
+
+    for (StoredMessageInfo storedMessage : ready) {
+      OutgoingMessageEntity message = storedMessage.getMessage();
       Envelope.Builder      builder = Envelope.newBuilder()
                                               .setType(Envelope.Type.valueOf(message.getType()))
                                               .setSourceDevice(message.getSourceDevice())
                                               .setSource(message.getSource())
                                               .setTimestamp(message.getTimestamp());
 
-      if (message.getMessage() != null) {
-        builder.setLegacyMessage(ByteString.copyFrom(message.getMessage()));
+      if (message.getRelay() != null && !message.getRelay().isEmpty()) {
+        builder.setRelay(message.getRelay());
       }
 
-      if (message.getContent() != null) {
-        builder.setContent(ByteString.copyFrom(message.getContent()));
+      byte[] serialized = message.getEnvelope();
+
+      // Cached entries carry the envelope exactly as it was queued, so only rows loaded
+      // from the database need their payload copied back into a rebuilt envelope.
+      if (serialized == null) {
+        if (message.getMessage() != null) {
+          builder.setLegacyMessage(ByteString.copyFrom(message.getMessage()));
+        }
+
+        if (message.getContent() != null) {
+          builder.setContent(ByteString.copyFrom(message.getContent()));
+        }
       }
 
-      if (message.getRelay() != null && !message.getRelay().isEmpty()) {
-        builder.setRelay(message.getRelay());
+      Envelope envelope = builder.build();
+
+      if (serialized == null) {
+        serialized = envelope.toByteArray();
       }
 
-      sendMessage(builder.build(), Optional.of(new StoredMessageInfo(message.getId(), message.isCached())), !iterator.hasNext() && messages.hasMore());
+      storedMessage.sent();
+      sendMessage(envelope, serialized, Optional.of(storedMessage));
+    }
+  }
+
+  private void onStoredMessageComplete(StoredMessageInfo storedMessage, boolean success) {
+    ackLatencyHistogram.update(System.currentTimeMillis() - storedMessage.getSentTime());
+
+    synchronized (this) {
+      storedMessagesInFlight--;
+    }
+
+    StoredMessagePage page = storedMessage.getPage();
+
+    deliverStoredMessages();
+
+    if (page.complete(success)) {
+      if (!page.isFailed() && page.getNext().isPresent()) {
+        processStoredMessages(page.getNext());
+      } else {
+        if (!page.isFailed()) sendQueueEmpty();
+        finishDrain();
+      }
+    }
+  }
+
+  private void sendQueueEmpty() {
+    client.sendRequest("PUT", "/api/v1/queue/empty", null, Optional.<byte[]>absent());
+  }
+
+  private static class StoredMessagePage {
+    private final Optional<MessageCursor> next;
+
+    private int     remaining;
+    private boolean failed;
+
+    private StoredMessagePage(int size, Optional<MessageCursor> next) {
+      this.remaining = size;
+      this.next      = next;
+    }
+
+    private synchronized boolean complete(boolean success) {
+      failed |= !success;
+      return --remaining == 0;
     }
 
-    if (!messages.hasMore()) {
-      client.sendRequest("PUT", "/api/v1/queue/empty", null, Optional.<byte[]>absent());
+    private synchronized boolean isFailed() {
+      return failed;
+    }
+
+    private Optional<MessageCursor> getNext() {
+      return next;
     }
   }
 
   private static class StoredMessageInfo {
-    private final long    id;
-    private final boolean cached;
+    private final StoredMessagePage     page;
+    private final OutgoingMessageEntity message;
+
+    private long sentTime;
+
+    private StoredMessageInfo(StoredMessagePage page, OutgoingMessageEntity message) {
+      this.page    = page;
+      this.message = message;
+    }
+
+    private void sent() {
+      this.sentTime = System.currentTimeMillis();
+    }
+
+    private long getId() {
+      return message.getId();
+    }
+
+    private String getKey() {
+      return (message.isCached() ? "c" : "p") + message.getId();
+    }
+
+    private boolean isCached() {
+      return message.isCached();
+    }
+
+    private long getSentTime() {
+      return sentTime;
+    }
+
+    private StoredMessagePage getPage() {
+      return page;
+    }
 
-    private StoredMessageInfo(long id, boolean cached) {
-      this.id     = id;
-      this.cached = cached;
+    private OutgoingMessageEntity getMessage() {
+      return message;
     }
   }
 }
@@ -0,0 +1,61 @@
+package com.openchat.secureim.workers;
+
+import net.sourceforge.argparse4j.inf.Namespace;
+import org.skife.jdbi.v2.DBI;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import com.openchat.secureim.OpenChatSecureimConfiguration;
+import com.openchat.secureim.storage.MessagePartitionManager;
+import com.openchat.secureim.storage.MessagePartitions;
+
+import io.dropwizard.cli.ConfiguredCommand;
+import io.dropwizard.db.DataSourceFactory;
+import io.dropwizard.jdbi.ImmutableListContainerFactory;
+import io.dropwizard.jdbi.ImmutableSetContainerFactory;
+import io.dropwizard.jdbi.OptionalContainerFactory;
+import io.dropwizard.jdbi.args.OptionalArgumentFactory;
+import io.dropwizard.setup.Bootstrap;
+
+public class PartitionMessagesCommand extends ConfiguredCommand<OpenChatSecureimConfiguration> {
+  private final Logger logger = LoggerFactory.getLogger(PartitionMessagesCommand.class);
+
+  public PartitionMessagesCommand() {
+    super("partition-messages", "Convert the messages table to time-range partitions");
+  }
+
+  @Override
+  protected void run(Bootstrap<OpenChatSecureimConfiguration> bootstrap,
+                     Namespace namespace,
+                     OpenChatSecureimConfiguration config)
+      throws Exception
+  {
+    DataSourceFactory messageDbConfig = config.getMessageStoreConfiguration();
+    DBI               messageDbi      = new DBI(messageDbConfig.getUrl(), messageDbConfig.getUser(), messageDbConfig.getPassword());
+
+    messageDbi.registerArgumentFactory(new OptionalArgumentFactory(messageDbConfig.getDriverClass()));
+    messageDbi.registerContainerFactory(new ImmutableListContainerFactory());
+    messageDbi.registerContainerFactory(new ImmutableSetContainerFactory());
+    messageDbi.registerContainerFactory(new OptionalContainerFactory());
+
+    MessagePartitions       partitions = messageDbi.onDemand(MessagePartitions.class);
+    MessagePartitionManager manager    = new MessagePartitionManager(partitions, config.getMessageStorePartitionConfiguration());
+
+    if (partitions.isPartitioned()) {
+      logger.info("Messages table is already partitioned");
+    } else {
+      long boundary = manager.getNextIntervalStart(System.currentTimeMillis());
+
+      logger.info("Converting messages table, existing rows become the partition below " + boundary + "...");
+      partitions.convertToPartitioned(boundary);
+    }
+
+    manager.createPartitions(partitions.getPartitions(), System.currentTimeMillis());
+
+    for (MessagePartitions.Partition partition : partitions.getPartitions()) {
+      logger.info("Partition: " + partition.getName() + " [" + partition.getFrom() + ", " + partition.getTo() + ")");
+    }
+
+    Thread.sleep(3000);
+    System.exit(0);
+  }
+}
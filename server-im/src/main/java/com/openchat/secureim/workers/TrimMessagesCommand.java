@@ -5,6 +5,9 @@ import org.skife.jdbi.v2.DBI;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import com.openchat.secureim.OpenChatSecureimConfiguration;
+import com.openchat.secureim.configuration.MessageStorePartitionConfiguration;
+import com.openchat.secureim.storage.MessagePartitionManager;
+import com.openchat.secureim.storage.MessagePartitions;
 import com.openchat.secureim.storage.Messages;
 
 import java.util.concurrent.TimeUnit;
@@ -38,11 +41,23 @@ public class TrimMessagesCommand extends ConfiguredCommand<OpenChatSecureimConfi
     messageDbi.registerContainerFactory(new ImmutableSetContainerFactory());
     messageDbi.registerContainerFactory(new OptionalContainerFactory());
 
+    MessageStorePartitionConfiguration partitionConfig = config.getMessageStorePartitionConfiguration();
+
     Messages messages  = messageDbi.onDemand(Messages.class);
-    long     timestamp = System.currentTimeMillis() - TimeUnit.DAYS.toMillis(90);
+    long     now       = System.currentTimeMillis();
+    long     timestamp = now - TimeUnit.DAYS.toMillis(partitionConfig.isEnabled() ? partitionConfig.getRetentionDays() : 90);
+
+    MessagePartitions partitions = messageDbi.onDemand(MessagePartitions.class);
+
+    if (partitionConfig.isEnabled() && partitions.isPartitioned()) {
+      MessagePartitionManager manager = new MessagePartitionManager(partitions, partitionConfig);
 
-    logger.info("Trimming old messages: " + timestamp + "...");
-    messages.removeOld(timestamp);
+      logger.info("Dropping expired message partitions...");
+      logger.info("Dropped " + manager.dropExpiredPartitions(partitions.getPartitions(), now) + " partitions");
+    } else {
+      logger.info("Trimming old messages: " + timestamp + "...");
+      messages.removeOld(timestamp);
+    }
 
     Thread.sleep(3000);
     System.exit(0);
@@ -0,0 +1,174 @@
+package com.openchat.websocket;
+
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.base.Optional;
+import com.openchat.websocket.messages.WebSocketRequestMessage;
+import com.openchat.websocket.session.WebSocketSessionContext;
+
+import javax.validation.Validator;
+import javax.ws.rs.core.Response;
+import javax.ws.rs.ext.ExceptionMapper;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.URLDecoder;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static com.codahale.metrics.MetricRegistry.name;
+
+public class WebSocketHandlerRegistry {
+
+  private final Map<String, List<Route>>                  routes           = new ConcurrentHashMap<>();
+  private final Map<Class<?>, ExceptionMapper<Throwable>> exceptionMappers = new ConcurrentHashMap<>();
+
+  private final MetricRegistry metricRegistry;
+  private final ObjectMapper   objectMapper;
+  private final Validator      validator;
+
+  public WebSocketHandlerRegistry(MetricRegistry metricRegistry, ObjectMapper objectMapper, Validator validator) {
+    this.metricRegistry = metricRegistry;
+    this.objectMapper   = objectMapper;
+    this.validator      = validator;
+  }
+
+  public synchronized void register(String verb, String pathTemplate, WebSocketRequestHandler handler) {
+    List<Route> verbRoutes = routes.get(verb.toUpperCase());
+
+    if (verbRoutes == null) {
+      verbRoutes = new CopyOnWriteArrayList<>();
+      routes.put(verb.toUpperCase(), verbRoutes);
+    }
+
+    verbRoutes.add(new Route(pathTemplate, handler, metricRegistry.timer(name(WebSocketHandlerRegistry.class, verb.toLowerCase(), pathTemplate))));
+  }
+
+  @SuppressWarnings("unchecked")
+  public <T extends Throwable> void registerExceptionMapper(Class<T> type, ExceptionMapper<? super T> mapper) {
+    exceptionMappers.put(type, (ExceptionMapper<Throwable>)mapper);
+  }
+
+  // Like Jersey, the mapper registered for the closest superclass wins
+  public Optional<Response> mapException(Throwable throwable) {
+    for (Class<?> type = throwable.getClass(); type != null; type = type.getSuperclass()) {
+      ExceptionMapper<Throwable> mapper = exceptionMappers.get(type);
+
+      if (mapper != null) {
+        return Optional.of(mapper.toResponse(throwable));
+      }
+    }
+
+    return Optional.absent();
+  }
+
+  public Optional<Match> find(String verb, String path) {
+    List<Route> verbRoutes = routes.get(verb.toUpperCase());
+
+    if (verbRoutes == null) return Optional.absent();
+
+    int queryStart = path.indexOf('?');
+
+    if (queryStart != -1) {
+      path = path.substring(0, queryStart);
+    }
+
+    String[] segments = split(path);
+    Match    best     = null;
+
+    // Like JAX-RS, a literal segment beats a template: /acknowledged wins over /{destination}
+    for (Route route : verbRoutes) {
+      Optional<Match> match = route.match(segments);
+
+      if (match.isPresent() && (best == null || match.get().literals > best.literals)) {
+        best = match.get();
+      }
+    }
+
+    return Optional.fromNullable(best);
+  }
+
+  public void serialize(Object entity, OutputStream output) throws IOException {
+    objectMapper.writeValue(output, entity);
+  }
+
+  public WebSocketHandlerRequest createRequest(WebSocketSessionContext context, WebSocketRequestMessage message, Match match) {
+    return new WebSocketHandlerRequest(context, message, match.getParameters(), objectMapper, validator);
+  }
+
+  private static String[] split(String path) {
+    String trimmed = path;
+
+    if (trimmed.startsWith("/")) trimmed = trimmed.substring(1);
+    if (trimmed.endsWith("/"))   trimmed = trimmed.substring(0, trimmed.length() - 1);
+
+    return trimmed.split("/", -1);
+  }
+
+  public static class Match {
+    private final WebSocketRequestHandler handler;
+    private final Map<String, String>     parameters;
+    private final Timer                   timer;
+    private final int                     literals;
+
+    private Match(WebSocketRequestHandler handler, Map<String, String> parameters, Timer timer, int literals) {
+      this.handler    = handler;
+      this.parameters = parameters;
+      this.timer      = timer;
+      this.literals   = literals;
+    }
+
+    public WebSocketRequestHandler getHandler() {
+      return handler;
+    }
+
+    public Map<String, String> getParameters() {
+      return parameters;
+    }
+
+    public Timer getTimer() {
+      return timer;
+    }
+  }
+
+  private static class Route {
+    private final String[]                segments;
+    private final WebSocketRequestHandler handler;
+    private final Timer                   timer;
+
+    private Route(String pathTemplate, WebSocketRequestHandler handler, Timer timer) {
+      this.segments = split(pathTemplate);
+      this.handler  = handler;
+      this.timer    = timer;
+    }
+
+    private Optional<Match> match(String[] path) {
+      if (path.length != segments.length) return Optional.absent();
+
+      Map<String, String> parameters = new HashMap<>();
+      int                 literals   = 0;
+
+      for (int i=0;i<segments.length;i++) {
+        if (segments[i].startsWith("{") && segments[i].endsWith("}")) {
+          if (path[i].isEmpty()) return Optional.absent();
+
+          try {
+            parameters.put(segments[i].substring(1, segments[i].length() - 1), URLDecoder.decode(path[i].replace("+", "%2B"), "UTF-8"));
+          } catch (UnsupportedEncodingException | IllegalArgumentException e) {
+            return Optional.absent();
+          }
+        } else if (segments[i].equals(path[i])) {
+          literals++;
+        } else {
+          return Optional.absent();
+        }
+      }
+
+      return Optional.of(new Match(handler, parameters, timer, literals));
+    }
+  }
+}
@@ -0,0 +1,99 @@
+package com.openchat.websocket;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.base.Optional;
+import com.openchat.websocket.messages.WebSocketRequestMessage;
+import com.openchat.websocket.session.WebSocketSessionContext;
+
+import javax.validation.ConstraintViolation;
+import javax.validation.Validator;
+import javax.ws.rs.WebApplicationException;
+import java.io.IOException;
+import java.util.Map;
+import java.util.Set;
+
+public class WebSocketHandlerRequest {
+
+  private final WebSocketSessionContext context;
+  private final WebSocketRequestMessage message;
+  private final Map<String, String>     pathParameters;
+  private final ObjectMapper            objectMapper;
+  private final Validator               validator;
+
+  WebSocketHandlerRequest(WebSocketSessionContext context,
+                          WebSocketRequestMessage message,
+                          Map<String, String>     pathParameters,
+                          ObjectMapper            objectMapper,
+                          Validator               validator)
+  {
+    this.context        = context;
+    this.message        = message;
+    this.pathParameters = pathParameters;
+    this.objectMapper   = objectMapper;
+    this.validator      = validator;
+  }
+
+  public WebSocketSessionContext getContext() {
+    return context;
+  }
+
+  public WebSocketRequestMessage getMessage() {
+    return message;
+  }
+
+  public String getPathParameter(String name) {
+    return pathParameters.get(name);
+  }
+
+  public long getLongPathParameter(String name) {
+    try {
+      return Long.parseLong(pathParameters.get(name));
+    } catch (NumberFormatException e) {
+      // Jersey treats an unparseable path parameter as a non-matching route
+      throw new WebApplicationException(404);
+    }
+  }
+
+  // Same rule as an @Auth parameter resolved through WebSocketAuthValueFactoryProvider
+  public <T> T getAuthenticated(Class<T> type) {
+    Object authenticated = context.getAuthenticated();
+
+    if (authenticated == null) {
+      throw new WebApplicationException("Authenticated resource", 401);
+    }
+
+    return context.getAuthenticated(type);
+  }
+
+  public Optional<Object> getOptionalAuthenticated() {
+    return Optional.fromNullable(context.getAuthenticated());
+  }
+
+  public <T> T readEntity(Class<T> type) {
+    Optional<byte[]> body = message.getBody();
+
+    if (!body.isPresent()) {
+      throw new WebApplicationException(422);
+    }
+
+    T entity;
+
+    try {
+      entity = objectMapper.readValue(body.get(), type);
+    } catch (IOException e) {
+      throw new WebApplicationException(400);
+    }
+
+    if (entity == null) {
+      throw new WebApplicationException(422);
+    }
+
+    Set<ConstraintViolation<T>> violations = validator.validate(entity);
+
+    if (!violations.isEmpty()) {
+      throw new WebApplicationException(422);
+    }
+
+    return entity;
+  }
+}
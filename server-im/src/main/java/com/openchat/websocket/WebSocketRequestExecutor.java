@@ -0,0 +1,122 @@
+package com.openchat.websocket;
+
+import com.codahale.metrics.Histogram;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static com.codahale.metrics.MetricRegistry.name;
+
+public class WebSocketRequestExecutor {
+
+  private static final Logger logger = LoggerFactory.getLogger(WebSocketRequestExecutor.class);
+
+  private static final int MAX_TASKS_PER_TURN = 8;
+
+  private final ExecutorService executor;
+  private final int             maxPendingPerConnection;
+  private final Histogram       queueTimeHistogram;
+  private final Histogram       executionTimeHistogram;
+  private final Meter           rejectedMeter;
+
+  public WebSocketRequestExecutor(ExecutorService executor, int maxPendingPerConnection, MetricRegistry metricRegistry) {
+    this.executor                = executor;
+    this.maxPendingPerConnection = maxPendingPerConnection;
+    this.queueTimeHistogram      = metricRegistry.histogram(name(WebSocketRequestExecutor.class, "queueTime"    ));
+    this.executionTimeHistogram  = metricRegistry.histogram(name(WebSocketRequestExecutor.class, "executionTime"));
+    this.rejectedMeter           = metricRegistry.meter(name(WebSocketRequestExecutor.class, "rejected"));
+  }
+
+  public ConnectionQueue newConnectionQueue() {
+    return new ConnectionQueue();
+  }
+
+  private static class Task {
+    private final Runnable runnable;
+    private final long     queuedTime;
+
+    private Task(Runnable runnable) {
+      this.runnable   = runnable;
+      this.queuedTime = System.nanoTime();
+    }
+  }
+
+  // Runs a single connection's requests one at a time and in arrival order,
+  // yielding the pool thread to other connections every few requests.
+  public class ConnectionQueue implements Runnable {
+
+    private final Deque<Task> pending = new ArrayDeque<>();
+
+    private boolean scheduled;
+
+    public boolean execute(Runnable runnable) {
+      synchronized (this) {
+        if (pending.size() >= maxPendingPerConnection) {
+          rejectedMeter.mark();
+          return false;
+        }
+
+        pending.add(new Task(runnable));
+
+        if (scheduled) return true;
+        else           scheduled = true;
+      }
+
+      try {
+        executor.execute(this);
+        return true;
+      } catch (RejectedExecutionException e) {
+        synchronized (this) {
+          pending.clear();
+          scheduled = false;
+        }
+
+        rejectedMeter.mark();
+        return false;
+      }
+    }
+
+    @Override
+    public void run() {
+      while (true) {
+        for (int i=0;i<MAX_TASKS_PER_TURN;i++) {
+          Task task;
+
+          synchronized (this) {
+            task = pending.poll();
+
+            if (task == null) {
+              scheduled = false;
+              return;
+            }
+          }
+
+          long started = System.nanoTime();
+          queueTimeHistogram.update(TimeUnit.NANOSECONDS.toMicros(started - task.queuedTime));
+
+          try {
+            task.runnable.run();
+          } catch (RuntimeException e) {
+            logger.warn("Websocket request failed", e);
+          } finally {
+            executionTimeHistogram.update(TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - started));
+          }
+        }
+
+        try {
+          executor.execute(this);
+          return;
+        } catch (RejectedExecutionException e) {
+          // Pool is saturated, keep draining on this thread rather than stranding the queue
+        }
+      }
+    }
+  }
+}
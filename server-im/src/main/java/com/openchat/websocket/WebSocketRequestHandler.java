@@ -0,0 +1,7 @@
+package com.openchat.websocket;
+
+import javax.ws.rs.core.Response;
+
+public interface WebSocketRequestHandler {
+  public Response handle(WebSocketHandlerRequest request) throws Exception;
+}
@@ -1,5 +1,6 @@
 package com.openchat.websocket;
 
+import com.codahale.metrics.Timer;
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.util.concurrent.SettableFuture;
 import org.eclipse.jetty.server.RequestLog;
@@ -13,9 +14,13 @@ import com.openchat.websocket.messages.WebSocketMessage;
 import com.openchat.websocket.messages.WebSocketMessageFactory;
 import com.openchat.websocket.messages.WebSocketRequestMessage;
 import com.openchat.websocket.messages.WebSocketResponseMessage;
+import com.openchat.websocket.servlet.HandlerServletResponse;
 import com.openchat.websocket.servlet.LoggableRequest;
 import com.openchat.websocket.servlet.LoggableResponse;
 import com.openchat.websocket.servlet.NullServletResponse;
+import com.openchat.websocket.servlet.ReleasingWriteCallback;
+import com.openchat.websocket.servlet.ResponseBuffer;
+import com.openchat.websocket.servlet.ResponseBufferPool;
 import com.openchat.websocket.servlet.WebSocketServletRequest;
 import com.openchat.websocket.servlet.WebSocketServletResponse;
 import com.openchat.websocket.session.WebSocketSessionContext;
@@ -25,6 +30,8 @@ import javax.servlet.ServletException;
 import javax.servlet.http.HttpServlet;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
+import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.Response;
 import java.io.IOException;
 import java.nio.ByteBuffer;
@@ -49,6 +56,10 @@ public class WebSocketResourceProvider implements WebSocketListener {
   private final RequestLog                         requestLog;
   private final long                               idleTimeoutMillis;
 
+  private final Optional<WebSocketRequestExecutor.ConnectionQueue> requestQueue;
+  private final WebSocketHandlerRegistry                           handlers;
+  private final ResponseBufferPool                                 bufferPool;
+
   private Session                 session;
   private RemoteEndpoint          remoteEndpoint;
   private WebSocketSessionContext context;
@@ -58,6 +69,9 @@ public class WebSocketResourceProvider implements WebSocketListener {
                                    Object                             authenticated,
                                    WebSocketMessageFactory            messageFactory,
                                    Optional<WebSocketConnectListener> connectListener,
+                                   Optional<WebSocketRequestExecutor> requestExecutor,
+                                   WebSocketHandlerRegistry           handlers,
+                                   ResponseBufferPool                 bufferPool,
                                    long                               idleTimeoutMillis)
   {
     this.servlet           = servlet;
@@ -66,6 +80,10 @@ public class WebSocketResourceProvider implements WebSocketListener {
     this.messageFactory    = messageFactory;
     this.connectListener   = connectListener;
     this.idleTimeoutMillis = idleTimeoutMillis;
+    this.handlers          = handlers;
+    this.bufferPool        = bufferPool;
+    this.requestQueue      = requestExecutor.isPresent() ? Optional.of(requestExecutor.get().newConnectionQueue())
+                                                         : Optional.<WebSocketRequestExecutor.ConnectionQueue>absent();
   }
 
   @Override
@@ -94,7 +112,7 @@ public class WebSocketResourceProvider implements WebSocketListener {
 
       switch (webSocketMessage.getType()) {
         case REQUEST_MESSAGE:
-          handleRequest(webSocketMessage.getRequestMessage());
+          dispatchRequest(webSocketMessage.getRequestMessage());
           break;
         case RESPONSE_MESSAGE:
           handleResponse(webSocketMessage.getResponseMessage());
@@ -129,7 +147,57 @@ public class WebSocketResourceProvider implements WebSocketListener {
     logger.debug("onWebSocketText!");
   }
 
+  private void dispatchRequest(final WebSocketRequestMessage requestMessage) {
+    if (!requestQueue.isPresent()) {
+      handleRequest(requestMessage);
+      return;
+    }
+
+    boolean queued = requestQueue.get().execute(new Runnable() {
+      @Override
+      public void run() {
+        handleRequest(requestMessage);
+      }
+    });
+
+    if (!queued) {
+      sendErrorResponse(requestMessage, Response.status(503).build());
+    }
+  }
+
   private void handleRequest(WebSocketRequestMessage requestMessage) {
+    Optional<WebSocketHandlerRegistry.Match> match = handlers.find(requestMessage.getVerb(), requestMessage.getPath());
+
+    if (match.isPresent()) handleFastPathRequest(requestMessage, match.get());
+    else                   handleServletRequest(requestMessage);
+  }
+
+  private void handleFastPathRequest(WebSocketRequestMessage requestMessage, WebSocketHandlerRegistry.Match match) {
+    Response response;
+
+    try (Timer.Context timer = match.getTimer().time()) {
+      response = match.getHandler().handle(handlers.createRequest(context, requestMessage, match));
+    } catch (WebApplicationException e) {
+      response = e.getResponse();
+    } catch (Exception e) {
+      Optional<Response> mapped = handlers.mapException(e);
+
+      if (mapped.isPresent()) {
+        response = mapped.get();
+      } else {
+        logger.warn("Handler Error: " + requestMessage.getVerb() + " " + requestMessage.getPath(), e);
+        response = Response.status(500).build();
+      }
+    }
+
+    int    contentLength = sendResponse(requestMessage, response);
+    String contentType   = response.getMediaType() != null ? response.getMediaType().toString() : null;
+
+    requestLog.log(new LoggableRequest(createRequest(requestMessage, context)),
+                   new LoggableResponse(new HandlerServletResponse(response.getStatus(), contentType, contentLength)));
+  }
+
+  private void handleServletRequest(WebSocketRequestMessage requestMessage) {
     try {
       HttpServletRequest  servletRequest  = createRequest(requestMessage, context);
       HttpServletResponse servletResponse = createResponse(requestMessage);
@@ -163,7 +231,7 @@ public class WebSocketResourceProvider implements WebSocketListener {
 
   private HttpServletResponse createResponse(WebSocketRequestMessage message) {
     if (message.hasRequestId()) {
-      return new WebSocketServletResponse(remoteEndpoint, message.getRequestId(), messageFactory);
+      return new WebSocketServletResponse(remoteEndpoint, message.getRequestId(), messageFactory, bufferPool);
     } else {
       return new NullServletResponse();
     }
@@ -187,6 +255,46 @@ public class WebSocketResourceProvider implements WebSocketListener {
     }
   }
 
+  private int sendResponse(WebSocketRequestMessage requestMessage, Response response) {
+    if (!requestMessage.hasRequestId()) {
+      return 0;
+    }
+
+    ResponseBuffer body = bufferPool.acquire();
+
+    try {
+      List<String> headers = new LinkedList<>();
+
+      for (String key : response.getStringHeaders().keySet()) {
+        headers.add(key + ":" + response.getStringHeaders().getFirst(key));
+      }
+
+      if (response.hasEntity()) {
+        handlers.serialize(response.getEntity(), body);
+
+        if (response.getMediaType() == null) {
+          headers.add("Content-Type:" + MediaType.APPLICATION_JSON);
+        }
+      }
+
+      ByteBuffer frame = messageFactory.createResponseFrame(requestMessage.getRequestId(),
+                                                            response.getStatus(),
+                                                            response.getStatusInfo().getReasonPhrase(),
+                                                            headers,
+                                                            body);
+
+      int contentLength = body.size();
+
+      remoteEndpoint.sendBytes(frame, new ReleasingWriteCallback(bufferPool, body));
+      return contentLength;
+    } catch (IOException e) {
+      logger.warn("Response serialization", e);
+      bufferPool.release(body);
+      sendErrorResponse(requestMessage, Response.status(500).build());
+      return 0;
+    }
+  }
+
   @VisibleForTesting
   WebSocketSessionContext getContext() {
     return context;
@@ -83,6 +83,9 @@ public class WebSocketResourceProviderFactory extends WebSocketServlet implement
                                            authenticated,
                                            this.environment.getMessageFactory(),
                                            Optional.fromNullable(this.environment.getConnectListener()),
+                                           this.environment.getRequestExecutor(),
+                                           this.environment.handlers(),
+                                           this.environment.getResponseBufferPool(),
                                            this.environment.getIdleTimeoutMillis());
     } catch (AuthenticationException | IOException e) {
       logger.warn("Authentication failure", e);
@@ -3,6 +3,7 @@ package com.openchat.websocket.configuration;
 import com.fasterxml.jackson.annotation.JsonProperty;
 
 import javax.validation.Valid;
+import javax.validation.constraints.Min;
 import javax.validation.constraints.NotNull;
 
 import io.dropwizard.request.logging.LogbackAccessRequestLogFactory;
@@ -15,7 +16,47 @@ public class WebSocketConfiguration {
   @JsonProperty
   private RequestLogFactory requestLog = new LogbackAccessRequestLogFactory();
 
+  // 0 runs requests inline on the jetty websocket thread
+  @JsonProperty
+  @Min(0)
+  private int requestThreads = 32;
+
+  @JsonProperty
+  @Min(1)
+  private int requestQueueSize = 2048;
+
+  @JsonProperty
+  @Min(1)
+  private int maxPendingRequestsPerConnection = 64;
+
+  @JsonProperty
+  private boolean fastPathHandlers = true;
+
+  @JsonProperty
+  @Min(1)
+  private int responseBufferPoolSize = 256;
+
   public RequestLogFactory getRequestLog() {
     return requestLog;
   }
+
+  public int getRequestThreads() {
+    return requestThreads;
+  }
+
+  public int getRequestQueueSize() {
+    return requestQueueSize;
+  }
+
+  public int getMaxPendingRequestsPerConnection() {
+    return maxPendingRequestsPerConnection;
+  }
+
+  public boolean isFastPathHandlers() {
+    return fastPathHandlers;
+  }
+
+  public int getResponseBufferPoolSize() {
+    return responseBufferPoolSize;
+  }
 }
@@ -1,6 +1,8 @@
 package com.openchat.websocket.messages;
 
+import com.openchat.websocket.servlet.ResponseBuffer;
 
+import java.nio.ByteBuffer;
 import java.util.List;
 import com.google.common.base.Optional;
 
@@ -19,4 +21,9 @@ public interface WebSocketMessageFactory {
                                          List<String> headers,
                                          Optional<byte[]> body);
 
+  // Frames the buffered body in place, the returned buffer is only valid until the ResponseBuffer is released
+  public ByteBuffer createResponseFrame(long requestId, int status, String message,
+                                        List<String> headers,
+                                        ResponseBuffer body);
+
 }
@@ -1,10 +1,16 @@
 package com.openchat.websocket.messages.protobuf;
 
 import com.google.protobuf.ByteString;
+import com.google.protobuf.CodedOutputStream;
+import com.google.protobuf.WireFormat;
 import com.openchat.websocket.messages.InvalidMessageException;
 import com.openchat.websocket.messages.WebSocketMessage;
 import com.openchat.websocket.messages.WebSocketMessageFactory;
+import com.openchat.websocket.servlet.ResponseBuffer;
 
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
 import java.util.List;
 import com.google.common.base.Optional;
 
@@ -73,4 +79,61 @@ public class ProtobufWebSocketMessageFactory implements WebSocketMessageFactory
 
     return new ProtobufWebSocketMessage(message);
   }
+
+  @Override
+  public ByteBuffer createResponseFrame(long requestId, int status, String messageString, List<String> headers, ResponseBuffer body) {
+    int bodyLength         = body.size();
+    int responseHeaderSize = CodedOutputStream.computeUInt64Size(SubProtocol.WebSocketResponseMessage.ID_FIELD_NUMBER, requestId) +
+                             CodedOutputStream.computeUInt32Size(SubProtocol.WebSocketResponseMessage.STATUS_FIELD_NUMBER, status) +
+                             CodedOutputStream.computeStringSize(SubProtocol.WebSocketResponseMessage.MESSAGE_FIELD_NUMBER, messageString);
+
+    for (String header : headers) {
+      responseHeaderSize += CodedOutputStream.computeStringSize(SubProtocol.WebSocketResponseMessage.HEADERS_FIELD_NUMBER, header);
+    }
+
+    if (bodyLength > 0) {
+      responseHeaderSize += CodedOutputStream.computeTagSize(SubProtocol.WebSocketResponseMessage.BODY_FIELD_NUMBER) +
+                            CodedOutputStream.computeRawVarint32Size(bodyLength);
+    }
+
+    int responseSize    = responseHeaderSize + bodyLength;
+    int frameHeaderSize = CodedOutputStream.computeEnumSize(SubProtocol.WebSocketMessage.TYPE_FIELD_NUMBER, SubProtocol.WebSocketMessage.Type.RESPONSE_VALUE) +
+                          CodedOutputStream.computeTagSize(SubProtocol.WebSocketMessage.RESPONSE_FIELD_NUMBER) +
+                          CodedOutputStream.computeRawVarint32Size(responseSize) +
+                          responseHeaderSize;
+
+    if (frameHeaderSize > body.getBodyOffset()) {
+      byte[] copy = Arrays.copyOfRange(body.getArray(), body.getBodyOffset(), body.getBodyOffset() + bodyLength);
+      return ByteBuffer.wrap(createResponse(requestId, status, messageString, headers,
+                                            bodyLength > 0 ? Optional.of(copy) : Optional.<byte[]>absent()).toByteArray());
+    }
+
+    // The body goes last on the wire, so everything ahead of it fits in the space reserved in front of it
+    int               start  = body.getBodyOffset() - frameHeaderSize;
+    CodedOutputStream header = CodedOutputStream.newInstance(body.getArray(), start, frameHeaderSize);
+
+    try {
+      header.writeEnum(SubProtocol.WebSocketMessage.TYPE_FIELD_NUMBER, SubProtocol.WebSocketMessage.Type.RESPONSE_VALUE);
+      header.writeTag(SubProtocol.WebSocketMessage.RESPONSE_FIELD_NUMBER, WireFormat.WIRETYPE_LENGTH_DELIMITED);
+      header.writeRawVarint32(responseSize);
+      header.writeUInt64(SubProtocol.WebSocketResponseMessage.ID_FIELD_NUMBER, requestId);
+      header.writeUInt32(SubProtocol.WebSocketResponseMessage.STATUS_FIELD_NUMBER, status);
+      header.writeString(SubProtocol.WebSocketResponseMessage.MESSAGE_FIELD_NUMBER, messageString);
+
+      for (String value : headers) {
+        header.writeString(SubProtocol.WebSocketResponseMessage.HEADERS_FIELD_NUMBER, value);
+      }
+
+      if (bodyLength > 0) {
+        header.writeTag(SubProtocol.WebSocketResponseMessage.BODY_FIELD_NUMBER, WireFormat.WIRETYPE_LENGTH_DELIMITED);
+        header.writeRawVarint32(bodyLength);
+      }
+
+      header.checkNoSpaceLeft();
+    } catch (IOException e) {
+      throw new AssertionError(e);
+    }
+
+    return ByteBuffer.wrap(body.getArray(), start, frameHeaderSize + bodyLength);
+  }
 }
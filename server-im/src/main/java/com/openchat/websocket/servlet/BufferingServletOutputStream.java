@@ -2,14 +2,13 @@ package com.openchat.websocket.servlet;
 
 import javax.servlet.ServletOutputStream;
 import javax.servlet.WriteListener;
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 
 public class BufferingServletOutputStream extends ServletOutputStream {
 
-  private final ByteArrayOutputStream buffer;
+  private final ResponseBuffer buffer;
 
-  public BufferingServletOutputStream(ByteArrayOutputStream buffer) {
+  public BufferingServletOutputStream(ResponseBuffer buffer) {
     this.buffer = buffer;
   }
 
@@ -0,0 +1,30 @@
+package com.openchat.websocket.servlet;
+
+// Carries what the request log reads from a response produced outside the servlet container
+public class HandlerServletResponse extends NullServletResponse {
+
+  private final int    status;
+  private final String contentType;
+  private final int    contentLength;
+
+  public HandlerServletResponse(int status, String contentType, int contentLength) {
+    this.status        = status;
+    this.contentType   = contentType;
+    this.contentLength = contentLength;
+  }
+
+  @Override
+  public int getStatus() {
+    return status;
+  }
+
+  @Override
+  public String getContentType() {
+    return contentType;
+  }
+
+  @Override
+  public int getBufferSize() {
+    return contentLength;
+  }
+}
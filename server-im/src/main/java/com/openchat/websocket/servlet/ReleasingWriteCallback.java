@@ -0,0 +1,24 @@
+package com.openchat.websocket.servlet;
+
+import org.eclipse.jetty.websocket.api.WriteCallback;
+
+public class ReleasingWriteCallback implements WriteCallback {
+
+  private final ResponseBufferPool pool;
+  private final ResponseBuffer     buffer;
+
+  public ReleasingWriteCallback(ResponseBufferPool pool, ResponseBuffer buffer) {
+    this.pool   = pool;
+    this.buffer = buffer;
+  }
+
+  @Override
+  public void writeFailed(Throwable throwable) {
+    pool.release(buffer);
+  }
+
+  @Override
+  public void writeSuccess() {
+    pool.release(buffer);
+  }
+}
@@ -0,0 +1,57 @@
+package com.openchat.websocket.servlet;
+
+import java.io.OutputStream;
+import java.util.Arrays;
+
+public class ResponseBuffer extends OutputStream {
+
+  // Room in front of the body for the frame header, so the body is never moved to make space for it
+  static final int HEADER_RESERVE = 128;
+
+  private byte[] buffer;
+  private int    position;
+
+  ResponseBuffer(int capacity) {
+    this.buffer   = new byte[HEADER_RESERVE + capacity];
+    this.position = HEADER_RESERVE;
+  }
+
+  @Override
+  public void write(int b) {
+    ensureCapacity(1);
+    buffer[position++] = (byte)b;
+  }
+
+  @Override
+  public void write(byte[] b, int offset, int length) {
+    ensureCapacity(length);
+    System.arraycopy(b, offset, buffer, position, length);
+    position += length;
+  }
+
+  public void reset() {
+    position = HEADER_RESERVE;
+  }
+
+  public int size() {
+    return position - HEADER_RESERVE;
+  }
+
+  public int capacity() {
+    return buffer.length - HEADER_RESERVE;
+  }
+
+  public byte[] getArray() {
+    return buffer;
+  }
+
+  public int getBodyOffset() {
+    return HEADER_RESERVE;
+  }
+
+  private void ensureCapacity(int length) {
+    if (position + length > buffer.length) {
+      buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, position + length));
+    }
+  }
+}
@@ -0,0 +1,63 @@
+package com.openchat.websocket.servlet;
+
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+import static com.codahale.metrics.MetricRegistry.name;
+
+public class ResponseBufferPool {
+
+  private static final int    MIN_CAPACITY   = 1024;
+  private static final double SIZE_DECAY     = 0.95;
+  private static final int    OVERSIZE_RATIO = 4;
+
+  private final BlockingQueue<ResponseBuffer> buffers;
+  private final Meter                         allocatedMeter;
+  private final Meter                         reusedMeter;
+  private final Meter                         discardedMeter;
+
+  // Moving average of recent body sizes, racy updates only cost precision
+  private volatile double averageSize = MIN_CAPACITY;
+
+  public ResponseBufferPool(int maxBuffers, MetricRegistry metricRegistry) {
+    this.buffers        = new ArrayBlockingQueue<>(maxBuffers);
+    this.allocatedMeter = metricRegistry.meter(name(ResponseBufferPool.class, "allocated"));
+    this.reusedMeter    = metricRegistry.meter(name(ResponseBufferPool.class, "reused"   ));
+    this.discardedMeter = metricRegistry.meter(name(ResponseBufferPool.class, "discarded"));
+  }
+
+  public ResponseBuffer acquire() {
+    ResponseBuffer buffer = buffers.poll();
+
+    if (buffer != null) {
+      reusedMeter.mark();
+      return buffer;
+    }
+
+    allocatedMeter.mark();
+    return new ResponseBuffer(getTargetCapacity());
+  }
+
+  public void release(ResponseBuffer buffer) {
+    averageSize = (averageSize * SIZE_DECAY) + (buffer.size() * (1 - SIZE_DECAY));
+
+    // Buffers grown by a rare large response are dropped rather than pinned in the pool
+    if (buffer.capacity() > getTargetCapacity() * OVERSIZE_RATIO) {
+      discardedMeter.mark();
+      return;
+    }
+
+    buffer.reset();
+
+    if (!buffers.offer(buffer)) {
+      discardedMeter.mark();
+    }
+  }
+
+  private int getTargetCapacity() {
+    return Math.max(MIN_CAPACITY, Integer.highestOneBit((int)(averageSize * 2) - 1) << 1);
+  }
+}
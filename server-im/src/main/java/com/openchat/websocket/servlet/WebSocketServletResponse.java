@@ -8,14 +8,12 @@ import com.openchat.websocket.messages.WebSocketMessageFactory;
 import javax.servlet.ServletOutputStream;
 import javax.servlet.http.Cookie;
 import javax.servlet.http.HttpServletResponse;
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.PrintWriter;
-import java.nio.ByteBuffer;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.LinkedList;
 import java.util.Locale;
-import com.google.common.base.Optional;
 
 
 public class WebSocketServletResponse implements HttpServletResponse {
@@ -26,18 +24,23 @@ public class WebSocketServletResponse implements HttpServletResponse {
   private final RemoteEndpoint          endPoint;
   private final long                    requestId;
   private final WebSocketMessageFactory messageFactory;
+  private final ResponseBufferPool      bufferPool;
+  private final ResponseBuffer          responseBody;
+  private final ServletOutputStream     servletOutputStream;
 
-  private ResponseBuilder       responseBuilder     = new ResponseBuilder();
-  private ByteArrayOutputStream responseBody        = new ByteArrayOutputStream();
-  private ServletOutputStream   servletOutputStream = new BufferingServletOutputStream(responseBody);
-  private boolean               isCommitted         = false;
+  private ResponseBuilder responseBuilder = new ResponseBuilder();
+  private boolean         isCommitted     = false;
 
   public WebSocketServletResponse(RemoteEndpoint endPoint, long requestId,
-                                  WebSocketMessageFactory messageFactory)
+                                  WebSocketMessageFactory messageFactory,
+                                  ResponseBufferPool bufferPool)
   {
-    this.endPoint       = endPoint;
-    this.requestId      = requestId;
-    this.messageFactory = messageFactory;
+    this.endPoint            = endPoint;
+    this.requestId           = requestId;
+    this.messageFactory      = messageFactory;
+    this.bufferPool          = bufferPool;
+    this.responseBody        = bufferPool.acquire();
+    this.servletOutputStream = new BufferingServletOutputStream(responseBody);
 
     this.responseBuilder.setRequestId(requestId);
   }
@@ -177,21 +180,14 @@ public class WebSocketServletResponse implements HttpServletResponse {
   @Override
   public void flushBuffer() throws IOException {
     if (!isCommitted) {
-      byte[] body = responseBody.toByteArray();
-
-      if (body.length <= 0) {
-        body = null;
-      }
-
-      byte[] response = messageFactory.createResponse(responseBuilder.getRequestId(),
-                                                      responseBuilder.getStatusCode(),
-                                                      responseBuilder.getMessage(),
-                                                      new LinkedList<>(),
-                                                      Optional.fromNullable(body))
-                                      .toByteArray();
-
-      endPoint.sendBytesByFuture(ByteBuffer.wrap(response));
       isCommitted = true;
+
+      endPoint.sendBytes(messageFactory.createResponseFrame(responseBuilder.getRequestId(),
+                                                            responseBuilder.getStatusCode(),
+                                                            responseBuilder.getMessage(),
+                                                            Collections.<String>emptyList(),
+                                                            responseBody),
+                         new ReleasingWriteCallback(bufferPool, responseBody));
     }
   }
 
@@ -2,14 +2,22 @@ package com.openchat.websocket.setup;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
 import org.eclipse.jetty.server.RequestLog;
+import com.google.common.base.Optional;
 import org.glassfish.jersey.servlet.ServletContainer;
+import com.openchat.websocket.WebSocketHandlerRegistry;
+import com.openchat.websocket.WebSocketRequestExecutor;
 import com.openchat.websocket.auth.WebSocketAuthenticator;
 import com.openchat.websocket.configuration.WebSocketConfiguration;
 import com.openchat.websocket.messages.WebSocketMessageFactory;
 import com.openchat.websocket.messages.protobuf.ProtobufWebSocketMessageFactory;
+import com.openchat.websocket.servlet.ResponseBufferPool;
 
 import javax.servlet.http.HttpServlet;
 import javax.validation.Validator;
+import javax.ws.rs.ext.ExceptionMapper;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
 
 import io.dropwizard.jersey.DropwizardResourceConfig;
 import io.dropwizard.jersey.setup.JerseyContainerHolder;
@@ -18,6 +26,8 @@ import io.dropwizard.setup.Environment;
 
 public class WebSocketEnvironment {
 
+  private static final int DEFAULT_RESPONSE_BUFFER_POOL_SIZE = 64;
+
   private final JerseyContainerHolder jerseyServletContainer;
   private final JerseyEnvironment     jerseyEnvironment;
   private final ObjectMapper          objectMapper;
@@ -25,6 +35,10 @@ public class WebSocketEnvironment {
   private final RequestLog            requestLog;
   private final long                  idleTimeoutMillis;
 
+  private final Optional<WebSocketRequestExecutor> requestExecutor;
+  private final WebSocketHandlerRegistry           handlers;
+  private final ResponseBufferPool                 responseBufferPool;
+
   private WebSocketAuthenticator   authenticator;
   private WebSocketMessageFactory  messageFactory;
   private WebSocketConnectListener connectListener;
@@ -34,10 +48,18 @@ public class WebSocketEnvironment {
   }
 
   public WebSocketEnvironment(Environment environment, WebSocketConfiguration configuration, long idleTimeoutMillis) {
-    this(environment, configuration.getRequestLog().build("websocket"), idleTimeoutMillis);
+    this(environment, configuration.getRequestLog().build("websocket"), idleTimeoutMillis,
+         buildRequestExecutor(environment, configuration), configuration.getResponseBufferPoolSize());
   }
 
   public WebSocketEnvironment(Environment environment, RequestLog requestLog, long idleTimeoutMillis) {
+    this(environment, requestLog, idleTimeoutMillis, Optional.<WebSocketRequestExecutor>absent(), DEFAULT_RESPONSE_BUFFER_POOL_SIZE);
+  }
+
+  public WebSocketEnvironment(Environment environment, RequestLog requestLog, long idleTimeoutMillis,
+                              Optional<WebSocketRequestExecutor> requestExecutor,
+                              int responseBufferPoolSize)
+  {
     DropwizardResourceConfig jerseyConfig = new DropwizardResourceConfig(environment.metrics());
 
     this.objectMapper           = environment.getObjectMapper();
@@ -47,12 +69,41 @@ public class WebSocketEnvironment {
     this.jerseyEnvironment      = new JerseyEnvironment(jerseyServletContainer, jerseyConfig);
     this.messageFactory         = new ProtobufWebSocketMessageFactory();
     this.idleTimeoutMillis      = idleTimeoutMillis;
+    this.requestExecutor        = requestExecutor;
+    this.handlers               = new WebSocketHandlerRegistry(environment.metrics(), objectMapper, validator);
+    this.responseBufferPool     = new ResponseBufferPool(responseBufferPoolSize, environment.metrics());
+  }
+
+  private static Optional<WebSocketRequestExecutor> buildRequestExecutor(Environment environment, WebSocketConfiguration configuration) {
+    if (configuration.getRequestThreads() == 0) {
+      return Optional.absent();
+    }
+
+    ExecutorService executor = environment.lifecycle()
+                                          .executorService("websocket-request-%d")
+                                          .minThreads(configuration.getRequestThreads())
+                                          .maxThreads(configuration.getRequestThreads())
+                                          .workQueue(new ArrayBlockingQueue<>(configuration.getRequestQueueSize()))
+                                          .rejectedExecutionHandler(new ThreadPoolExecutor.AbortPolicy())
+                                          .build();
+
+    return Optional.of(new WebSocketRequestExecutor(executor, configuration.getMaxPendingRequestsPerConnection(), environment.metrics()));
   }
 
   public JerseyEnvironment jersey() {
     return jerseyEnvironment;
   }
 
+  public WebSocketHandlerRegistry handlers() {
+    return handlers;
+  }
+
+  // Registered with both Jersey and the fast path handlers, so either path answers an exception the same way
+  public <T extends Throwable> void registerExceptionMapper(Class<T> type, ExceptionMapper<T> mapper) {
+    jerseyEnvironment.register(mapper);
+    handlers.registerExceptionMapper(type, mapper);
+  }
+
   public WebSocketAuthenticator getAuthenticator() {
     return authenticator;
   }
@@ -73,6 +124,14 @@ public class WebSocketEnvironment {
     return requestLog;
   }
 
+  public Optional<WebSocketRequestExecutor> getRequestExecutor() {
+    return requestExecutor;
+  }
+
+  public ResponseBufferPool getResponseBufferPool() {
+    return responseBufferPool;
+  }
+
   public Validator getValidator() {
     return validator;
   }
@@ -0,0 +1,12 @@
+-- keys: persisted_count_key
+-- argv: amount
+
+local countKey = KEYS[1]
+local amount   = tonumber(ARGV[1])
+local current  = redis.call("GET", countKey)
+
+if current and tonumber(current) > 0 then
+    return redis.call("DECRBY", countKey, math.min(amount, tonumber(current)))
+end
+
+return 0
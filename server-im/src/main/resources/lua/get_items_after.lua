@@ -0,0 +1,15 @@
+-- keys: queue_key, queue_persisting_lock
+-- argv: after_id (exclusive), limit
+
+local queueKey  = KEYS[1]
+local queueLock = KEYS[2]
+local afterId   = ARGV[1]
+local limit     = ARGV[2]
+
+local locked = redis.call("GET", queueLock)
+
+if locked then
+    return {}
+end
+
+return redis.call("ZRANGEBYSCORE", queueKey, "(" .. afterId, "+inf", "WITHSCORES", "LIMIT", 0, limit)
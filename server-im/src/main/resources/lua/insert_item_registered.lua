@@ -0,0 +1,21 @@
+-- keys: queue_key, queue_metadata_key, queue_index, account_devices_key
+-- argv: message, current_time, sender (source::timestamp), device_id
+
+local queueKey          = KEYS[1]
+local queueMetadataKey  = KEYS[2]
+local queueIndexKey     = KEYS[3]
+local accountDevicesKey = KEYS[4]
+local message           = ARGV[1]
+local currentTime       = ARGV[2]
+local sender            = ARGV[3]
+local deviceId          = ARGV[4]
+
+local messageId = redis.call("HINCRBY", queueMetadataKey, "counter", 1)
+
+redis.call("ZADD", queueKey, "NX", messageId, message)
+redis.call("HSET", queueMetadataKey, sender, messageId)
+redis.call("HSET", queueMetadataKey, messageId, sender)
+redis.call("ZADD", queueIndexKey, "NX", currentTime, queueKey)
+redis.call("SADD", accountDevicesKey, deviceId)
+
+return messageId
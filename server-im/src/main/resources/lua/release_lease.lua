@@ -0,0 +1,11 @@
+-- keys: lease_key
+-- argv: owner
+
+local leaseKey = KEYS[1]
+local owner    = ARGV[1]
+
+if redis.call("GET", leaseKey) == owner then
+    return redis.call("DEL", leaseKey)
+end
+
+return 0
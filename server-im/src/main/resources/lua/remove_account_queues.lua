@@ -0,0 +1,15 @@
+-- keys: account_devices_key, then queue, queue_metadata, persisted_count, queue_index for each device
+-- argv: device ids, in the same order as their keys
+
+local accountDevicesKey = KEYS[1]
+
+for i, deviceId in ipairs(ARGV) do
+    local base     = 1 + ((i - 1) * 4)
+    local queueKey = KEYS[base + 1]
+
+    redis.call("DEL", queueKey, KEYS[base + 2], KEYS[base + 3])
+    redis.call("ZREM", KEYS[base + 4], queueKey)
+    redis.call("SREM", accountDevicesKey, deviceId)
+end
+
+return #ARGV
@@ -0,0 +1,24 @@
+-- keys: queue_key, queue_metadata_key, queue_index
+-- argv: ids to remove
+
+local queueKey         = KEYS[1]
+local queueMetadataKey = KEYS[2]
+local queueIndexKey    = KEYS[3]
+local removedCount     = 0
+
+for _, id in ipairs(ARGV) do
+    removedCount = removedCount + redis.call("ZREMRANGEBYSCORE", queueKey, id, id)
+
+    local senderIndex = redis.call("HGET", queueMetadataKey, id)
+
+    if senderIndex then
+        redis.call("HDEL", queueMetadataKey, senderIndex)
+        redis.call("HDEL", queueMetadataKey, id)
+    end
+end
+
+if (redis.call("ZCARD", queueKey) == 0) then
+    redis.call("ZREM", queueIndexKey, queueKey)
+end
+
+return removedCount
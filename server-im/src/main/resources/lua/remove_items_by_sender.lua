@@ -0,0 +1,29 @@
+-- keys: queue_key, queue_metadata_key, queue_index
+-- argv: senders (source::timestamp) to remove
+
+local queueKey         = KEYS[1]
+local queueMetadataKey = KEYS[2]
+local queueIndexKey    = KEYS[3]
+local removed          = {}
+
+for _, sender in ipairs(ARGV) do
+    local messageId = redis.call("HGET", queueMetadataKey, sender)
+
+    if messageId then
+        local messages = redis.call("ZRANGEBYSCORE", queueKey, messageId, messageId, "LIMIT", 0, 1)
+
+        redis.call("ZREMRANGEBYSCORE", queueKey, messageId, messageId)
+        redis.call("HDEL", queueMetadataKey, sender)
+        redis.call("HDEL", queueMetadataKey, messageId)
+
+        if messages[1] then
+            table.insert(removed, messages[1])
+        end
+    end
+end
+
+if (redis.call("ZCARD", queueKey) == 0) then
+    redis.call("ZREM", queueIndexKey, queueKey)
+end
+
+return removed
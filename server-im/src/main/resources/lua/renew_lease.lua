@@ -0,0 +1,12 @@
+-- keys: lease_key
+-- argv: owner, lease_millis
+
+local leaseKey    = KEYS[1]
+local owner       = ARGV[1]
+local leaseMillis = ARGV[2]
+
+if redis.call("GET", leaseKey) == owner then
+    return redis.call("PEXPIRE", leaseKey, leaseMillis)
+end
+
+return 0
@@ -0,0 +1,13 @@
+-- keys: persisted_count_key
+-- argv: observed_count (empty if the key was absent)
+
+local countKey = KEYS[1]
+local observed = ARGV[1]
+local current  = redis.call("GET", countKey)
+
+if (not current and observed == "") or current == observed then
+    redis.call("SET", countKey, 0)
+    return 1
+end
+
+return 0
@@ -0,0 +1,155 @@
+package com.openchat.dispatch.io;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+public class RedisInputStreamTest {
+
+  private static final byte[] MESSAGE   = "message".getBytes(StandardCharsets.UTF_8);
+  private static final byte[] SUBSCRIBE = "subscribe".getBytes(StandardCharsets.UTF_8);
+
+  @Test
+  public void testHeaders() throws IOException {
+    RedisInputStream inputStream = streamOf("*3\r\n$-1\r\n:1234567\r\n");
+
+    assertEquals(3, inputStream.readHeader('*'));
+    assertEquals(-1, inputStream.readHeader('$'));
+    assertEquals(1234567, inputStream.readHeader(':'));
+  }
+
+  @Test(expected = IOException.class)
+  public void testUnexpectedHeaderPrefix() throws IOException {
+    streamOf("$3\r\n").readHeader('*');
+  }
+
+  @Test(expected = IOException.class)
+  public void testHeaderOutOfRange() throws IOException {
+    streamOf("*4294967296\r\n").readHeader('*');
+  }
+
+  @Test
+  public void testBulk() throws IOException {
+    RedisInputStream inputStream = streamOf("$5\r\nhello\r\n$5\r\n\u00e9t\u00e9\r\n");
+
+    assertArrayEquals("hello".getBytes(StandardCharsets.UTF_8), inputStream.readBulk(inputStream.readHeader('$')));
+    assertEquals("\u00e9t\u00e9", inputStream.readBulkString(inputStream.readHeader('$')));
+  }
+
+  @Test
+  public void testBulkMatch() throws IOException {
+    RedisInputStream inputStream = streamOf("$9\r\nsubscribe\r\n$7\r\nmessage\r\n$7\r\nmassage\r\n");
+
+    assertEquals(1, inputStream.readBulkMatch(inputStream.readHeader('$'), MESSAGE, SUBSCRIBE));
+    assertEquals(0, inputStream.readBulkMatch(inputStream.readHeader('$'), MESSAGE, SUBSCRIBE));
+    assertEquals(-1, inputStream.readBulkMatch(inputStream.readHeader('$'), MESSAGE, SUBSCRIBE));
+  }
+
+  @Test
+  public void testBulkLargerThanBuffer() throws IOException {
+    byte[] payload = new byte[40 * 1024];
+    Arrays.fill(payload, (byte)'x');
+
+    byte[] reply = concat(("$" + payload.length + "\r\n").getBytes(StandardCharsets.UTF_8), payload,
+                          "\r\n".getBytes(StandardCharsets.UTF_8),
+                          ("$" + payload.length + "\r\n").getBytes(StandardCharsets.UTF_8), payload,
+                          "\r\n:1\r\n".getBytes(StandardCharsets.UTF_8));
+
+    RedisInputStream inputStream = new RedisInputStream(new ByteArrayInputStream(reply));
+
+    assertArrayEquals(payload, inputStream.readBulk(inputStream.readHeader('$')));
+    assertEquals(new String(payload, StandardCharsets.UTF_8), inputStream.readBulkString(inputStream.readHeader('$')));
+    assertEquals(1, inputStream.readHeader(':'));
+  }
+
+  @Test
+  public void testFragmentedReads() throws IOException {
+    byte[]           reply       = "*3\r\n$7\r\nmessage\r\n$7\r\nchannel\r\n$5\r\nhello\r\n".getBytes(StandardCharsets.UTF_8);
+    RedisInputStream inputStream = new RedisInputStream(new TrickleInputStream(reply));
+
+    assertEquals(3, inputStream.readHeader('*'));
+    assertEquals(0, inputStream.readBulkMatch(inputStream.readHeader('$'), MESSAGE, SUBSCRIBE));
+    assertEquals("channel", inputStream.readBulkString(inputStream.readHeader('$')));
+    assertArrayEquals("hello".getBytes(StandardCharsets.UTF_8), inputStream.readBulk(inputStream.readHeader('$')));
+  }
+
+  @Test(expected = IOException.class)
+  public void testTruncatedBulk() throws IOException {
+    RedisInputStream inputStream = streamOf("$10\r\nhello");
+    inputStream.readBulk(inputStream.readHeader('$'));
+  }
+
+  @Test(expected = IOException.class)
+  public void testMissingTerminator() throws IOException {
+    RedisInputStream inputStream = streamOf("$5\r\nhello!!");
+    inputStream.readBulk(inputStream.readHeader('$'));
+  }
+
+  @Test(expected = IOException.class)
+  public void testNullBulk() throws IOException {
+    RedisInputStream inputStream = streamOf("$-1\r\n");
+    inputStream.readBulk(inputStream.readHeader('$'));
+  }
+
+  @Test(expected = IOException.class)
+  public void testNullBulkString() throws IOException {
+    RedisInputStream inputStream = streamOf("$-1\r\n");
+    inputStream.readBulkString(inputStream.readHeader('$'));
+  }
+
+  @Test(expected = IOException.class)
+  public void testNullBulkMatch() throws IOException {
+    RedisInputStream inputStream = streamOf("$-1\r\n");
+    inputStream.readBulkMatch(inputStream.readHeader('$'), MESSAGE, SUBSCRIBE);
+  }
+
+  private static RedisInputStream streamOf(String data) {
+    return new RedisInputStream(new ByteArrayInputStream(data.getBytes(StandardCharsets.UTF_8)));
+  }
+
+  private static byte[] concat(byte[]... parts) {
+    int length = 0;
+
+    for (byte[] part : parts) length += part.length;
+
+    byte[] result = new byte[length];
+    int    offset = 0;
+
+    for (byte[] part : parts) {
+      System.arraycopy(part, 0, result, offset, part.length);
+      offset += part.length;
+    }
+
+    return result;
+  }
+
+  private static class TrickleInputStream extends InputStream {
+    private final byte[] data;
+    private       int    position;
+
+    private TrickleInputStream(byte[] data) {
+      this.data = data;
+    }
+
+    @Override
+    public int read() {
+      return position < data.length ? data[position++] & 0xff : -1;
+    }
+
+    @Override
+    public int read(byte[] buffer, int offset, int length) {
+      if (position >= data.length) return -1;
+      if (length == 0)             return 0;
+
+      buffer[offset] = data[position++];
+      return 1;
+    }
+  }
+}
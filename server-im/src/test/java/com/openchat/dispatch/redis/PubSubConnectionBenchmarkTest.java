@@ -0,0 +1,214 @@
+package com.openchat.dispatch.redis;
+
+import com.google.common.base.Optional;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import com.openchat.secureim.util.Benchmark;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+@Category(Benchmark.class)
+public class PubSubConnectionBenchmarkTest {
+
+  private static final Logger logger = LoggerFactory.getLogger(PubSubConnectionBenchmarkTest.class);
+
+  private static final int MESSAGES     = 50_000;
+  private static final int PAYLOAD_SIZE = 512;
+  private static final int ROUNDS       = 5;
+
+  @Test
+  public void testParseThroughput() throws IOException {
+    byte[] payload = new byte[PAYLOAD_SIZE];
+    Arrays.fill(payload, (byte)'x');
+
+    byte[] stream  = createStream(payload);
+    long   current = Long.MAX_VALUE;
+    long   legacy  = Long.MAX_VALUE;
+
+    for (int round = 0; round < ROUNDS; round++) {
+      final PubSubConnection connection = new PubSubConnection(mockSocket(stream));
+
+      current = Math.min(current, parse(payload, new Reader() {
+        @Override
+        public PubSubReply read() throws IOException {
+          return connection.read();
+        }
+      }));
+
+      final LegacyReader legacyReader = new LegacyReader(new ByteArrayInputStream(stream));
+
+      legacy = Math.min(legacy, parse(payload, new Reader() {
+        @Override
+        public PubSubReply read() throws IOException {
+          return legacyReader.read();
+        }
+      }));
+    }
+
+    logger.info(String.format("%d messages of %d bytes: PubSubConnection %d ms (%.0f messages/s), readLine parser %d ms (%.0f messages/s)",
+                              MESSAGES, PAYLOAD_SIZE,
+                              TimeUnit.NANOSECONDS.toMillis(current), MESSAGES / (current / 1_000_000_000.0),
+                              TimeUnit.NANOSECONDS.toMillis(legacy), MESSAGES / (legacy / 1_000_000_000.0)));
+  }
+
+  private static long parse(byte[] payload, Reader reader) throws IOException {
+    long start = System.nanoTime();
+
+    assertEquals(PubSubReply.Type.SUBSCRIBE, reader.read().getType());
+
+    for (int i = 0; i < MESSAGES; i++) {
+      PubSubReply reply = reader.read();
+
+      if (i == 0 || i == MESSAGES - 1) {
+        assertEquals(PubSubReply.Type.MESSAGE, reply.getType());
+        assertEquals("channel::" + (i % 100), reply.getChannel());
+        assertArrayEquals(payload, reply.getContent().get());
+      }
+    }
+
+    assertEquals(PubSubReply.Type.UNSUBSCRIBE, reader.read().getType());
+
+    return System.nanoTime() - start;
+  }
+
+  private static byte[] createStream(byte[] payload) throws IOException {
+    ByteArrayOutputStream stream = new ByteArrayOutputStream(MESSAGES * (PAYLOAD_SIZE + 48));
+
+    stream.write("*3\r\n$9\r\nsubscribe\r\n$10\r\nchannel::0\r\n:1\r\n".getBytes(StandardCharsets.UTF_8));
+
+    for (int i = 0; i < MESSAGES; i++) {
+      byte[] channel = ("channel::" + (i % 100)).getBytes(StandardCharsets.UTF_8);
+
+      stream.write(("*3\r\n$7\r\nmessage\r\n$" + channel.length + "\r\n").getBytes(StandardCharsets.UTF_8));
+      stream.write(channel);
+      stream.write(("\r\n$" + payload.length + "\r\n").getBytes(StandardCharsets.UTF_8));
+      stream.write(payload);
+      stream.write("\r\n".getBytes(StandardCharsets.UTF_8));
+    }
+
+    stream.write("*3\r\n$11\r\nunsubscribe\r\n$10\r\nchannel::0\r\n:0\r\n".getBytes(StandardCharsets.UTF_8));
+
+    return stream.toByteArray();
+  }
+
+  private static Socket mockSocket(byte[] stream) throws IOException {
+    Socket socket = mock(Socket.class);
+
+    when(socket.getInputStream()).thenReturn(new ByteArrayInputStream(stream));
+    when(socket.getOutputStream()).thenReturn(new ByteArrayOutputStream());
+
+    return socket;
+  }
+
+  private interface Reader {
+    public PubSubReply read() throws IOException;
+  }
+
+  // The parser PubSubConnection used before the buffered RedisInputStream: one readLine() per
+  // header, a byte at a time, parsed through String.
+  private static class LegacyReader {
+
+    private static final byte[] UNSUBSCRIBE_TYPE = "unsubscribe".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] SUBSCRIBE_TYPE   = "subscribe".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] MESSAGE_TYPE     = "message".getBytes(StandardCharsets.UTF_8);
+
+    private final InputStream inputStream;
+
+    private LegacyReader(InputStream inputStream) {
+      this.inputStream = new BufferedInputStream(inputStream);
+    }
+
+    private PubSubReply read() throws IOException {
+      int elementCount = parseHeader('*', readLine());
+
+      if (elementCount != 3) {
+        throw new IOException("Received array reply header with strange count: " + elementCount);
+      }
+
+      byte[] replyType = readBulk();
+
+      if (Arrays.equals(SUBSCRIBE_TYPE, replyType)) {
+        String channelName = new String(readBulk());
+        parseHeader(':', readLine());
+        return new PubSubReply(PubSubReply.Type.SUBSCRIBE, channelName, Optional.<byte[]>absent());
+      } else if (Arrays.equals(UNSUBSCRIBE_TYPE, replyType)) {
+        String channelName = new String(readBulk());
+        parseHeader(':', readLine());
+        return new PubSubReply(PubSubReply.Type.UNSUBSCRIBE, channelName, Optional.<byte[]>absent());
+      } else if (Arrays.equals(MESSAGE_TYPE, replyType)) {
+        String channelName = new String(readBulk());
+        byte[] message     = readBulk();
+        return new PubSubReply(PubSubReply.Type.MESSAGE, channelName, Optional.of(message));
+      } else {
+        throw new IOException("Unknown reply type: " + new String(replyType));
+      }
+    }
+
+    private byte[] readBulk() throws IOException {
+      byte[] result    = new byte[parseHeader('$', readLine())];
+      int    offset    = 0;
+      int    remaining = result.length;
+
+      while (remaining > 0) {
+        int read = inputStream.read(result, offset, remaining);
+
+        if (read < 0) throw new IOException("Stream closed!");
+
+        offset    += read;
+        remaining -= read;
+      }
+
+      readLine();
+      return result;
+    }
+
+    private String readLine() throws IOException {
+      ByteArrayOutputStream boas    = new ByteArrayOutputStream();
+      boolean               foundCr = false;
+
+      while (true) {
+        int character = inputStream.read();
+
+        if (character == -1) {
+          throw new IOException("Stream closed!");
+        }
+
+        boas.write(character);
+
+        if      (foundCr && character == '\n') break;
+        else if (character == '\r')            foundCr = true;
+        else if (foundCr)                      foundCr = false;
+      }
+
+      byte[] data = boas.toByteArray();
+      return new String(data, 0, data.length - 2);
+    }
+
+    private static int parseHeader(char prefix, String header) throws IOException {
+      if (header.length() < 2 || header.charAt(0) != prefix) {
+        throw new IOException("Invalid reply header: " + header);
+      }
+
+      try {
+        return Integer.parseInt(header.substring(1));
+      } catch (NumberFormatException e) {
+        throw new IOException(e);
+      }
+    }
+  }
+}
@@ -0,0 +1,166 @@
+package com.openchat.secureim.presence;
+
+import com.google.common.base.Optional;
+import com.google.common.util.concurrent.ListenableFuture;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import com.openchat.dispatch.DispatchManager;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class NodeRouterTest {
+
+  private static final byte[] SECRET      = "secret".getBytes();
+  private static final String LOCAL_NODE  = "node-a";
+  private static final String REMOTE_NODE = "node-b";
+  private static final String CHANNEL     = "+14151111111:1";
+
+  private ScheduledExecutorService executor;
+  private PresenceRegistry         presenceRegistry;
+  private DispatchManager          remoteDispatchManager;
+  private NodeLinkServer           remoteServer;
+
+  @Before
+  public void setup() throws IOException {
+    executor              = Executors.newScheduledThreadPool(2);
+    presenceRegistry      = mock(PresenceRegistry.class);
+    remoteDispatchManager = mock(DispatchManager.class);
+
+    when(presenceRegistry.getNodeId()).thenReturn(LOCAL_NODE);
+    when(presenceRegistry.getNode(CHANNEL)).thenReturn(Optional.of(REMOTE_NODE));
+    when(remoteDispatchManager.dispatchLocal(eq(CHANNEL), any(byte[].class))).thenReturn(true);
+  }
+
+  @After
+  public void teardown() throws IOException {
+    if (remoteServer != null) remoteServer.stop();
+    executor.shutdownNow();
+  }
+
+  @Test
+  public void testRoutesToOwningNode() throws Exception {
+    remoteServer = startServer(remoteDispatchManager, SECRET);
+
+    NodeRouter router = new NodeRouter(presenceRegistry, SECRET, 1000, executor);
+
+    assertTrue(awaitDelivered(router, 5000));
+    verify(remoteDispatchManager, timeout(1000)).dispatchLocal(eq(CHANNEL), any(byte[].class));
+  }
+
+  @Test
+  public void testUnroutedWithoutPresence() {
+    NodeRouter router = new NodeRouter(presenceRegistry, SECRET, 1000, executor);
+
+    when(presenceRegistry.getNode(CHANNEL)).thenReturn(Optional.<String>absent());
+    assertFalse(router.route(CHANNEL, "hello".getBytes()).isPresent());
+
+    when(presenceRegistry.getNode(CHANNEL)).thenReturn(Optional.of(LOCAL_NODE));
+    assertFalse(router.route(CHANNEL, "hello".getBytes()).isPresent());
+  }
+
+  @Test
+  public void testBadSecretIsNotDelivered() throws Exception {
+    remoteServer = startServer(remoteDispatchManager, "other".getBytes());
+
+    NodeRouter router = new NodeRouter(presenceRegistry, SECRET, 1000, executor);
+
+    assertFalse(awaitDelivered(router, 1500));
+  }
+
+  @Test
+  public void testReplyTimeoutFallsBack() throws Exception {
+    final ServerSocket silent = new ServerSocket(0);
+
+    new Thread() {
+      @Override
+      public void run() {
+        try (Socket connection = silent.accept()) {
+          while (connection.getInputStream().read() != -1);
+        } catch (IOException e) {
+          // closed
+        }
+      }
+    }.start();
+
+    try {
+      when(presenceRegistry.getNodeAddress(REMOTE_NODE)).thenReturn(Optional.of("127.0.0.1:" + silent.getLocalPort()));
+
+      NodeRouter router = new NodeRouter(presenceRegistry, SECRET, 200, executor);
+
+      router.route(CHANNEL, "hello".getBytes());
+      Thread.sleep(300);
+
+      ListenableFuture<Boolean> result = router.route(CHANNEL, "hello".getBytes()).get();
+      assertFalse(result.get(2, TimeUnit.SECONDS));
+    } finally {
+      silent.close();
+    }
+  }
+
+  @Test
+  public void testEvictsAndReresolvesFailedLink() throws Exception {
+    remoteServer = startServer(remoteDispatchManager, SECRET);
+
+    NodeRouter router = new NodeRouter(presenceRegistry, SECRET, 1000, executor);
+
+    assertTrue(awaitDelivered(router, 5000));
+
+    remoteServer.stop();
+    remoteServer = null;
+
+    DispatchManager movedDispatchManager = mock(DispatchManager.class);
+    when(movedDispatchManager.dispatchLocal(eq(CHANNEL), any(byte[].class))).thenReturn(true);
+
+    remoteServer = startServer(movedDispatchManager, SECRET);
+
+    assertTrue(awaitDelivered(router, 5000));
+    verify(movedDispatchManager, timeout(1000)).dispatchLocal(eq(CHANNEL), any(byte[].class));
+  }
+
+  private NodeLinkServer startServer(DispatchManager dispatchManager, byte[] secret) throws IOException {
+    int port;
+
+    try (ServerSocket socket = new ServerSocket(0)) {
+      port = socket.getLocalPort();
+    }
+
+    NodeLinkServer server = new NodeLinkServer(dispatchManager, "127.0.0.1", port, secret);
+    server.start();
+
+    when(presenceRegistry.getNodeAddress(REMOTE_NODE)).thenReturn(Optional.of("127.0.0.1:" + port));
+
+    return server;
+  }
+
+  // The first sends only start the connect and resolve to false, like the broadcast fallback would see.
+  private boolean awaitDelivered(NodeRouter router, long timeoutMillis) throws Exception {
+    long deadline = System.currentTimeMillis() + timeoutMillis;
+
+    while (System.currentTimeMillis() < deadline) {
+      Optional<ListenableFuture<Boolean>> result = router.route(CHANNEL, "hello".getBytes());
+
+      if (result.isPresent() && result.get().get(2, TimeUnit.SECONDS)) {
+        return true;
+      }
+
+      Thread.sleep(50);
+    }
+
+    return false;
+  }
+}
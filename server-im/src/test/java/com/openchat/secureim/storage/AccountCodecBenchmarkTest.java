@@ -0,0 +1,66 @@
+package com.openchat.secureim.storage;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import com.openchat.secureim.util.Benchmark;
+import com.openchat.secureim.util.SystemMapper;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+@Category(Benchmark.class)
+public class AccountCodecBenchmarkTest {
+
+  private static final Logger logger = LoggerFactory.getLogger(AccountCodecBenchmarkTest.class);
+
+  private static final int ITERATIONS = 50_000;
+  private static final int ROUNDS     = 5;
+
+  private final ObjectMapper mapper = SystemMapper.getMapper();
+
+  @Test
+  public void testEncodeDecodeThroughput() throws IOException {
+    Account account = AccountCodecTest.createAccount();
+    byte[]  compact = AccountCodec.encode(account);
+    byte[]  json    = mapper.writeValueAsBytes(account);
+
+    long compactEncode = Long.MAX_VALUE, compactDecode = Long.MAX_VALUE;
+    long jsonEncode    = Long.MAX_VALUE, jsonDecode    = Long.MAX_VALUE;
+    int  sink          = 0;
+
+    for (int round = 0; round < ROUNDS; round++) {
+      long start = System.nanoTime();
+      for (int i = 0; i < ITERATIONS; i++) sink += AccountCodec.encode(account).length;
+      compactEncode = Math.min(compactEncode, System.nanoTime() - start);
+
+      start = System.nanoTime();
+      for (int i = 0; i < ITERATIONS; i++) sink += AccountCodec.decode(compact).getDevices().size();
+      compactDecode = Math.min(compactDecode, System.nanoTime() - start);
+
+      start = System.nanoTime();
+      for (int i = 0; i < ITERATIONS; i++) sink += mapper.writeValueAsBytes(account).length;
+      jsonEncode = Math.min(jsonEncode, System.nanoTime() - start);
+
+      start = System.nanoTime();
+      for (int i = 0; i < ITERATIONS; i++) sink += mapper.readValue(json, Account.class).getDevices().size();
+      jsonDecode = Math.min(jsonDecode, System.nanoTime() - start);
+    }
+
+    logger.info(String.format("AccountCodec: %d bytes, encode %d ms, decode %d ms for %d accounts",
+                              compact.length, TimeUnit.NANOSECONDS.toMillis(compactEncode),
+                              TimeUnit.NANOSECONDS.toMillis(compactDecode), ITERATIONS));
+    logger.info(String.format("JSON:         %d bytes, encode %d ms, decode %d ms for %d accounts",
+                              json.length, TimeUnit.NANOSECONDS.toMillis(jsonEncode),
+                              TimeUnit.NANOSECONDS.toMillis(jsonDecode), ITERATIONS));
+
+    assertTrue(sink != 0);
+    assertEquals(account.getDevices().size(), AccountCodec.decode(compact).getDevices().size());
+    assertTrue(compact.length < json.length);
+  }
+}
@@ -0,0 +1,152 @@
+package com.openchat.secureim.storage;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.protobuf.CodedOutputStream;
+import com.google.protobuf.InvalidProtocolBufferException;
+import org.junit.Test;
+import com.openchat.secureim.entities.SignedPreKey;
+import com.openchat.secureim.util.Base64;
+import com.openchat.secureim.util.SystemMapper;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class AccountCodecTest {
+
+  private static final ObjectMapper mapper = SystemMapper.getMapper();
+
+  @Test
+  public void testRoundTrip() throws IOException {
+    Account account = createAccount();
+    Account decoded = AccountCodec.decode(AccountCodec.encode(account));
+
+    assertSameAccount(account, decoded);
+    assertEquals(3, decoded.getDevices().size());
+    assertEquals("1234", decoded.getPin().get());
+    assertEquals(1500000000123L, decoded.getDevice(1).get().getPushTimestamp());
+    assertEquals(0, decoded.getDevice(2).get().getPushTimestamp());
+  }
+
+  @Test
+  public void testNonCanonicalKeysArePreserved() throws IOException {
+    Account account = createAccount();
+    account.setIdentityKey("not base64!");
+    account.getDevice(2).get().setSignedPreKey(new SignedPreKey(7, "BQ==\n", "c2ln"));
+
+    Account decoded = AccountCodec.decode(AccountCodec.encode(account));
+
+    assertEquals("not base64!", decoded.getIdentityKey());
+    assertEquals("BQ==\n", decoded.getDevice(2).get().getSignedPreKey().getPublicKey());
+    assertSameAccount(account, decoded);
+  }
+
+  @Test
+  public void testEmptyAccount() throws IOException {
+    Account account = new Account();
+    account.setNumber("+14152222222");
+    account.addDevice(new Device(1, null, null, null, null, null, null, null, false, 0, null, 0, 0, false, false, null));
+
+    Account decoded = AccountCodec.decode(AccountCodec.encode(account));
+
+    assertEquals("+14152222222", decoded.getNumber());
+    assertNull(decoded.getIdentityKey());
+    assertNull(decoded.getName());
+    assertFalse(decoded.getPin().isPresent());
+    assertNull(decoded.getDevice(1).get().getSignedPreKey());
+    assertSameAccount(account, decoded);
+  }
+
+  @Test
+  public void testJsonIsNotEncoded() throws IOException {
+    assertTrue(AccountCodec.isEncoded(AccountCodec.encode(createAccount())));
+    assertFalse(AccountCodec.isEncoded(mapper.writeValueAsBytes(createAccount())));
+    assertFalse(AccountCodec.isEncoded(new byte[0]));
+  }
+
+  @Test(expected = InvalidProtocolBufferException.class)
+  public void testUnsupportedVersion() throws IOException {
+    byte[] encoded = AccountCodec.encode(createAccount());
+    encoded[1]++;
+
+    AccountCodec.decode(encoded);
+  }
+
+  @Test(expected = InvalidProtocolBufferException.class)
+  public void testNotEncoded() throws IOException {
+    AccountCodec.decode(mapper.writeValueAsBytes(createAccount()));
+  }
+
+  @Test
+  public void testUnknownFieldsAreSkipped() throws IOException {
+    Account               account = createAccount();
+    ByteArrayOutputStream baos    = new ByteArrayOutputStream();
+    CodedOutputStream     output  = CodedOutputStream.newInstance(baos);
+
+    output.writeRawBytes(AccountCodec.encode(account));
+    output.writeString(99, "from a newer version");
+    output.writeUInt64(100, 42);
+    output.flush();
+
+    assertSameAccount(account, AccountCodec.decode(baos.toByteArray()));
+  }
+
+  @Test
+  public void testSmallerThanJson() throws IOException {
+    Account account = createAccount();
+
+    assertTrue(AccountCodec.encode(account).length < mapper.writeValueAsBytes(account).length);
+  }
+
+  static Account createAccount() {
+    Account account = new Account();
+    account.setNumber("+14151111111");
+    account.setIdentityKey(base64(33, 1));
+    account.setName(base64(81, 2));
+    account.setAvatar("profiles/" + base64(16, 3).replace('/', '_'));
+    account.setAvatarDigest(base64(32, 4));
+    account.setPin("1234");
+
+    for (int i = 1; i <= 3; i++) {
+      Device device = new Device(i, base64(40, 10 + i), "hashed-token-" + i, "salt-" + i, base64(52, 20 + i),
+                                 i == 1 ? "gcm-" + i : null, i == 2 ? "apn-" + i : null, i == 2 ? "voip-" + i : null,
+                                 i != 3, 1000 + i, new SignedPreKey(100 + i, base64(33, 30 + i), base64(64, 40 + i)),
+                                 1499990400000L, 1400000000000L + i, i != 2, i == 1, "OpenChat-Android 4." + i);
+
+      if (i == 1) device.setPushTimestamp(1500000000123L);
+
+      account.addDevice(device);
+    }
+
+    return account;
+  }
+
+  private static String base64(int length, int seed) {
+    byte[] bytes = new byte[length];
+    Arrays.fill(bytes, (byte)seed);
+
+    return Base64.encodeBytes(bytes);
+  }
+
+  private static void assertSameAccount(Account expected, Account actual) {
+    assertEquals(expected.getNumber(), actual.getNumber());
+    assertEquals(expected.getIdentityKey(), actual.getIdentityKey());
+    assertEquals(expected.getName(), actual.getName());
+    assertEquals(expected.getAvatar(), actual.getAvatar());
+    assertEquals(expected.getAvatarDigest(), actual.getAvatarDigest());
+    assertEquals(expected.getPin(), actual.getPin());
+    assertEquals(expected.getDevices().size(), actual.getDevices().size());
+
+    for (Device device : expected.getDevices()) {
+      Device match = actual.getDevice(device.getId()).get();
+
+      assertEquals(mapper.valueToTree(device), mapper.valueToTree(match));
+      assertEquals(device.getPushTimestamp(), match.getPushTimestamp());
+    }
+  }
+}
@@ -0,0 +1,126 @@
+package com.openchat.secureim.storage;
+
+import com.codahale.metrics.SharedMetricRegistries;
+import org.junit.Before;
+import org.junit.Test;
+import com.openchat.secureim.redis.ReplicatedJedisPool;
+import com.openchat.secureim.util.Constants;
+import com.openchat.secureim.util.Util;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.Pipeline;
+import redis.clients.jedis.Response;
+import static com.codahale.metrics.MetricRegistry.name;
+import static org.junit.Assert.assertEquals;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class LastSeenTrackerTest {
+
+  private static final String NUMBER    = "+14151111111";
+  private static final long   YESTERDAY = Util.todayInMillis() - 86400000L;
+
+  private ReplicatedJedisPool cacheClient;
+  private Jedis               jedis;
+  private Pipeline            pipeline;
+
+  @Before
+  public void setup() {
+    cacheClient = mock(ReplicatedJedisPool.class);
+    jedis       = mock(Jedis.class);
+    pipeline    = mock(Pipeline.class);
+
+    when(cacheClient.getWriteResource()).thenReturn(jedis);
+    when(jedis.pipelined()).thenReturn(pipeline);
+
+    // Both register gauges in the shared registry when constructed
+    SharedMetricRegistries.getOrCreate(Constants.METRICS_NAME).remove(name(LastSeenTracker.class, "pending"));
+    SharedMetricRegistries.getOrCreate(Constants.METRICS_NAME).remove(name(AccountCache.class, "size"));
+  }
+
+  @Test
+  public void testFlushesToHash() {
+    LastSeenTracker tracker = new LastSeenTracker(cacheClient, 3600, 100);
+    Account         account = createAccount();
+
+    tracker.start();
+    tracker.record(account, account.getDevice(1).get());
+    tracker.record(account, account.getDevice(1).get());
+    tracker.stop();
+
+    assertEquals(Util.todayInMillis(), account.getDevice(1).get().getLastSeen());
+
+    verify(pipeline, times(1)).hset(LastSeenTracker.getKey(NUMBER), "1", String.valueOf(Util.todayInMillis()));
+    verify(pipeline, never()).del(anyString());
+  }
+
+  @Test
+  public void testMergesFlushedAndPendingValues() {
+    LastSeenTracker tracker = new LastSeenTracker(cacheClient, 3600, 100);
+    Account         account = createAccount();
+    Account         loaded  = createAccount();
+
+    tracker.record(account, account.getDevice(1).get());
+    tracker.merge(loaded, Collections.singletonMap("2", String.valueOf(YESTERDAY + 1000)));
+
+    assertEquals(Util.todayInMillis(), loaded.getDevice(1).get().getLastSeen());
+    assertEquals(YESTERDAY + 1000, loaded.getDevice(2).get().getLastSeen());
+  }
+
+  @Test
+  @SuppressWarnings("unchecked")
+  public void testMergesChunkInOnePipeline() {
+    Response<Map<String, String>> persisted = mock(Response.class);
+
+    when(cacheClient.getReadResource()).thenReturn(jedis);
+    when(pipeline.hgetAll(LastSeenTracker.getKey(NUMBER))).thenReturn(persisted);
+    when(persisted.get()).thenReturn(Collections.singletonMap("1", String.valueOf(Util.todayInMillis())));
+
+    LastSeenTracker tracker = new LastSeenTracker(cacheClient, 3600, 100);
+    List<Account>   chunk   = Arrays.asList(createAccount(), createAccount());
+
+    tracker.merge(chunk);
+
+    verify(pipeline, times(2)).hgetAll(LastSeenTracker.getKey(NUMBER));
+    verify(pipeline, times(1)).sync();
+
+    for (Account account : chunk) {
+      assertEquals(Util.todayInMillis(), account.getDevice(1).get().getLastSeen());
+      assertEquals(YESTERDAY, account.getDevice(2).get().getLastSeen());
+    }
+  }
+
+  @Test
+  public void testLocalCacheKeepsRecordedValue() {
+    AccountCache accountCache = new AccountCache(100, 60);
+
+    accountCache.put(NUMBER, createAccount(), accountCache.getStamp(NUMBER));
+    accountCache.setLastSeen(NUMBER, 1, Util.todayInMillis());
+
+    Account cached = accountCache.get(NUMBER).get();
+
+    assertEquals(Util.todayInMillis(), cached.getDevice(1).get().getLastSeen());
+    assertEquals(YESTERDAY, cached.getDevice(2).get().getLastSeen());
+  }
+
+  private static Account createAccount() {
+    HashSet<Device> devices = new HashSet<>();
+
+    for (int i = 1; i <= 2; i++) {
+      devices.add(new Device(i, null, "token", "salt", "key", "gcm", null, null, false, i, null,
+                             YESTERDAY, YESTERDAY, false, false, null));
+    }
+
+    return new Account(NUMBER, devices);
+  }
+}
@@ -0,0 +1,5 @@
+package com.openchat.secureim.util;
+
+// JUnit category for timing benchmarks, excluded from `gradle test` and run with `gradle benchmark`.
+public interface Benchmark {
+}
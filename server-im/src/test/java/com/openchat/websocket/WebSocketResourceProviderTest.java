@@ -0,0 +1,128 @@
+package com.openchat.websocket;
+
+import com.codahale.metrics.MetricRegistry;
+import com.google.common.base.Optional;
+import org.eclipse.jetty.server.RequestLog;
+import org.eclipse.jetty.websocket.api.RemoteEndpoint;
+import org.eclipse.jetty.websocket.api.Session;
+import org.eclipse.jetty.websocket.api.WriteCallback;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import com.openchat.secureim.controllers.RateLimitExceededException;
+import com.openchat.secureim.mappers.RateLimitExceededExceptionMapper;
+import com.openchat.websocket.messages.WebSocketMessage;
+import com.openchat.websocket.messages.WebSocketMessageFactory;
+import com.openchat.websocket.setup.WebSocketEnvironment;
+
+import javax.ws.rs.Consumes;
+import javax.ws.rs.PUT;
+import javax.ws.rs.Path;
+import javax.ws.rs.PathParam;
+import javax.ws.rs.Produces;
+import javax.ws.rs.core.MediaType;
+import java.nio.ByteBuffer;
+import java.util.Collections;
+
+import io.dropwizard.jackson.Jackson;
+import io.dropwizard.jersey.validation.Validators;
+import io.dropwizard.setup.Environment;
+import static org.junit.Assert.assertEquals;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class WebSocketResourceProviderTest {
+
+  private static final String SEND_PATH = "/v1/messages/+14152222222";
+
+  private WebSocketEnvironment webSocketEnvironment;
+  private RequestLog           requestLog;
+  private RemoteEndpoint       remoteEndpoint;
+
+  @Before
+  public void setup() throws Exception {
+    Environment environment = new Environment("test", Jackson.newObjectMapper(), Validators.newValidator(),
+                                              new MetricRegistry(), ClassLoader.getSystemClassLoader());
+
+    requestLog           = mock(RequestLog.class);
+    remoteEndpoint       = mock(RemoteEndpoint.class);
+    webSocketEnvironment = new WebSocketEnvironment(environment, requestLog, 60000);
+
+    webSocketEnvironment.jersey().register(new RateLimitedResource());
+    webSocketEnvironment.registerExceptionMapper(RateLimitExceededException.class, new RateLimitExceededExceptionMapper());
+
+    new WebSocketResourceProviderFactory(webSocketEnvironment).start();
+  }
+
+  @Test
+  public void testRateLimitedSendThroughServlet() throws Exception {
+    assertEquals(413, send(SEND_PATH));
+    verify(requestLog).log(any(), any());
+  }
+
+  @Test
+  public void testRateLimitedSendThroughFastPath() throws Exception {
+    webSocketEnvironment.handlers().register("PUT", "/v1/messages/{destination}", request -> {
+      throw new RateLimitExceededException(request.getPathParameter("destination"));
+    });
+
+    assertEquals(413, send(SEND_PATH));
+    verify(requestLog).log(any(), any());
+  }
+
+  @Test
+  public void testUnmappedFastPathFailure() throws Exception {
+    webSocketEnvironment.handlers().register("PUT", "/v1/messages/{destination}", request -> {
+      throw new IllegalStateException("boom");
+    });
+
+    assertEquals(500, send(SEND_PATH));
+  }
+
+  private int send(String path) throws Exception {
+    WebSocketMessageFactory   messageFactory = webSocketEnvironment.getMessageFactory();
+    Session                   session        = mock(Session.class);
+    WebSocketResourceProvider provider       = new WebSocketResourceProvider(webSocketEnvironment.getJerseyServletContainer(),
+                                                                             requestLog, null, messageFactory,
+                                                                             Optional.absent(), Optional.absent(),
+                                                                             webSocketEnvironment.handlers(),
+                                                                             webSocketEnvironment.getResponseBufferPool(),
+                                                                             60000);
+
+    when(session.getRemote()).thenReturn(remoteEndpoint);
+    provider.onWebSocketConnect(session);
+
+    byte[] request = messageFactory.createRequest(Optional.of(1L), "PUT", path,
+                                                  Collections.singletonList("Content-Type:application/json"),
+                                                  Optional.of("{\"messages\":[]}".getBytes()))
+                                   .toByteArray();
+
+    provider.onWebSocketBinary(request, 0, request.length);
+
+    ArgumentCaptor<ByteBuffer> frame = ArgumentCaptor.forClass(ByteBuffer.class);
+    verify(remoteEndpoint).sendBytes(frame.capture(), any(WriteCallback.class));
+
+    byte[] serialized = new byte[frame.getValue().remaining()];
+    frame.getValue().duplicate().get(serialized);
+
+    WebSocketMessage response = messageFactory.parseMessage(serialized, 0, serialized.length);
+    assertEquals(1L, response.getResponseMessage().getRequestId());
+
+    return response.getResponseMessage().getStatus();
+  }
+
+  @Path("/v1/messages")
+  public static class RateLimitedResource {
+    @PUT
+    @Path("/{destination}")
+    @Consumes(MediaType.APPLICATION_JSON)
+    @Produces(MediaType.APPLICATION_JSON)
+    public String sendMessage(@PathParam("destination") String destination, String body)
+        throws RateLimitExceededException
+    {
+      throw new RateLimitExceededException(destination);
+    }
+  }
+}
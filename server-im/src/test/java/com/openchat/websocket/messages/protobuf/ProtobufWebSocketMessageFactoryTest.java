@@ -0,0 +1,107 @@
+package com.openchat.websocket.messages.protobuf;
+
+import com.codahale.metrics.MetricRegistry;
+import com.google.common.base.Optional;
+import org.junit.Test;
+import com.openchat.websocket.messages.InvalidMessageException;
+import com.openchat.websocket.messages.WebSocketMessage;
+import com.openchat.websocket.servlet.ResponseBuffer;
+import com.openchat.websocket.servlet.ResponseBufferPool;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedList;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+public class ProtobufWebSocketMessageFactoryTest {
+
+  private final ProtobufWebSocketMessageFactory factory = new ProtobufWebSocketMessageFactory();
+  private final ResponseBufferPool              pool    = new ResponseBufferPool(16, new MetricRegistry());
+
+  @Test
+  public void testEmptyBody() throws Exception {
+    assertFrameMatches(1, 204, "No Content", Collections.<String>emptyList(), new byte[0]);
+  }
+
+  @Test
+  public void testSmallBody() throws Exception {
+    assertFrameMatches(Long.MAX_VALUE, 200, "OK", Collections.<String>emptyList(), body(300));
+  }
+
+  @Test
+  public void testBodyLargerThanInitialCapacity() throws Exception {
+    assertFrameMatches(12345, 200, "OK", Arrays.asList("Content-Type:application/json"), body(64 * 1024));
+  }
+
+  @Test
+  public void testHeadersLargerThanReserve() throws Exception {
+    List<String> headers = new LinkedList<>();
+
+    for (int i = 0; i < 20; i++) {
+      headers.add("X-Header-" + i + ":" + "value");
+    }
+
+    assertFrameMatches(7, 500, "Internal Server Error", headers, body(100));
+  }
+
+  @Test
+  public void testParsesAsResponse() throws Exception {
+    byte[]         body   = body(100);
+    ResponseBuffer buffer = pool.acquire();
+
+    buffer.write(body, 0, body.length);
+
+    byte[]           frame   = toArray(factory.createResponseFrame(99, 200, "OK", Collections.<String>emptyList(), buffer));
+    WebSocketMessage message = factory.parseMessage(frame, 0, frame.length);
+
+    assertEquals(WebSocketMessage.Type.RESPONSE_MESSAGE, message.getType());
+    assertEquals(99, message.getResponseMessage().getRequestId());
+    assertEquals(200, message.getResponseMessage().getStatus());
+    assertEquals("OK", message.getResponseMessage().getMessage());
+    assertArrayEquals(body, message.getResponseMessage().getBody().get());
+  }
+
+  @Test
+  public void testParsesEmptyBodyAsAbsent() throws Exception {
+    byte[]           frame   = toArray(factory.createResponseFrame(1, 204, "No Content", Collections.<String>emptyList(), pool.acquire()));
+    WebSocketMessage message = factory.parseMessage(frame, 0, frame.length);
+
+    assertFalse(message.getResponseMessage().getBody().isPresent());
+  }
+
+  private void assertFrameMatches(long requestId, int status, String message, List<String> headers, byte[] body)
+      throws InvalidMessageException
+  {
+    ResponseBuffer buffer = pool.acquire();
+    buffer.write(body, 0, body.length);
+
+    byte[] framed   = toArray(factory.createResponseFrame(requestId, status, message, headers, buffer));
+    byte[] expected = factory.createResponse(requestId, status, message, headers,
+                                             body.length > 0 ? Optional.of(body) : Optional.<byte[]>absent()).toByteArray();
+
+    assertArrayEquals(expected, framed);
+
+    pool.release(buffer);
+  }
+
+  private static byte[] toArray(ByteBuffer frame) {
+    byte[] result = new byte[frame.remaining()];
+    frame.duplicate().get(result);
+    return result;
+  }
+
+  private static byte[] body(int length) {
+    byte[] body = new byte[length];
+
+    for (int i = 0; i < length; i++) {
+      body[i] = (byte)(i * 31);
+    }
+
+    return body;
+  }
+}
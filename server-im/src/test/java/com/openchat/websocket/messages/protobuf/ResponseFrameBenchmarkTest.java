@@ -0,0 +1,120 @@
+package com.openchat.websocket.messages.protobuf;
+
+import com.codahale.metrics.MetricRegistry;
+import com.google.common.base.Optional;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import com.openchat.secureim.util.Benchmark;
+import com.openchat.websocket.servlet.ResponseBuffer;
+import com.openchat.websocket.servlet.ResponseBufferPool;
+
+import java.io.ByteArrayOutputStream;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertTrue;
+
+// Compares the response path before pooling (body copied out of a ByteArrayOutputStream into a
+// protobuf message, then serialized again) with the pooled buffer framed in place.
+@Category(Benchmark.class)
+public class ResponseFrameBenchmarkTest {
+
+  private static final Logger logger = LoggerFactory.getLogger(ResponseFrameBenchmarkTest.class);
+
+  private static final int ITERATIONS = 20_000;
+  private static final int BODY_SIZE  = 2048;
+
+  private static final List<String> NO_HEADERS = Collections.emptyList();
+
+  private final ProtobufWebSocketMessageFactory factory = new ProtobufWebSocketMessageFactory();
+  private final ResponseBufferPool              pool    = new ResponseBufferPool(16, new MetricRegistry());
+  private final byte[]                          body    = new byte[BODY_SIZE];
+
+  private long sink;
+
+  @Test
+  public void testResponsePathAllocation() {
+    for (int i = 0; i < 3; i++) {
+      runCopying();
+      runPooled();
+    }
+
+    Measurement copying = measure(new Runnable() {
+      @Override
+      public void run() {
+        runCopying();
+      }
+    });
+
+    Measurement pooled = measure(new Runnable() {
+      @Override
+      public void run() {
+        runPooled();
+      }
+    });
+
+    logger.info(String.format("Copying response path: %d bytes/response, %d ns/response", copying.bytesPerOp, copying.nanosPerOp));
+    logger.info(String.format("Pooled response path:  %d bytes/response, %d ns/response", pooled.bytesPerOp, pooled.nanosPerOp));
+
+    assertTrue(sink != 0);
+  }
+
+  private void runCopying() {
+    for (int i = 0; i < ITERATIONS; i++) {
+      ByteArrayOutputStream responseBody = new ByteArrayOutputStream();
+      responseBody.write(body, 0, body.length);
+
+      byte[] frame = factory.createResponse(i, 200, "OK", NO_HEADERS, Optional.of(responseBody.toByteArray())).toByteArray();
+      sink += frame.length;
+    }
+  }
+
+  private void runPooled() {
+    for (int i = 0; i < ITERATIONS; i++) {
+      ResponseBuffer responseBody = pool.acquire();
+      responseBody.write(body, 0, body.length);
+
+      ByteBuffer frame = factory.createResponseFrame(i, 200, "OK", NO_HEADERS, responseBody);
+      sink += frame.remaining();
+
+      pool.release(responseBody);
+    }
+  }
+
+  private Measurement measure(Runnable runnable) {
+    long allocatedBefore = getAllocatedBytes();
+    long start           = System.nanoTime();
+
+    runnable.run();
+
+    long elapsed        = System.nanoTime() - start;
+    long allocatedAfter = getAllocatedBytes();
+
+    return new Measurement(allocatedBefore < 0 ? -1 : (allocatedAfter - allocatedBefore) / ITERATIONS,
+                           elapsed / ITERATIONS);
+  }
+
+  private static long getAllocatedBytes() {
+    java.lang.management.ThreadMXBean threadMXBean = ManagementFactory.getThreadMXBean();
+
+    if (threadMXBean instanceof com.sun.management.ThreadMXBean) {
+      return ((com.sun.management.ThreadMXBean)threadMXBean).getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    return -1;
+  }
+
+  private static class Measurement {
+    private final long bytesPerOp;
+    private final long nanosPerOp;
+
+    private Measurement(long bytesPerOp, long nanosPerOp) {
+      this.bytesPerOp = bytesPerOp;
+      this.nanosPerOp = nanosPerOp;
+    }
+  }
+}
@@ -0,0 +1,67 @@
+package com.openchat.websocket.servlet;
+
+import com.codahale.metrics.MetricRegistry;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+public class ResponseBufferPoolTest {
+
+  @Test
+  public void testReleasedBufferIsReusedEmpty() {
+    ResponseBufferPool pool   = new ResponseBufferPool(4, new MetricRegistry());
+    ResponseBuffer     buffer = pool.acquire();
+
+    buffer.write(new byte[100], 0, 100);
+    pool.release(buffer);
+
+    ResponseBuffer reused = pool.acquire();
+
+    assertSame(buffer, reused);
+    assertEquals(0, reused.size());
+    assertEquals(ResponseBuffer.HEADER_RESERVE, reused.getBodyOffset());
+  }
+
+  @Test
+  public void testGrowsPastCapacity() {
+    ResponseBuffer buffer = new ResponseBuffer(16);
+    byte[]         body   = new byte[1000];
+
+    for (int i = 0; i < body.length; i++) {
+      buffer.write(i);
+      body[i] = (byte)i;
+    }
+
+    assertEquals(body.length, buffer.size());
+
+    for (int i = 0; i < body.length; i++) {
+      assertEquals(body[i], buffer.getArray()[buffer.getBodyOffset() + i]);
+    }
+  }
+
+  @Test
+  public void testOversizedBufferIsDiscarded() {
+    ResponseBufferPool pool   = new ResponseBufferPool(4, new MetricRegistry());
+    ResponseBuffer     buffer = pool.acquire();
+
+    buffer.write(new byte[1024 * 1024], 0, 1024 * 1024);
+    pool.release(buffer);
+
+    assertNotSame(buffer, pool.acquire());
+  }
+
+  @Test
+  public void testPoolIsBounded() {
+    MetricRegistry     metricRegistry = new MetricRegistry();
+    ResponseBufferPool pool           = new ResponseBufferPool(2, metricRegistry);
+    ResponseBuffer[]   buffers        = {pool.acquire(), pool.acquire(), pool.acquire()};
+
+    for (ResponseBuffer buffer : buffers) {
+      pool.release(buffer);
+    }
+
+    assertEquals(1, metricRegistry.meter(MetricRegistry.name(ResponseBufferPool.class, "discarded")).getCount());
+  }
+}